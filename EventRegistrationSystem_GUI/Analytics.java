@@ -0,0 +1,161 @@
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Registration statistics for the dashboard: registrations and fill per event, load per
+// day and per venue, and the students registered for the most events. Everything is
+// aggregated from RosterIndex, which is patched as registrations commit, so a report
+// costs O(events + students) in memory and never scans the registrations table.
+public class Analytics {
+    static final int TOP_STUDENTS = Integer.getInteger("analytics.topStudents", 25);
+    // per-student counts above this size are searched for the top students in parallel
+    static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    private Analytics() {
+    }
+
+    public static class EventStats {
+        public final Event event;
+        public final int registered;
+
+        EventStats(Event event, int registered) {
+            this.event = event;
+            this.registered = registered;
+        }
+
+        public double fill() {
+            return percent(registered, event.getCapacity());
+        }
+    }
+
+    // One histogram bar: all events on a day or at a venue
+    public static class Bucket {
+        public final String key;
+        public int events;
+        public long registered;
+        public long capacity;
+
+        Bucket(String key) {
+            this.key = key;
+        }
+
+        public double fill() {
+            return percent(registered, capacity);
+        }
+    }
+
+    public static class StudentCount {
+        public final int studentId;
+        public final String name;
+        public final String email;
+        public final int events;
+
+        StudentCount(int studentId, String name, String email, int events) {
+            this.studentId = studentId;
+            this.name = name;
+            this.email = email;
+            this.events = events;
+        }
+    }
+
+    public static class Report {
+        public final List<EventStats> events = new ArrayList<>();
+        public final List<Bucket> byDay = new ArrayList<>();
+        public final List<Bucket> byVenue = new ArrayList<>();
+        public final List<StudentCount> topStudents = new ArrayList<>();
+        public long registered;
+        public long capacity;
+        public int activeStudents;
+        public long computeMillis;
+
+        public double fill() {
+            return percent(registered, capacity);
+        }
+    }
+
+    public static Report compute() throws SQLException {
+        return compute(TOP_STUDENTS);
+    }
+
+    public static Report compute(int topN) throws SQLException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        Map<Integer, Integer> counts = RosterIndex.counts();
+        Map<String, Bucket> days = new TreeMap<>();
+        Map<String, Bucket> venues = new HashMap<>();
+        for (Event event : Repository.listEvents()) {
+            int registered = counts.getOrDefault(event.getEventId(), 0);
+            report.events.add(new EventStats(event, registered));
+            report.registered += registered;
+            report.capacity += event.getCapacity();
+            add(days.computeIfAbsent(String.valueOf(event.getDate()), Bucket::new), event, registered);
+            add(venues.computeIfAbsent(event.getVenue(), Bucket::new), event, registered);
+        }
+        report.byDay.addAll(days.values());
+        report.byVenue.addAll(venues.values());
+        report.byVenue.sort((a, b) -> Long.compare(b.registered, a.registered));
+
+        int[] perStudent = RosterIndex.perStudentCounts();
+        for (int count : perStudent) if (count > 0) report.activeStudents++;
+        long[] top = top(perStudent, topN);
+        List<Integer> ids = new ArrayList<>(top.length);
+        for (long entry : top) ids.add(studentId(entry));
+        Map<Integer, Student> students = Repository.getStudents(ids);
+        for (long entry : top) {
+            Student student = students.get(studentId(entry));
+            report.topStudents.add(new StudentCount(studentId(entry),
+                student != null ? student.getName() : "", student != null ? student.getEmail() : "", (int) (entry >>> 32)));
+        }
+        report.computeMillis = (System.nanoTime() - start) / 1000000;
+        return report;
+    }
+
+    private static void add(Bucket bucket, Event event, int registered) {
+        bucket.events++;
+        bucket.registered += registered;
+        bucket.capacity += event.getCapacity();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole > 0 ? 100.0 * part / whole : 0;
+    }
+
+    // The n largest counts, highest first, packed as count << 32 | ~id so that equal
+    // counts order by the lower student id.
+    static long[] top(int[] counts, int n) {
+        if (n <= 0) return new long[0];
+        if (counts.length < PARALLEL_THRESHOLD) return top(counts, 0, counts.length, n);
+        int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        int chunkSize = (counts.length + chunks - 1) / chunks;
+        long[] merged = IntStream.range(0, chunks).parallel()
+            .mapToObj(c -> top(counts, c * chunkSize, Math.min(counts.length, (c + 1) * chunkSize), n))
+            .flatMapToLong(Arrays::stream)
+            .toArray();
+        Arrays.sort(merged);
+        long[] result = new long[Math.min(n, merged.length)];
+        for (int i = 0; i < result.length; i++) result[i] = merged[merged.length - 1 - i];
+        return result;
+    }
+
+    private static long[] top(int[] counts, int from, int to, int n) {
+        PriorityQueue<Long> heap = new PriorityQueue<>(n + 1);
+        for (int id = Math.max(from, 1); id < to; id++) {
+            int count = counts[id];
+            if (count <= 0) continue;
+            long entry = ((long) count << 32) | (~id & 0xffffffffL);
+            if (heap.size() < n) {
+                heap.add(entry);
+            } else if (entry > heap.peek()) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        long[] result = new long[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) result[i] = heap.poll();
+        return result;
+    }
+
+    private static int studentId(long entry) {
+        return ~(int) entry;
+    }
+}
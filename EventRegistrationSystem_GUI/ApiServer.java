@@ -0,0 +1,449 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// HTTP/JSON API over the same services the panels use (Repository, CatalogService,
+// RegistrationService, BulkTransfer), for kiosks and bulk clients that have no window.
+// Run it on its own with "java -cp ... ApiServer", or next to the window with -Dapi.port.
+//
+//   GET    /api/events                         all events, streamed
+//   GET    /api/events/{id}                    one event with its registered count
+//   POST   /api/events                         {title, date, time, venue, capacity}
+//   GET    /api/events/{id}/registrations      the event's roster, streamed
+//   GET    /api/students[?q=name]              all students, or registrations of matching names
+//   POST   /api/students                       {name, email}
+//   POST   /api/students/batch                 [{name, email}, ...]
+//   POST   /api/registrations                  {studentId, eventId, waitlist}
+//   DELETE /api/registrations?studentId=&eventId=
+//   POST   /api/registrations/batch            [{studentId, eventId, waitlist, unregister}, ...]
+//   GET    /metrics                            Metrics.toText()
+//
+// Lists are written as they are read, a page at a time with chunked transfer encoding, so
+// the server never holds a whole table. Each request runs on its own virtual thread
+// where the JVM has them (21+) and on a bounded pool otherwise.
+//
+// The server listens on api.host, loopback unless set. POST and DELETE need the header
+// "Authorization: Bearer <api.token>"; without api.token set they are refused outright.
+public class ApiServer {
+    private static final Logger LOG = Logger.getLogger("eventsystem.api");
+    static final int PORT = Integer.getInteger("api.port", 8080);
+    static final String HOST = System.getProperty("api.host", "127.0.0.1");
+    static final String TOKEN = System.getProperty("api.token");
+    static final int THREADS = Integer.getInteger("api.threads", 64);
+    static final int MAX_BATCH = Integer.getInteger("api.maxBatch", 10000);
+    static final int MAX_BODY = Integer.getInteger("api.maxBodyBytes", 16 << 20);
+    static final int STREAM_PAGE = 500;
+
+    private ApiServer() {
+    }
+
+    public static HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(HOST, port), 0);
+        server.setExecutor(createExecutor());
+        server.createContext("/api/events", ApiServer::events);
+        server.createContext("/api/students", ApiServer::students);
+        server.createContext("/api/registrations", ApiServer::registrations);
+        server.createContext("/metrics", exchange -> handle(exchange, () -> {
+            if (!exchange.getRequestMethod().equals("GET")) throw new HttpError(405, "Use GET");
+            byte[] body = Metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }));
+        server.start();
+        return server;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Metrics.start();
+        Storage.get().open();
+        AuditLog.open();
+        HttpServer server = start(PORT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            AuditLog.close();
+            try {
+                Storage.get().close();
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Closing storage failed", e);
+            }
+        }, "api-shutdown"));
+        System.out.println("Listening on " + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+            + (TOKEN == null ? " (read-only: set api.token to allow changes)" : ""));
+    }
+
+    // Handlers
+
+    private static void events(HttpExchange exchange) {
+        handle(exchange, () -> {
+            String method = exchange.getRequestMethod();
+            List<String> path = path(exchange, "/api/events");
+            if (path.isEmpty()) {
+                if (method.equals("GET")) {
+                    stream(exchange, Storage.get().eventPages(), row -> event(row));
+                } else if (method.equals("POST")) {
+                    Map<String, Object> body = object(readBody(exchange));
+                    Event event = CatalogService.addEvent(string(body, "title"), string(body, "date"),
+                        string(body, "time"), string(body, "venue"), string(body, "capacity"));
+                    Map<String, Object> json = event(event);
+                    List<Integer> clashes = new ArrayList<>();
+                    for (Event clash : ScheduleIndex.venueConflicts(event)) clashes.add(clash.getEventId());
+                    json.put("venueConflicts", clashes);
+                    send(exchange, 201, json);
+                } else {
+                    throw new HttpError(405, "Use GET or POST");
+                }
+                return;
+            }
+
+            int eventId = id(path.get(0));
+            if (!method.equals("GET")) throw new HttpError(405, "Use GET");
+            Event event = Repository.getEvent(eventId);
+            if (event == null) throw new HttpError(404, "No event " + eventId);
+            if (path.size() == 1) {
+                Map<String, Object> json = event(event);
+                json.put("registered", RosterIndex.count(eventId));
+                json.put("remaining", RosterIndex.remaining(eventId));
+                send(exchange, 200, json);
+            } else if (path.size() == 2 && path.get(1).equals("registrations")) {
+                List<Object[]> rows = RosterIndex.rows(eventId);
+                streamRows(exchange, rows.iterator(), row -> student(row[0], row[1], row[2]));
+            } else {
+                throw new HttpError(404, "Not found");
+            }
+        });
+    }
+
+    private static void students(HttpExchange exchange) {
+        handle(exchange, () -> {
+            String method = exchange.getRequestMethod();
+            List<String> path = path(exchange, "/api/students");
+            if (path.isEmpty() && method.equals("GET")) {
+                String query = query(exchange).get("q");
+                if (query == null || query.trim().isEmpty()) {
+                    stream(exchange, Storage.get().studentPages(), row -> student(row[0], row[1], row[2]));
+                } else {
+                    stream(exchange, Storage.get().search(query.trim()), row -> {
+                        Map<String, Object> json = student(row[0], row[1], row[2]);
+                        json.put("eventTitle", row[3]);
+                        json.put("eventId", row[4]);
+                        return json;
+                    });
+                }
+            } else if (path.isEmpty() && method.equals("POST")) {
+                Map<String, Object> body = object(readBody(exchange));
+                Student student = CatalogService.addStudent(string(body, "name"), string(body, "email"));
+                if (student == null) throw new HttpError(409, "A student with this email already exists");
+                send(exchange, 201, student(student.getStudentId(), student.getName(), student.getEmail()));
+            } else if (path.size() == 1 && path.get(0).equals("batch") && method.equals("POST")) {
+                List<String[]> rows = new ArrayList<>();
+                for (Object item : array(readBody(exchange))) {
+                    Map<String, Object> row = object(item);
+                    rows.add(new String[]{string(row, "name"), string(row, "email")});
+                }
+                BulkTransfer.Report report = BulkTransfer.importStudents(rows);
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("read", report.read);
+                json.put("written", report.written);
+                json.put("rejected", report.rejected);
+                json.put("duplicates", report.duplicates);
+                json.put("rejections", report.rejections);
+                send(exchange, 200, json);
+            } else {
+                throw new HttpError(404, "Not found");
+            }
+        });
+    }
+
+    private static void registrations(HttpExchange exchange) {
+        handle(exchange, () -> {
+            String method = exchange.getRequestMethod();
+            List<String> path = path(exchange, "/api/registrations");
+            if (path.isEmpty() && method.equals("POST")) {
+                Map<String, Object> result = registration(object(readBody(exchange)));
+                send(exchange, status((String) result.get("result")), result);
+            } else if (path.isEmpty() && method.equals("DELETE")) {
+                Map<String, String> query = query(exchange);
+                int studentId = id(query.get("studentId"));
+                int eventId = id(query.get("eventId"));
+                if (!RegistrationService.unregister(studentId, eventId)) {
+                    throw new HttpError(404, "Student " + studentId + " is not registered for event " + eventId);
+                }
+                send(exchange, 200, result(studentId, eventId, "UNREGISTERED"));
+            } else if (path.size() == 1 && path.get(0).equals("batch") && method.equals("POST")) {
+                // Each item is its own registration; one that fails does not stop the rest
+                List<Object> items = array(readBody(exchange));
+                streamRows(exchange, items.iterator(), item -> {
+                    try {
+                        return registration(object(item));
+                    } catch (HttpError e) {
+                        Map<String, Object> json = new LinkedHashMap<>();
+                        json.put("error", e.getMessage());
+                        return json;
+                    }
+                });
+            } else {
+                throw new HttpError(404, "Not found");
+            }
+        });
+    }
+
+    private static Map<String, Object> registration(Map<String, Object> body) throws SQLException, HttpError {
+        int studentId = id(string(body, "studentId"));
+        int eventId = id(string(body, "eventId"));
+        if (Boolean.TRUE.equals(body.get("unregister"))) {
+            return result(studentId, eventId,
+                RegistrationService.unregister(studentId, eventId) ? "UNREGISTERED" : "NOT_REGISTERED");
+        }
+        if (Repository.getStudent(studentId) == null) throw new HttpError(404, "No student " + studentId);
+        boolean waitlist = Boolean.TRUE.equals(body.get("waitlist"));
+        return result(studentId, eventId, RegistrationService.register(studentId, eventId, waitlist).name());
+    }
+
+    private static int status(String result) {
+        switch (result) {
+            case "REGISTERED":
+                return 201;
+            case "WAITLISTED":
+                return 202;
+            case "NO_SUCH_EVENT":
+                return 404;
+            default:
+                return 409;
+        }
+    }
+
+    // JSON shapes
+
+    private static Map<String, Object> event(Object[] row) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", row[0]);
+        json.put("title", row[1]);
+        json.put("date", row[2]);
+        json.put("time", row[3]);
+        json.put("venue", row[4]);
+        json.put("capacity", row[5]);
+        return json;
+    }
+
+    private static Map<String, Object> event(Event event) {
+        return event(new Object[]{event.getEventId(), event.getTitle(), event.getDate(), event.getTime(),
+            event.getVenue(), event.getCapacity()});
+    }
+
+    private static Map<String, Object> student(Object id, Object name, Object email) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", id);
+        json.put("name", name);
+        json.put("email", email);
+        return json;
+    }
+
+    private static Map<String, Object> result(int studentId, int eventId, String result) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("studentId", studentId);
+        json.put("eventId", eventId);
+        json.put("result", result);
+        return json;
+    }
+
+    // Plumbing
+
+    private interface Handler {
+        void run() throws Exception;
+    }
+
+    private interface RowWriter<T> {
+        Object toJson(T row) throws Exception;
+    }
+
+    private static class HttpError extends Exception {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try {
+            authorize(exchange);
+            handler.run();
+        } catch (HttpError e) {
+            error(exchange, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage());
+        } catch (SQLException e) {
+            if (SqlStorage.isMissingParent(e)) {
+                error(exchange, 409, "Unknown student or event");
+                return;
+            }
+            LOG.log(Level.WARNING, "Database error on " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(), e);
+            error(exchange, 503, "Database error: " + e.getMessage());
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Unexpected error on " + exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath(), e);
+            error(exchange, 500, String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Reads are open to whoever can reach the port; anything else must carry the token.
+    private static void authorize(HttpExchange exchange) throws HttpError {
+        String method = exchange.getRequestMethod();
+        if (method.equals("GET") || method.equals("HEAD")) return;
+        if (TOKEN == null) throw new HttpError(403, "Changes are disabled; start the server with -Dapi.token");
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] given = header == null || !header.startsWith("Bearer ")
+            ? new byte[0] : header.substring(7).trim().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(given, TOKEN.getBytes(StandardCharsets.UTF_8))) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            throw new HttpError(401, "Missing or wrong api token");
+        }
+    }
+
+    // Only possible before the response has started; a failed stream is just cut short.
+    private static void error(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) return;
+        try {
+            send(exchange, status, Collections.singletonMap("error", message));
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object json) throws IOException {
+        byte[] body = Json.write(json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    // Writes the source as one JSON array, fetching it a page at a time by key.
+    private static void stream(HttpExchange exchange, PagedTableModel.PageSource source, RowWriter<Object[]> writer)
+            throws Exception {
+        List<Object[]> page = source.fetch(null, STREAM_PAGE);
+        Writer out = startArray(exchange);
+        boolean first = true;
+        while (!page.isEmpty()) {
+            for (Object[] row : page) {
+                if (!first) out.write(',');
+                first = false;
+                Json.write(out, writer.toJson(row));
+            }
+            out.write('\n');
+            if (page.size() < STREAM_PAGE) break;
+            page = source.fetch(source.keyOf(page.get(page.size() - 1)), STREAM_PAGE);
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    private static <T> void streamRows(HttpExchange exchange, Iterator<T> rows, RowWriter<T> writer) throws Exception {
+        Writer out = startArray(exchange);
+        boolean first = true;
+        int n = 0;
+        while (rows.hasNext()) {
+            if (!first) out.write(',');
+            first = false;
+            Json.write(out, writer.toJson(rows.next()));
+            if (++n % STREAM_PAGE == 0) out.write('\n');
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    private static Writer startArray(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);  // 0 = chunked
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16);
+        out.write('[');
+        return out;
+    }
+
+    private static Object readBody(HttpExchange exchange) throws IOException, HttpError {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        InputStream in = exchange.getRequestBody();
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bytes.write(buf, 0, n);
+            if (bytes.size() > MAX_BODY) throw new HttpError(413, "Request body over " + MAX_BODY + " bytes");
+        }
+        return Json.parse(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object json) throws HttpError {
+        if (!(json instanceof Map)) throw new HttpError(400, "Expected a JSON object");
+        return (Map<String, Object>) json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Object json) throws HttpError {
+        if (!(json instanceof List)) throw new HttpError(400, "Expected a JSON array");
+        List<Object> list = (List<Object>) json;
+        if (list.size() > MAX_BATCH) throw new HttpError(413, "At most " + MAX_BATCH + " items per batch");
+        return list;
+    }
+
+    private static String string(Map<String, Object> json, String field) {
+        Object value = json.get(field);
+        return value == null ? null : value.toString();
+    }
+
+    private static int id(String value) throws HttpError {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Expected a numeric id, got " + value);
+        }
+    }
+
+    private static List<String> path(HttpExchange exchange, String prefix) {
+        String rest = exchange.getRequestURI().getPath().substring(prefix.length());
+        List<String> parts = new ArrayList<>();
+        for (String part : rest.split("/")) {
+            if (!part.isEmpty()) parts.add(part);
+        }
+        return parts;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static ExecutorService createExecutor() {
+        // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(THREADS, r -> {
+                Thread t = new Thread(r, "api-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+// Append-only file of checksummed records, written through a memory-mapped buffer.
+// Each record is [length][CRC32C][type][payload] and the file is zero-filled past the
+// last one. Opening replays every complete record; a torn record at the end (power cut
+// mid-write) fails its checksum and is dropped. Not thread safe; callers lock.
+public class AppendLog implements Closeable {
+    static final int REGION = 1 << 20;
+
+    public interface Handler {
+        void record(byte type, ByteBuffer payload);
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+    private int end;
+
+    public AppendLog(Path file) {
+        this.file = file;
+    }
+
+    // Maps the file, replays its complete records into handler and zeroes any torn tail
+    // so later appends start from clean space. Returns the number of records replayed.
+    public int open(Handler handler) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), REGION);
+        if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        int[] records = new int[1];
+        int pos = scan(buf, (type, payload) -> {
+            handler.record(type, payload);
+            records[0]++;
+        });
+        end = pos;
+        if (pos < buf.limit() && buf.getInt(pos) != 0) {
+            for (int i = pos; i < buf.limit(); i++) buf.put(i, (byte) 0);
+            buf.force();
+        }
+        return records[0];
+    }
+
+    // Replays the complete records of a log without opening it for writing, e.g. one that
+    // another AppendLog is still appending to. Returns the bytes they take.
+    public static long read(Path file, Handler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is too large");
+            return scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), handler);
+        }
+    }
+
+    // Hands each record that passes its checksum to handler; returns the offset after the last one.
+    private static int scan(ByteBuffer buf, Handler handler) {
+        int pos = 0;
+        CRC32C crc = new CRC32C();
+        ByteBuffer record = buf.duplicate();
+        while (pos + 8 <= buf.limit()) {
+            int length = buf.getInt(pos);
+            if (length <= 0 || pos + 8L + length > buf.limit()) break;
+            record.limit(pos + 8 + length).position(pos + 8);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != buf.getInt(pos + 4)) break;
+            record.position(pos + 8);
+            byte type = record.get();
+            handler.record(type, record.slice());
+            pos += 8 + length;
+        }
+        return pos;
+    }
+
+    // Appends one record; with force it is on disk when this returns.
+    public void append(byte type, byte[] payload, boolean force) throws IOException {
+        if (buf == null) throw new IOException(file + " is not open");
+        int length = 1 + payload.length;
+        if ((long) end + 8 + length > buf.limit()) grow(8 + length);
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+
+        int at = end;
+        buf.position(at + 4);
+        buf.putInt((int) crc.getValue());
+        buf.put(type);
+        buf.put(payload);
+        // the length goes in last: until it is non-zero the record does not exist
+        buf.putInt(at, length);
+        if (force) buf.force(at, 8 + length);
+        end = at + 8 + length;
+    }
+
+    public void force() {
+        if (buf != null) buf.force();
+    }
+
+    // Bytes used by records
+    public int size() {
+        return end;
+    }
+
+    // Drops every record.
+    public void clear() {
+        for (int i = 0; i < end; i++) buf.put(i, (byte) 0);
+        buf.force();
+        end = 0;
+    }
+
+    private void grow(int needed) throws IOException {
+        long size = buf.limit();
+        while (size < (long) end + needed) size += REGION;
+        if (size > Integer.MAX_VALUE) throw new IOException(file + " is full");
+        buf.force();
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    public void close() throws IOException {
+        if (buf == null) return;
+        buf.force();
+        buf = null;
+        channel.close();
+    }
+
+    // Strings in record payloads: [length][UTF-8 bytes], length -1 for null
+    static void putString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,169 @@
+import java.awt.Component;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+
+// Runs database loads off the EDT for one panel. Loads are keyed: starting a load
+// cancels any earlier load with the same key that has not delivered yet, so a slow
+// stale query can never overwrite newer results.
+public class AsyncLoader {
+    static final int THREADS = Integer.getInteger("loader.threads", 4);
+    static final int QUEUE_SIZE = Integer.getInteger("loader.queue", 256);
+    static final boolean VIRTUAL_THREADS = Boolean.getBoolean("loader.virtualThreads");
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.loader");
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private final JLabel indicator;
+    private final Map<String, SwingWorker<?, ?>> current = new HashMap<>();
+    private int pending;
+
+    public AsyncLoader(JLabel indicator) {
+        this.indicator = indicator;
+    }
+
+    // Must be called on the EDT. onDone also runs on the EDT, and only if no newer
+    // load for the same key was started in the meantime.
+    public <T> void load(String key, Callable<T> work, Consumer<T> onDone) {
+        load(key, work, onDone, null);
+    }
+
+    // onFailed runs on the EDT instead of onDone when the load fails, is rejected or is
+    // cancelled, unless a newer load for the same key has taken its place.
+    public <T> void load(String key, Callable<T> work, Consumer<T> onDone, Runnable onFailed) {
+        SwingWorker<T, Void> worker = new SwingWorker<T, Void>() {
+            protected T doInBackground() throws Exception {
+                // storage is opened in the background at startup
+                Startup.awaitStorage();
+                return work.call();
+            }
+
+            protected void done() {
+                finished();
+                SwingWorker<?, ?> latest = current.get(key);
+                if (isCancelled() || latest != this) {
+                    if (latest == null && onFailed != null) onFailed.run();
+                    return;
+                }
+                current.remove(key);
+                try {
+                    onDone.accept(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (onFailed != null) onFailed.run();
+                } catch (ExecutionException e) {
+                    LOG.log(Level.WARNING, "Loading failed", e.getCause());
+                    if (indicator != null) indicator.setText("Load failed: " + e.getCause().getMessage());
+                    if (onFailed != null) onFailed.run();
+                }
+            }
+        };
+
+        // registered before the old one is cancelled, whose done() then sees it was replaced
+        SwingWorker<?, ?> previous = current.put(key, worker);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        started();
+        try {
+            EXECUTOR.execute(worker);
+        } catch (RejectedExecutionException e) {
+            current.remove(key);
+            worker.cancel(false);
+            // done() still runs for the cancelled worker and calls onFailed
+            if (indicator != null) indicator.setText("Too many pending loads, try again");
+        }
+    }
+
+    // A change asked for in a dialog: work runs off the EDT, then onDone on the EDT. Unlike a
+    // load it is never cancelled, and when it fails the user is told in a dialog: bad input
+    // as an Input Error, anything else as "Error saving <what>".
+    public static <T> void write(Component parent, String what, Callable<T> work, Consumer<T> onDone) {
+        new SwingWorker<T, Void>() {
+            protected T doInBackground() throws Exception {
+                Startup.awaitStorage();
+                return work.call();
+            }
+
+            protected void done() {
+                T result;
+                try {
+                    result = get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IllegalArgumentException) {
+                        JOptionPane.showMessageDialog(parent, cause.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    LOG.log(cause instanceof SQLException ? Level.WARNING : Level.SEVERE, "Saving " + what + " failed", cause);
+                    JOptionPane.showMessageDialog(parent, "Error saving " + what + ": " + cause.getMessage(),
+                        cause instanceof SQLException ? "Database Error" : "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                onDone.accept(result);
+            }
+        }.execute();
+    }
+
+    public void cancelAll() {
+        for (SwingWorker<?, ?> worker : current.values()) {
+            worker.cancel(true);
+        }
+        current.clear();
+    }
+
+    private void started() {
+        pending++;
+        if (indicator != null) indicator.setText("Loading...");
+    }
+
+    private void finished() {
+        pending--;
+        if (pending == 0 && indicator != null) indicator.setText(" ");
+    }
+
+    // Replaces all rows of the model and fires a single table event instead of one per row.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void setRows(DefaultTableModel model, List<Object[]> rows) {
+        Vector data = model.getDataVector();
+        data.clear();
+        for (Object[] row : rows) {
+            Vector<Object> v = new Vector<>(row.length);
+            for (Object value : row) v.add(value);
+            data.add(v);
+        }
+        model.fireTableDataChanged();
+    }
+
+    private static ExecutorService createExecutor() {
+        if (VIRTUAL_THREADS) {
+            // Executors.newVirtualThreadPerTaskExecutor() only exists on Java 21+
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads not available, using a platform thread pool");
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_SIZE), r -> {
+                Thread t = new Thread(r, "db-loader");
+                t.setDaemon(true);
+                return t;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
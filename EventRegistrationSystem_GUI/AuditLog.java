@@ -0,0 +1,759 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+// History of every change this desk makes: events and students added, registrations
+// added and removed, check-ins. Each change is one small binary record appended to the
+// current segment (an AppendLog) while the change's lock is still held, so the records of
+// one event are in the order the changes committed. Records are numbered; a segment is
+// named after its first number and starts with a header saying who wrote it.
+//
+// A segment is closed when it reaches audit.segmentBytes, is older than audit.rotateMs,
+// or the desk restarts. Once the closed segments since the last checkpoint add up to
+// audit.segmentBytes, a background thread folds them into a new checkpoint: the full
+// state at that record number. Replaying loads the nearest checkpoint and applies the
+// records after it, up to a point in time if asked. When the directory passes
+// audit.maxBytes the oldest segments that a later checkpoint covers are deleted.
+//
+// With storage shared between desks, changes another desk made are recorded as this
+// desk's change feed applies them, each after a REMOTE record naming that desk's feed
+// origin (its own segment headers pair the origin with its audit.actor). They land up to
+// feed.pollMs after they committed, so against this desk's own changes they are in the
+// order this desk learned of them; changes skipped when the feed reloads are not recorded.
+//
+// The first checkpoint is read from storage when the directory is new. Changes made
+// while it is being read are in the log too; every change is idempotent (adding a row
+// that is there, removing one that is not), so applying them again gives the same state.
+//
+// Files in audit.dir:
+//   segment-<first seq>.log     header, then one record per change
+//   checkpoint-<seq>.dat        magic, format, seq, time, all rows, CRC32C
+public class AuditLog {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("audit.enabled", "true"));
+    static final Path DIR = Paths.get(System.getProperty("audit.dir",
+        Paths.get(LocalStorage.DIR, "audit").toString()));
+    static final long SEGMENT_BYTES = Long.getLong("audit.segmentBytes", 64L << 20);
+    static final long ROTATE_MS = Long.getLong("audit.rotateMs", 24 * 60 * 60 * 1000L);
+    static final long MAX_BYTES = Long.getLong("audit.maxBytes", 1L << 30);
+    // records are forced to disk this often; a crash of the process alone loses none
+    static final long SYNC_MS = Long.getLong("audit.syncMs", 1000);
+    static final String ACTOR = System.getProperty("audit.actor", System.getProperty("user.name") + "@" + hostName());
+
+    static final byte HEADER = 0;
+    static final byte EVENT_ADDED = 1;
+    static final byte STUDENT_ADDED = 2;
+    static final byte REGISTERED = 3;
+    static final byte UNREGISTERED = 4;
+    static final byte CHECKED_IN = 5;
+    // the next record was made by another desk: time, that desk's ChangeFeed.ORIGIN
+    static final byte REMOTE = 6;
+    private static final String[] NAMES = {"HEADER", "EVENT_ADDED", "STUDENT_ADDED", "REGISTERED", "UNREGISTERED",
+        "CHECKED_IN", "REMOTE"};
+
+    private static final int MAGIC = 0x45524131;
+    private static final int FORMAT = 1;
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.audit");
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "audit-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicLong ERRORS = new AtomicLong();
+
+    // guarded by AuditLog.class
+    private static volatile AppendLog segment;
+    // first record number of the open segment
+    private static long segmentFirst;
+    private static long segmentOpened;
+    private static long nextSeq;
+    private static long lastMillis;
+    private static FileChannel lockChannel;
+    private static FileLock lock;
+    private static ScheduledFuture<?> syncer;
+
+    private AuditLog() {
+    }
+
+    // Registration state rebuilt from checkpoints and segments.
+    public static class State {
+        public final Map<Integer, Event> events = new HashMap<>();
+        public final Map<Integer, Student> students = new HashMap<>();
+        public final Map<Integer, IntSet> rosters = new HashMap<>();
+        // event id -> student id -> checked-in time
+        public final Map<Integer, Map<Integer, Long>> checkIns = new HashMap<>();
+        // records before this number are applied
+        public long seq;
+        // time of the last record applied, or of the checkpoint
+        public long millis;
+        // false if no checkpoint was found, so changes from before the log are missing
+        public boolean complete;
+        public long replayed;
+
+        public int registrations() {
+            int n = 0;
+            for (IntSet roster : rosters.values()) n += roster.size();
+            return n;
+        }
+
+        void apply(byte type, ByteBuffer in) {
+            switch (type) {
+                case EVENT_ADDED: {
+                    Event event = LocalStorage.readEvent(in);
+                    events.put(event.getEventId(), event);
+                    break;
+                }
+                case STUDENT_ADDED: {
+                    Student student = new Student(in.getInt(), AppendLog.getString(in), AppendLog.getString(in));
+                    students.put(student.getStudentId(), student);
+                    break;
+                }
+                case REGISTERED: {
+                    int eventId = in.getInt();
+                    IntSet roster = rosters.get(eventId);
+                    if (roster == null) rosters.put(eventId, roster = new IntSet());
+                    roster.add(in.getInt());
+                    break;
+                }
+                case UNREGISTERED: {
+                    int eventId = in.getInt();
+                    int studentId = in.getInt();
+                    IntSet roster = rosters.get(eventId);
+                    if (roster != null) roster.remove(studentId);
+                    // like the database, dropping the registration drops its check-in
+                    Map<Integer, Long> checkedIn = checkIns.get(eventId);
+                    if (checkedIn != null) checkedIn.remove(studentId);
+                    break;
+                }
+                case CHECKED_IN: {
+                    int eventId = in.getInt();
+                    int studentId = in.getInt();
+                    long at = in.getLong();
+                    IntSet roster = rosters.get(eventId);
+                    if (roster != null && roster.contains(studentId)) {
+                        checkIns.computeIfAbsent(eventId, k -> new HashMap<>()).putIfAbsent(studentId, at);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    // One change, for history().
+    public static class Entry {
+        public final long seq;
+        public final long millis;
+        public final String change;
+        public final int eventId;
+        public final int studentId;
+        // who made it: audit.actor of the desk that wrote the segment, or "origin <id>" for
+        // a change another desk made
+        public final String actor;
+
+        Entry(long seq, long millis, String change, int eventId, int studentId, String actor) {
+            this.seq = seq;
+            this.millis = millis;
+            this.change = change;
+            this.eventId = eventId;
+            this.studentId = studentId;
+            this.actor = actor;
+        }
+
+        public String toString() {
+            return new java.sql.Timestamp(millis) + "  #" + seq + "  " + change
+                + (eventId != 0 ? "  event " + eventId : "") + (studentId != 0 ? "  student " + studentId : "")
+                + "  by " + actor;
+        }
+    }
+
+    // Opens a new segment after the existing ones; storage must be open. A directory held
+    // by another process leaves auditing off for this one.
+    public static synchronized void open() {
+        if (!ENABLED || segment != null) return;
+        try {
+            Files.createDirectories(DIR);
+            lockChannel = FileChannel.open(DIR.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = lockChannel.tryLock();
+            if (lock == null) {
+                lockChannel.close();
+                LOG.warning(DIR + " is in use by another process; this desk's changes are not audited");
+                return;
+            }
+            List<Long> segments = list("segment-", ".log");
+            if (segments.isEmpty()) {
+                nextSeq = 0;
+                if (list("checkpoint-", ".dat").isEmpty()) MAINTENANCE.execute(AuditLog::baseline);
+            } else {
+                long first = segments.get(segments.size() - 1);
+                long[] last = {first, 0};
+                AppendLog.read(segmentPath(first), (type, payload) -> {
+                    if (type == HEADER) return;
+                    last[0]++;
+                    last[1] = Math.max(last[1], payload.getLong());
+                });
+                nextSeq = last[0];
+                lastMillis = last[1];
+                // a segment nobody wrote to would share its name with the next one
+                if (nextSeq == first) Files.delete(segmentPath(first));
+            }
+            startSegment();
+            syncer = MAINTENANCE.scheduleWithFixedDelay(AuditLog::sync, SYNC_MS, SYNC_MS, TimeUnit.MILLISECONDS);
+            MAINTENANCE.execute(AuditLog::maintain);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Audit log could not be opened; changes will not be audited", e);
+            ERRORS.incrementAndGet();
+            segment = null;
+        }
+    }
+
+    public static synchronized void close() {
+        if (segment == null) return;
+        try {
+            syncer.cancel(false);
+            closeSegment();
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Closing the audit log failed", e);
+            ERRORS.incrementAndGet();
+        } finally {
+            segment = null;
+        }
+    }
+
+    // Records written this run and failed appends
+    public static long records() {
+        synchronized (AuditLog.class) {
+            return segment == null ? 0 : nextSeq;
+        }
+    }
+
+    public static long errors() {
+        return ERRORS.get();
+    }
+
+    // Changes, called right after they are stored. Never throws: the change is already
+    // committed, so a failed append is logged and counted instead.
+
+    public static void eventAdded(Event event) {
+        if (segment == null) return;
+        append(null, EVENT_ADDED, eventPayload(event));
+    }
+
+    public static void studentAdded(Student student) {
+        studentsAdded(Collections.singletonList(student));
+    }
+
+    public static void studentsAdded(List<Student> students) {
+        if (segment == null) return;
+        for (Student student : students) append(null, STUDENT_ADDED, studentPayload(student));
+    }
+
+    public static void registered(int eventId, int studentId) {
+        registration(REGISTERED, eventId, studentId);
+    }
+
+    public static void unregistered(int eventId, int studentId) {
+        registration(UNREGISTERED, eventId, studentId);
+    }
+
+    public static void checkedIn(int eventId, Map<Integer, Long> checkIns) {
+        if (segment == null) return;
+        for (Map.Entry<Integer, Long> checkIn : checkIns.entrySet()) {
+            append(null, CHECKED_IN, checkInPayload(eventId, checkIn.getKey(), checkIn.getValue()));
+        }
+    }
+
+    private static void registration(byte type, int eventId, int studentId) {
+        if (segment == null) return;
+        append(null, type, registrationPayload(eventId, studentId));
+    }
+
+    // Changes other desks made, called by ChangeFeed as it applies them; origin is the
+    // other desk's ChangeFeed.ORIGIN.
+
+    static boolean recording() {
+        return segment != null;
+    }
+
+    static void remoteEventAdded(String origin, Event event) {
+        if (segment == null) return;
+        append(origin, EVENT_ADDED, eventPayload(event));
+    }
+
+    static void remoteStudentAdded(String origin, Student student) {
+        if (segment == null) return;
+        append(origin, STUDENT_ADDED, studentPayload(student));
+    }
+
+    static void remoteRegistration(String origin, boolean added, int eventId, int studentId) {
+        if (segment == null) return;
+        append(origin, added ? REGISTERED : UNREGISTERED, registrationPayload(eventId, studentId));
+    }
+
+    static void remoteCheckedIn(String origin, int eventId, int studentId, long at) {
+        if (segment == null) return;
+        append(origin, CHECKED_IN, checkInPayload(eventId, studentId, at));
+    }
+
+    private static byte[] eventPayload(Event event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0);
+            LocalStorage.writeEvent(out, event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] studentPayload(Student student) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0);
+            out.writeInt(student.getStudentId());
+            AppendLog.putString(out, student.getName());
+            AppendLog.putString(out, student.getEmail());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] registrationPayload(int eventId, int studentId) {
+        return ByteBuffer.allocate(16).putLong(0).putInt(eventId).putInt(studentId).array();
+    }
+
+    private static byte[] checkInPayload(int eventId, int studentId, long at) {
+        return ByteBuffer.allocate(24).putLong(0).putInt(eventId).putInt(studentId).putLong(at).array();
+    }
+
+    // Every payload starts with a placeholder for the time, filled in here so that times
+    // never go backwards within the log. A change from another desk is preceded by its
+    // REMOTE record in the same segment.
+    private static synchronized void append(String origin, byte type, byte[] payload) {
+        if (segment == null) return;
+        try {
+            long now = Math.max(System.currentTimeMillis(), lastMillis);
+            byte[] remote = null;
+            if (origin != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeLong(now);
+                AppendLog.putString(out, origin);
+                remote = bytes.toByteArray();
+            }
+            long needed = 9L + payload.length + (remote == null ? 0 : 9L + remote.length);
+            if (segment.size() + needed > SEGMENT_BYTES || now - segmentOpened > ROTATE_MS) rotate();
+            if (remote != null) {
+                segment.append(REMOTE, remote, false);
+                nextSeq++;
+            }
+            ByteBuffer.wrap(payload).putLong(0, now);
+            segment.append(type, payload, false);
+            lastMillis = now;
+            nextSeq++;
+        } catch (IOException e) {
+            ERRORS.incrementAndGet();
+            LOG.warning("Audit record not written: " + e.getMessage());
+        }
+    }
+
+    private static void startSegment() throws IOException {
+        segmentFirst = nextSeq;
+        segmentOpened = System.currentTimeMillis();
+        segment = new AppendLog(segmentPath(nextSeq));
+        segment.open((type, payload) -> {
+        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(nextSeq);
+        out.writeLong(segmentOpened);
+        AppendLog.putString(out, ACTOR);
+        AppendLog.putString(out, ChangeFeed.ORIGIN);
+        segment.append(HEADER, bytes.toByteArray(), true);
+    }
+
+    private static void rotate() throws IOException {
+        closeSegment();
+        startSegment();
+        MAINTENANCE.execute(AuditLog::maintain);
+    }
+
+    // Cuts the zeroed space AppendLog maps ahead, so a closed segment takes only what it holds
+    private static void closeSegment() throws IOException {
+        long used = segment.size();
+        segment.close();
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentFirst), StandardOpenOption.WRITE)) {
+            channel.truncate(used);
+        }
+    }
+
+    private static synchronized void sync() {
+        if (segment != null) segment.force();
+    }
+
+    // Maintenance, on the audit-maintenance thread.
+
+    // The first checkpoint: whatever storage holds as the log starts.
+    private static void baseline() {
+        try {
+            long started = System.currentTimeMillis();
+            Storage storage = Storage.get();
+            State state = new State();
+            for (Event event : storage.events()) state.events.put(event.getEventId(), event);
+            for (Student student : storage.students()) state.students.put(student.getStudentId(), student);
+            storage.forEachRegistration((eventId, studentId) ->
+                state.rosters.computeIfAbsent(eventId, k -> new IntSet()).add(studentId));
+            for (Integer eventId : state.events.keySet()) {
+                Map<Integer, Long> checkIns = storage.checkIns(eventId);
+                if (!checkIns.isEmpty()) state.checkIns.put(eventId, new HashMap<>(checkIns));
+            }
+            state.seq = 0;
+            state.millis = started;
+            writeCheckpoint(state);
+            LOG.info("Audit log started with " + state.registrations() + " registrations in "
+                + (System.currentTimeMillis() - started) + " ms");
+        } catch (SQLException | IOException e) {
+            ERRORS.incrementAndGet();
+            LOG.warning("Audit baseline not written; replays will start empty: " + e.getMessage());
+        }
+    }
+
+    // A checkpoint once enough closed segments have built up, then deletes what the size
+    // budget does not allow.
+    private static void maintain() {
+        try {
+            long current;
+            synchronized (AuditLog.class) {
+                current = segment == null ? Long.MAX_VALUE : segmentFirst;
+            }
+            List<Long> segments = list("segment-", ".log");
+            List<Long> checkpoints = list("checkpoint-", ".dat");
+            if (!checkpoints.isEmpty()) {
+                long base = checkpoints.get(checkpoints.size() - 1);
+                long pending = 0;
+                for (Long first : segments) {
+                    if (first >= base && first < current) pending += Files.size(segmentPath(first));
+                }
+                // the new checkpoint is the state as the open segment starts
+                if (pending >= SEGMENT_BYTES) {
+                    State state = replay(Long.MAX_VALUE, current);
+                    writeCheckpoint(state);
+                    checkpoints.add(state.seq);
+                }
+            }
+            compact(segments, checkpoints, current);
+        } catch (IOException e) {
+            ERRORS.incrementAndGet();
+            LOG.warning("Audit maintenance failed: " + e.getMessage());
+        }
+    }
+
+    // Deletes the oldest segments while over budget, as long as a later checkpoint still
+    // covers them, then the checkpoints that only those segments could be replayed from.
+    private static void compact(List<Long> segments, List<Long> checkpoints, long current) throws IOException {
+        long total = 0;
+        for (Long first : segments) total += size(segmentPath(first));
+        for (Long seq : checkpoints) total += size(checkpointPath(seq));
+        if (total <= MAX_BYTES) return;
+        long latestCheckpoint = checkpoints.isEmpty() ? -1 : checkpoints.get(checkpoints.size() - 1);
+
+        int deleted = 0;
+        while (total > MAX_BYTES && segments.size() > 1 && segments.get(1) <= latestCheckpoint
+                && segments.get(0) < current) {
+            total -= size(segmentPath(segments.get(0)));
+            Files.deleteIfExists(segmentPath(segments.remove(0)));
+            deleted++;
+        }
+        long oldest = segments.isEmpty() ? current : segments.get(0);
+        for (Long seq : checkpoints) {
+            if (seq < oldest && seq != latestCheckpoint) Files.deleteIfExists(checkpointPath(seq));
+        }
+        if (deleted > 0) LOG.info("Audit log: deleted " + deleted + " old segments; history now starts at #" + oldest);
+    }
+
+    // Replay
+
+    // The state after every record up to and including asOfMillis; Long.MAX_VALUE for now.
+    public static State replay(long asOfMillis) throws IOException {
+        return replay(asOfMillis, Long.MAX_VALUE);
+    }
+
+    // Starts from the latest checkpoint no later than asOfMillis and below seq limit.
+    private static State replay(long asOfMillis, long limit) throws IOException {
+        State state = null;
+        List<Long> checkpoints = list("checkpoint-", ".dat");
+        for (int i = checkpoints.size() - 1; i >= 0 && state == null; i--) {
+            if (checkpoints.get(i) > limit) continue;
+            State candidate = readCheckpoint(checkpointPath(checkpoints.get(i)));
+            if (candidate.millis <= asOfMillis) state = candidate;
+        }
+        if (state == null) state = new State();
+        State s = state;
+        List<Long> segments = list("segment-", ".log");
+        for (int i = 0; i < segments.size(); i++) {
+            long first = segments.get(i);
+            if (first >= limit) break;
+            // wholly before the checkpoint
+            if (i + 1 < segments.size() && segments.get(i + 1) <= s.seq) continue;
+            long[] seq = {first};
+            boolean[] past = {false};
+            AppendLog.read(segmentPath(first), (type, payload) -> {
+                if (type == HEADER || past[0]) return;
+                long at = seq[0]++;
+                if (at < s.seq || at >= limit) return;
+                long millis = payload.getLong();
+                if (millis > asOfMillis) {
+                    past[0] = true;
+                    return;
+                }
+                s.apply(type, payload);
+                s.seq = at + 1;
+                s.millis = millis;
+                if (type != REMOTE) s.replayed++;
+            });
+            if (past[0]) break;
+        }
+        if (limit != Long.MAX_VALUE) s.seq = limit;
+        return s;
+    }
+
+    // Changes to one event and/or student, oldest first; 0 matches any. At most limit, the latest.
+    public static List<Entry> history(int eventId, int studentId, int limit) throws IOException {
+        ArrayDeque<Entry> found = new ArrayDeque<>();
+        for (Long first : list("segment-", ".log")) {
+            long[] seq = {first};
+            String[] actor = {"?", null};
+            AppendLog.read(segmentPath(first), (type, payload) -> {
+                if (type == HEADER) {
+                    payload.getLong();
+                    payload.getLong();
+                    actor[0] = AppendLog.getString(payload);
+                    return;
+                }
+                long at = seq[0]++;
+                long millis = payload.getLong();
+                if (type == REMOTE) {
+                    actor[1] = "origin " + AppendLog.getString(payload);
+                    return;
+                }
+                String by = actor[1] != null ? actor[1] : actor[0];
+                actor[1] = null;
+                int event = 0;
+                int student = 0;
+                if (type == EVENT_ADDED) {
+                    event = payload.getInt();
+                } else if (type == STUDENT_ADDED) {
+                    student = payload.getInt();
+                } else if (type >= REGISTERED && type < REMOTE) {
+                    event = payload.getInt();
+                    student = payload.getInt();
+                }
+                if ((eventId != 0 && event != eventId) || (studentId != 0 && student != studentId)) return;
+                found.addLast(new Entry(at, millis, type < NAMES.length ? NAMES[type] : "TYPE " + type, event,
+                    student, by));
+                if (found.size() > limit) found.removeFirst();
+            });
+        }
+        return new ArrayList<>(found);
+    }
+
+    // Checkpoint files
+
+    private static void writeCheckpoint(State state) throws IOException {
+        Path tmp = DIR.resolve("checkpoint.tmp");
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+                public void write(int b) throws IOException {
+                    crc.update(b);
+                    file.write(b);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    file.write(b, off, len);
+                }
+            }, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(state.seq);
+            out.writeLong(state.millis);
+            out.writeInt(state.events.size());
+            for (Event event : state.events.values()) LocalStorage.writeEvent(out, event);
+            out.writeInt(state.students.size());
+            for (Student student : state.students.values()) {
+                out.writeInt(student.getStudentId());
+                AppendLog.putString(out, student.getName());
+                AppendLog.putString(out, student.getEmail());
+            }
+            out.writeInt(state.rosters.size());
+            for (Map.Entry<Integer, IntSet> entry : state.rosters.entrySet()) {
+                int[] ids = entry.getValue().toArray();
+                out.writeInt(entry.getKey());
+                out.writeInt(ids.length);
+                for (int id : ids) out.writeInt(id);
+            }
+            out.writeInt(state.checkIns.size());
+            for (Map.Entry<Integer, Map<Integer, Long>> entry : state.checkIns.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Integer, Long> checkIn : entry.getValue().entrySet()) {
+                    out.writeInt(checkIn.getKey());
+                    out.writeLong(checkIn.getValue());
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, checkpointPath(state.seq), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LocalStorage.syncDirectory(DIR);
+    }
+
+    private static State readCheckpoint(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.limit() < 8 || buf.getInt(0) != MAGIC) throw new IOException(path + " is not a checkpoint");
+            CRC32C crc = new CRC32C();
+            ByteBuffer body = buf.duplicate();
+            body.limit(buf.limit() - 4);
+            crc.update(body);
+            if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+                throw new IOException(path + " is corrupt (checksum mismatch)");
+            }
+            buf.position(4);
+            int format = buf.getInt();
+            if (format != FORMAT) throw new IOException(path + " has unsupported format " + format);
+            State state = new State();
+            state.complete = true;
+            state.seq = buf.getLong();
+            state.millis = buf.getLong();
+            for (int n = buf.getInt(); n > 0; n--) {
+                Event event = LocalStorage.readEvent(buf);
+                state.events.put(event.getEventId(), event);
+            }
+            for (int n = buf.getInt(); n > 0; n--) {
+                Student student = new Student(buf.getInt(), AppendLog.getString(buf), AppendLog.getString(buf));
+                state.students.put(student.getStudentId(), student);
+            }
+            for (int n = buf.getInt(); n > 0; n--) {
+                int eventId = buf.getInt();
+                int size = buf.getInt();
+                IntSet roster = new IntSet(size);
+                for (int i = 0; i < size; i++) roster.add(buf.getInt());
+                state.rosters.put(eventId, roster);
+            }
+            for (int n = buf.getInt(); n > 0; n--) {
+                Map<Integer, Long> event = state.checkIns.computeIfAbsent(buf.getInt(), k -> new HashMap<>());
+                for (int size = buf.getInt(); size > 0; size--) event.put(buf.getInt(), buf.getLong());
+            }
+            return state;
+        }
+    }
+
+    // Files
+
+    private static Path segmentPath(long first) {
+        return DIR.resolve(String.format("segment-%016d.log", first));
+    }
+
+    private static Path checkpointPath(long seq) {
+        return DIR.resolve(String.format("checkpoint-%016d.dat", seq));
+    }
+
+    // The numbers in the names of matching files, ascending
+    private static List<Long> list(String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(DIR)) return numbers;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(DIR, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static long size(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    // Command line, for looking back without the app:
+    //   AuditLog state [as-of]             counts, and how long the replay took
+    //   AuditLog roster <event> [as-of]    who was registered
+    //   AuditLog history event|student <id> [limit]
+    // as-of is a local date and time such as 2026-10-18T14:30.
+    public static void main(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "state";
+        switch (command) {
+            case "state": {
+                long start = System.nanoTime();
+                State state = replay(args.length > 1 ? parseTime(args[1]) : Long.MAX_VALUE);
+                long nanos = System.nanoTime() - start;
+                System.out.printf("As of %s (#%d)%s: %d events, %d students, %d registrations, %d check-ins%n",
+                    new java.sql.Timestamp(state.millis), state.seq, state.complete ? "" : " (incomplete: no checkpoint that early)",
+                    state.events.size(), state.students.size(), state.registrations(),
+                    state.checkIns.values().stream().mapToInt(Map::size).sum());
+                System.out.printf("Replayed %d records in %.1f ms (%.1f million/s)%n", state.replayed, nanos / 1e6,
+                    state.replayed * 1e3 / Math.max(1, nanos));
+                break;
+            }
+            case "roster": {
+                int eventId = Integer.parseInt(args[1]);
+                State state = replay(args.length > 2 ? parseTime(args[2]) : Long.MAX_VALUE);
+                IntSet roster = state.rosters.getOrDefault(eventId, new IntSet());
+                int[] ids = roster.toArray();
+                Arrays.sort(ids);
+                for (int id : ids) {
+                    Student student = state.students.get(id);
+                    System.out.println(id + "," + (student == null ? "," : student.getName() + "," + student.getEmail()));
+                }
+                break;
+            }
+            case "history": {
+                int id = Integer.parseInt(args[2]);
+                int limit = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+                boolean event = args[1].equals("event");
+                for (Entry entry : history(event ? id : 0, event ? 0 : id, limit)) System.out.println(entry);
+                break;
+            }
+            default:
+                System.err.println("Usage: AuditLog state [as-of] | roster <event> [as-of] | history event|student <id> [limit]");
+                System.exit(2);
+        }
+    }
+
+    private static long parseTime(String text) {
+        return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
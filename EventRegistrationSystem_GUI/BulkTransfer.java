@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.*;
+
+// Streaming CSV import of students and export of event registrations.
+public class BulkTransfer {
+    static final int CHUNK_SIZE = Integer.getInteger("import.chunkSize", 1000);
+    static final int MAX_REJECTIONS_KEPT = 200;
+
+    public static class Report {
+        public long read;
+        public long written;
+        public long rejected;
+        public long duplicates;
+        public long elapsedNanos;
+        public final List<String> rejections = new ArrayList<>();
+
+        void reject(String reason) {
+            rejected++;
+            if (rejections.size() < MAX_REJECTIONS_KEPT) rejections.add(reason);
+        }
+
+        public double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : read / (elapsedNanos / 1e9);
+        }
+
+        public String toString() {
+            return String.format("%d rows read, %d written, %d rejected (%d duplicates) in %.2fs (%.0f rows/sec)",
+                read, written, rejected, duplicates, elapsedNanos / 1e9, rowsPerSecond());
+        }
+    }
+
+    // Imports name,email rows. A header row naming the columns is optional. Emails that
+    // already exist (or repeat within the file) are rejected; the rest are handed to
+    // Storage a chunk at a time (on SQL, one JDBC batch and transaction per chunk).
+    public static Report importStudents(Reader in) throws IOException, SQLException {
+        return importStudents(in, CHUNK_SIZE);
+    }
+
+    public static Report importStudents(Reader in, int chunkSize) throws IOException, SQLException {
+        Importer importer = new Importer(chunkSize);
+        Csv csv = new Csv(in);
+        try {
+            int nameCol = 0;
+            int emailCol = 1;
+            List<String> record;
+            boolean first = true;
+            while ((record = csv.next()) != null) {
+                if (first) {
+                    first = false;
+                    List<String> header = new ArrayList<>();
+                    for (String cell : record) header.add(cell.trim().toLowerCase());
+                    int n = header.indexOf("name");
+                    int e = header.indexOf("email");
+                    if (n >= 0 && e >= 0) {
+                        nameCol = n;
+                        emailCol = e;
+                        continue;
+                    }
+                }
+                if (record.size() == 1 && record.get(0).trim().isEmpty()) continue;
+
+                String where = "line " + (csv.getLine() - 1);
+                if (record.size() <= Math.max(nameCol, emailCol)) {
+                    importer.report.read++;
+                    importer.report.reject(where + ": expected name and email");
+                    continue;
+                }
+                importer.add(where, record.get(nameCol), record.get(emailCol));
+            }
+        } finally {
+            importer.finish();
+        }
+        return importer.report;
+    }
+
+    // Same checks as the CSV import, for name/email pairs that arrive some other way (the HTTP API).
+    public static Report importStudents(List<String[]> namesAndEmails) throws SQLException {
+        Importer importer = new Importer(CHUNK_SIZE);
+        try {
+            for (int i = 0; i < namesAndEmails.size(); i++) {
+                String[] row = namesAndEmails.get(i);
+                importer.add("item " + i, row[0], row[1]);
+            }
+        } finally {
+            importer.finish();
+        }
+        return importer.report;
+    }
+
+    // Checks rows and hands them to Storage a chunk at a time
+    private static class Importer {
+        final long start = System.nanoTime();
+        final Report report = new Report();
+        final int chunkSize;
+        final List<String[]> chunk;
+        Set<String> emails;
+
+        Importer(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        void add(String where, String name, String email) throws SQLException {
+            // One pass over the existing emails instead of a lookup per row
+            if (emails == null) emails = Storage.get().studentEmails();
+            report.read++;
+            name = name == null ? "" : name.trim();
+            email = email == null ? "" : email.trim();
+            if (name.isEmpty() || !Student.isValidEmail(email)) {
+                report.reject(where + ": invalid name or email '" + email + "'");
+                return;
+            }
+            if (!emails.add(email.toLowerCase())) {
+                report.duplicates++;
+                report.reject(where + ": duplicate email " + email);
+                return;
+            }
+
+            chunk.add(new String[]{name, email});
+            if (chunk.size() >= chunkSize) flush();
+        }
+
+        private void flush() throws SQLException {
+            if (chunk.isEmpty()) return;
+            List<Student> added = Storage.get().addStudents(chunk, (row, reason) -> report.reject(row[1] + ": " + reason));
+            AuditLog.studentsAdded(added);
+            report.written += added.size();
+            chunk.clear();
+        }
+
+        void finish() throws SQLException {
+            try {
+                flush();
+            } finally {
+                report.elapsedNanos = System.nanoTime() - start;
+                if (report.written > 0) {
+                    Repository.invalidate();
+                    EntityBus.bulkChange(EntityBus.Type.STUDENT);
+                }
+            }
+        }
+    }
+
+    // Writes one event's registrations as student_id,name,email,registered event.
+    public static Report exportRegistrations(int eventId, Writer out) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        try {
+            Csv.writeRow(out, "student_id", "name", "email", "event_title");
+            for (Object[] row : RosterIndex.rows(eventId)) {
+                report.read++;
+                Csv.writeRow(out, row);
+                report.written++;
+            }
+            out.flush();
+        } finally {
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+        return report;
+    }
+}
@@ -0,0 +1,66 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+// Input checks for new events and students, shared by the panels and the HTTP API.
+// Bad input is reported as IllegalArgumentException with a message fit to show the user.
+public class CatalogService {
+    private CatalogService() {
+    }
+
+    public static Event addEvent(String title, String date, String time, String venue, String capacity)
+            throws SQLException {
+        title = trim(title);
+        date = trim(date);
+        time = trim(time);
+        venue = trim(venue);
+        capacity = trim(capacity);
+        if (title.isEmpty() || date.isEmpty() || time.isEmpty() || venue.isEmpty() || capacity.isEmpty()) {
+            throw new IllegalArgumentException("All fields are required.");
+        }
+
+        int seats;
+        try {
+            seats = Integer.parseInt(capacity);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Capacity must be a valid number.");
+        }
+        if (seats < 0) throw new IllegalArgumentException("Capacity must not be negative.");
+        java.sql.Date sqlDate;
+        java.sql.Time sqlTime;
+        try {
+            sqlDate = java.sql.Date.valueOf(date);
+            sqlTime = java.sql.Time.valueOf(time);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid date or time format.");
+        }
+        return Repository.addEvent(title, sqlDate, sqlTime, venue, seats);
+    }
+
+    // Events already booked at the venue around that time. Input that does not parse
+    // gives no conflicts; addEvent reports it.
+    public static List<Event> venueConflicts(String date, String time, String venue) throws SQLException {
+        try {
+            return ScheduleIndex.venueConflicts(trim(venue), java.sql.Date.valueOf(trim(date)), java.sql.Time.valueOf(trim(time)));
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    // Returns null if a student with this email already exists
+    public static Student addStudent(String name, String email) throws SQLException {
+        name = trim(name);
+        email = trim(email);
+        if (name.isEmpty() || email.isEmpty()) {
+            throw new IllegalArgumentException("All fields are required");
+        }
+        if (!Student.isValidEmail(email)) {
+            throw new IllegalArgumentException("Invalid email format. Please enter a valid email.");
+        }
+        return Repository.addStudent(name, email);
+    }
+
+    private static String trim(String s) {
+        return s == null ? "" : s.trim();
+    }
+}
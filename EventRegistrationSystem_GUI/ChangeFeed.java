@@ -0,0 +1,298 @@
+import java.sql.*;
+import java.util.*;
+import java.util.logging.Logger;
+
+// Keeps desks sharing one database in step. Every write adds rows to change_log in its
+// own transaction, so a change is in the log exactly when it commits, and each desk polls
+// the log for rows after the last sequence number it has seen, patching Repository,
+// RosterIndex and ScheduleIndex and publishing the changes on the EntityBus as if they
+// had been made locally. A poll is one range scan on the primary key; with nothing new
+// it returns no rows.
+//
+// Sequence numbers are handed out at insert but rows become visible at commit, so a row
+// can appear after a higher one. A skipped number is looked for again for feed.gapMs;
+// if it is still missing by then the desk reloads, since it cannot tell a rolled-back
+// insert from a transaction that has yet to commit.
+public class ChangeFeed {
+    static final long POLL_MS = Long.getLong("feed.pollMs", 500);
+    static final long GAP_MS = Long.getLong("feed.gapMs", 5000);
+    // more rows than this in one poll and the desk reloads instead of applying them one by one
+    static final int MAX_ROWS = Integer.getInteger("feed.maxRows", 1000);
+    // more rows of one type than this and panels get one bulk change for them
+    static final int COALESCE = Integer.getInteger("feed.coalesceRows", 50);
+    static final long RETAIN_ROWS = Long.getLong("feed.retainRows", 100000);
+    static final long PRUNE_MS = 60 * 1000;
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("feed.enabled", "true"));
+
+    // Marks this process's own rows, which it has already applied
+    static final String ORIGIN = UUID.randomUUID().toString();
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.feed");
+    // seq after which to read, row limit
+    static final String POLL_SQL =
+        "SELECT seq, entity, kind, entity_id, student_id, origin FROM change_log WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static Thread poller;
+    private static volatile boolean running;
+
+    // guarded by ChangeFeed.class
+    private static long lastSeq = -1;
+    private static final Map<Long, Long> gaps = new TreeMap<>();
+    private static long applied;
+    private static long lastPrune;
+    private static boolean behind;
+
+    private ChangeFeed() {
+    }
+
+    private static class Row {
+        final long seq;
+        final EntityBus.Type type;
+        final EntityBus.Kind kind;
+        final int id;
+        final int studentId;
+        final String origin;
+        final boolean own;
+
+        Row(ResultSet rs) throws SQLException {
+            seq = rs.getLong(1);
+            type = EntityBus.Type.valueOf(rs.getString(2));
+            kind = EntityBus.Kind.valueOf(rs.getString(3));
+            id = rs.getInt(4);
+            studentId = rs.getInt(5);
+            origin = rs.getString(6);
+            own = ORIGIN.equals(origin);
+        }
+    }
+
+    // Writes one row to change_log with conn, inside the caller's transaction.
+    static void record(Connection conn, EntityBus.Type type, EntityBus.Kind kind, int id, int studentId)
+            throws SQLException {
+        record(conn, type, kind, Collections.singletonList(new int[]{id, studentId}));
+    }
+
+    // One row per {id, studentId} pair, as one JDBC batch
+    static void record(Connection conn, EntityBus.Type type, EntityBus.Kind kind, List<int[]> changes)
+            throws SQLException {
+        if (changes.isEmpty()) return;
+        PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO change_log (entity, kind, entity_id, student_id, origin) VALUES (?, ?, ?, ?, ?)");
+        for (int[] change : changes) {
+            insert.setString(1, type.name());
+            insert.setString(2, kind.name());
+            insert.setInt(3, change[0]);
+            insert.setInt(4, change[1]);
+            insert.setString(5, ORIGIN);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    // Takes the current end of the log as the point to poll from. Called once storage is
+    // open and before anything reads from it, so a change committed while the panels do
+    // their first loads is still picked up by the first poll.
+    public static synchronized void markStart() throws SQLException {
+        if (!ENABLED || lastSeq >= 0) return;
+        try (Connection conn = DB.getConnection()) {
+            lastSeq = maxSeq(conn);
+        }
+    }
+
+    // Starts polling from markStart(), or from the current end of the log if it was not
+    // called; storage must be open.
+    public static synchronized void start() {
+        if (!ENABLED || running) return;
+        running = true;
+        poller = new Thread(ChangeFeed::run, "change-feed");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    public static void stop() {
+        running = false;
+        Thread t = poller;
+        if (t != null) t.interrupt();
+    }
+
+    // Remote changes applied so far
+    public static synchronized long appliedCount() {
+        return applied;
+    }
+
+    private static void run() {
+        while (running) {
+            try {
+                poll();
+            } catch (SQLException e) {
+                synchronized (ChangeFeed.class) {
+                    behind = true;
+                }
+                LOG.warning("Change feed poll failed: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // One round: new rows, then rows for any open gaps, then pruning now and then.
+    // Package-private so a tool can drive it without the thread.
+    static synchronized void poll() throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            if (lastSeq < 0) {
+                lastSeq = maxSeq(conn);
+                return;
+            }
+            if (behind) {
+                // after an outage the rows this desk missed may have been pruned
+                behind = false;
+                ResultSet rs = conn.createStatement().executeQuery("SELECT MIN(seq) FROM change_log");
+                if (rs.next() && rs.getLong(1) > lastSeq + 1) {
+                    resync(conn);
+                    return;
+                }
+            }
+
+            PreparedStatement stmt = conn.prepareStatement(POLL_SQL);
+            stmt.setLong(1, lastSeq);
+            stmt.setInt(2, MAX_ROWS + 1);
+            List<Row> rows = read(stmt.executeQuery());
+            if (rows.size() > MAX_ROWS) {
+                resync(conn);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (Row row : rows) {
+                for (long missing = lastSeq + 1; missing < row.seq; missing++) gaps.put(missing, now);
+                lastSeq = row.seq;
+            }
+            if (gaps.size() > MAX_ROWS) {
+                resync(conn);
+                return;
+            }
+            List<Row> filled = fillGaps(conn, now);
+            if (filled == null) {
+                resync(conn);
+                return;
+            }
+            rows.addAll(filled);
+            apply(rows);
+
+            if (now - lastPrune > PRUNE_MS) {
+                lastPrune = now;
+                PreparedStatement prune = conn.prepareStatement("DELETE FROM change_log WHERE seq < ?");
+                prune.setLong(1, lastSeq - RETAIN_ROWS);
+                prune.executeUpdate();
+            }
+        }
+    }
+
+    // Rows that have turned up for earlier gaps, or null once a gap has been open longer than
+    // GAP_MS: its row may still commit, after this desk has stopped looking for it.
+    private static List<Row> fillGaps(Connection conn, long now) throws SQLException {
+        if (gaps.isEmpty()) return Collections.emptyList();
+        List<Long> seqs = new ArrayList<>(gaps.keySet());
+        PreparedStatement stmt = conn.prepareStatement(
+            "SELECT seq, entity, kind, entity_id, student_id, origin FROM change_log WHERE seq IN ("
+            + String.join(", ", Collections.nCopies(seqs.size(), "?")) + ")");
+        for (int i = 0; i < seqs.size(); i++) stmt.setLong(i + 1, seqs.get(i));
+        List<Row> found = read(stmt.executeQuery());
+        for (Row row : found) gaps.remove(row.seq);
+        for (long since : gaps.values()) {
+            if (now - since > GAP_MS) return null;
+        }
+        return found;
+    }
+
+    private static List<Row> read(ResultSet rs) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        while (rs.next()) rows.add(new Row(rs));
+        return rows;
+    }
+
+    private static long maxSeq(Connection conn) throws SQLException {
+        ResultSet rs = conn.createStatement().executeQuery("SELECT MAX(seq) FROM change_log");
+        return rs.next() ? rs.getLong(1) : 0;
+    }
+
+    // Too much changed to patch: forget the cached rows and let every view reload.
+    private static void resync(Connection conn) throws SQLException {
+        lastSeq = maxSeq(conn);
+        gaps.clear();
+        Repository.invalidate();
+        RosterIndex.invalidate();
+        for (EntityBus.Type type : EntityBus.Type.values()) EntityBus.bulkChange(type);
+        LOG.info("Change feed fell behind; reloading from sequence " + lastSeq);
+    }
+
+    // Patches the in-memory indexes and records the changes in the AuditLog, then tells the
+    // panels: change by change, or with one bulk change per type when a poll brings more than
+    // COALESCE rows of it. New students and events are read in one go, through the Repository
+    // so they are cached for the panels; check-in times only when they are audited.
+    private static void apply(List<Row> rows) throws SQLException {
+        Set<Integer> studentIds = new LinkedHashSet<>();
+        Set<Integer> eventIds = new LinkedHashSet<>();
+        Map<EntityBus.Type, Integer> perType = new EnumMap<>(EntityBus.Type.class);
+        for (Row row : rows) {
+            if (row.own) continue;
+            if (row.type == EntityBus.Type.STUDENT) studentIds.add(row.id);
+            if (row.type == EntityBus.Type.EVENT) eventIds.add(row.id);
+            perType.merge(row.type, 1, Integer::sum);
+        }
+        if (perType.isEmpty()) return;
+        Map<Integer, Student> students = studentIds.isEmpty()
+            ? Collections.emptyMap() : Repository.getStudents(studentIds);
+        Map<Integer, Map<Integer, Long>> checkIns = new HashMap<>();
+        if (AuditLog.recording()) {
+            for (Row row : rows) {
+                if (!row.own && row.type == EntityBus.Type.CHECK_IN && !checkIns.containsKey(row.id)) {
+                    checkIns.put(row.id, Storage.get().checkIns(row.id));
+                }
+            }
+        }
+
+        List<EntityBus.Change> changes = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.own) continue;
+            applied++;
+            switch (row.type) {
+                case EVENT:
+                    if (!eventIds.remove(row.id)) break;
+                    Event event = Repository.getEvent(row.id);
+                    if (event == null) break;
+                    ScheduleIndex.added(event);
+                    AuditLog.remoteEventAdded(row.origin, event);
+                    changes.add(new EntityBus.Change(row.type, row.kind, row.id, 0, event));
+                    break;
+                case STUDENT:
+                    Student student = students.get(row.id);
+                    if (student == null || !studentIds.remove(row.id)) break;
+                    AuditLog.remoteStudentAdded(row.origin, student);
+                    changes.add(new EntityBus.Change(row.type, row.kind, row.id, 0, student));
+                    break;
+                case REGISTRATION:
+                    if (row.kind == EntityBus.Kind.ADDED) {
+                        RosterIndex.added(row.id, row.studentId);
+                    } else {
+                        RosterIndex.removed(row.id, row.studentId);
+                    }
+                    AuditLog.remoteRegistration(row.origin, row.kind == EntityBus.Kind.ADDED, row.id, row.studentId);
+                    changes.add(new EntityBus.Change(row.type, row.kind, row.id, row.studentId, null));
+                    break;
+                case CHECK_IN:
+                    Long at = checkIns.getOrDefault(row.id, Collections.emptyMap()).get(row.studentId);
+                    if (at != null) AuditLog.remoteCheckedIn(row.origin, row.id, row.studentId, at);
+                    changes.add(new EntityBus.Change(row.type, row.kind, row.id, row.studentId, null));
+                    break;
+            }
+        }
+        for (Map.Entry<EntityBus.Type, Integer> entry : perType.entrySet()) {
+            if (entry.getValue() > COALESCE) EntityBus.bulkChange(entry.getKey());
+        }
+        for (EntityBus.Change change : changes) {
+            if (perType.get(change.type) <= COALESCE) EntityBus.publish(change);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+
+// Door check-in for one event: type or scan a student id or email and press Enter. The
+// lookup is done in memory by CheckInSession, so the field is ready for the next student
+// at once; the check-ins are saved in the background.
+public class CheckInPanel extends JPanel {
+    static final int REFRESH_MS = Integer.getInteger("checkin.refreshMs", 500);
+    static final int RECENT_ROWS = 200;
+
+    private final JComboBox<EventItem> eventCombo = new JComboBox<>();
+    private final JTextField inputField = new JTextField(24);
+    private final JLabel resultLabel = new JLabel(" ");
+    private final JLabel statsLabel = new JLabel(" ");
+    private final JLabel statusLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
+    private final DefaultTableModel recentModel = new DefaultTableModel(
+        new String[]{"Time", "Student ID", "Name", "Email", "Result"}, 0) {
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+    private CheckInSession session;
+
+    public CheckInPanel() {
+        setLayout(new BorderLayout());
+
+        eventCombo.addActionListener(e -> openSession());
+        JButton reloadButton = new JButton("Reload");
+        reloadButton.addActionListener(e -> loadEvents());
+        JButton noShowsButton = new JButton("No-shows");
+        noShowsButton.addActionListener(e -> showNoShows());
+
+        JPanel top = new JPanel(new FlowLayout());
+        top.add(new JLabel("Event:"));
+        top.add(eventCombo);
+        top.add(reloadButton);
+        top.add(noShowsButton);
+        top.add(statusLabel);
+
+        inputField.setFont(inputField.getFont().deriveFont(20f));
+        inputField.addActionListener(e -> checkIn());
+        resultLabel.setFont(resultLabel.getFont().deriveFont(Font.BOLD, 18f));
+        JPanel entry = new JPanel(new GridLayout(3, 1));
+        JPanel field = new JPanel(new FlowLayout());
+        field.add(new JLabel("Student ID or email:"));
+        field.add(inputField);
+        entry.add(field);
+        entry.add(resultLabel);
+        entry.add(statsLabel);
+        resultLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        statsLabel.setHorizontalAlignment(SwingConstants.CENTER);
+
+        JPanel north = new JPanel(new BorderLayout());
+        north.add(top, BorderLayout.NORTH);
+        north.add(entry, BorderLayout.CENTER);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(recentModel)), BorderLayout.CENTER);
+
+        EntityBus.subscribe(this::entityChanged);
+        new Timer(REFRESH_MS, e -> {
+            if (isShowing()) showStats();
+        }).start();
+        loadEvents();
+    }
+
+    private void loadEvents() {
+        loader.load("events", () -> {
+            List<EventItem> items = new ArrayList<>();
+            for (Event event : Repository.listEvents()) items.add(new EventItem(event.getEventId(), event.getTitle()));
+            return items;
+        }, items -> {
+            EventItem previous = (EventItem) eventCombo.getSelectedItem();
+            DefaultComboBoxModel<EventItem> model = new DefaultComboBoxModel<>();
+            for (EventItem item : items) {
+                model.addElement(item);
+                if (previous != null && item.id == previous.id) model.setSelectedItem(item);
+            }
+            eventCombo.setModel(model);
+            openSession();
+        });
+    }
+
+    private void openSession() {
+        EventItem selected = (EventItem) eventCombo.getSelectedItem();
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        recentModel.setRowCount(0);
+        resultLabel.setText(" ");
+        if (selected == null) {
+            showStats();
+            return;
+        }
+        inputField.setEnabled(false);
+        loader.load("session", () -> CheckInSession.load(selected.id), loaded -> {
+            if (session != null) session.close();
+            session = loaded;
+            inputField.setEnabled(true);
+            inputField.requestFocusInWindow();
+            showStats();
+        });
+    }
+
+    private void checkIn() {
+        if (session == null) return;
+        String input = inputField.getText();
+        CheckInSession.Outcome outcome = session.checkIn(input);
+        inputField.setText("");
+
+        String who = outcome.student != null ? outcome.student.getName() : input.trim();
+        switch (outcome.result) {
+            case CHECKED_IN:
+                resultLabel.setForeground(new Color(0x2E7D32));
+                resultLabel.setText("Welcome, " + who);
+                break;
+            case ALREADY_CHECKED_IN:
+                resultLabel.setForeground(new Color(0xEF6C00));
+                resultLabel.setText(who + " is already checked in");
+                break;
+            case NOT_REGISTERED:
+                resultLabel.setForeground(new Color(0xC62828));
+                resultLabel.setText(who + " is not registered for this event");
+                break;
+            case NOT_SAVED:
+                resultLabel.setForeground(new Color(0xEF6C00));
+                resultLabel.setText(who + " is still being saved; try again in a moment");
+                break;
+            default:
+                resultLabel.setForeground(new Color(0xC62828));
+                resultLabel.setText("Enter a student ID or an email");
+                return;
+        }
+        recentModel.insertRow(0, new Object[]{
+            timeFormat.format(new java.util.Date()),
+            outcome.studentId <= 0 ? "" : outcome.studentId,
+            outcome.student != null ? outcome.student.getName() : "",
+            outcome.student != null ? outcome.student.getEmail() : input.trim(),
+            outcome.result == CheckInSession.Result.CHECKED_IN ? "Checked in"
+                : outcome.result == CheckInSession.Result.ALREADY_CHECKED_IN ? "Already in"
+                : outcome.result == CheckInSession.Result.NOT_SAVED ? "Not saved yet" : "Not registered"});
+        if (recentModel.getRowCount() > RECENT_ROWS) recentModel.setRowCount(RECENT_ROWS);
+        showStats();
+    }
+
+    private void showStats() {
+        if (session == null) {
+            statsLabel.setText(" ");
+            return;
+        }
+        CheckInSession.Stats stats = session.stats();
+        statsLabel.setText(String.format("%d of %d checked in, %d no-shows, %d/min%s%s",
+            stats.checkedIn, stats.registered, stats.noShows(), stats.perMinute,
+            stats.unsaved > 0 ? ", " + stats.unsaved + " not yet saved" : "",
+            stats.lastError != null ? " (retrying: " + stats.lastError + ")" : ""));
+    }
+
+    private void showNoShows() {
+        if (session == null) return;
+        StringBuilder text = new StringBuilder();
+        for (Student student : session.noShows()) {
+            text.append(student.getStudentId()).append('\t').append(student.getName())
+                .append('\t').append(student.getEmail()).append('\n');
+        }
+        JTextArea area = new JTextArea(text.length() == 0 ? "Everyone is here." : text.toString(), 20, 60);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), "No-shows", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    // Registrations and check-ins from other tabs and other desks
+    private void entityChanged(EntityBus.Change change) {
+        CheckInSession current = session;
+        if (change.type == EntityBus.Type.EVENT) {
+            if (change.kind == EntityBus.Kind.ADDED || change.id == 0) loadEvents();
+            return;
+        }
+        if (current == null || (change.id != current.eventId && change.id != 0)) return;
+        if (change.id == 0 && change.type != EntityBus.Type.STUDENT) {
+            openSession();
+        } else if (change.type == EntityBus.Type.CHECK_IN) {
+            current.checkedInElsewhere(change.studentId);
+        } else if (change.type == EntityBus.Type.REGISTRATION && change.kind == EntityBus.Kind.REMOVED) {
+            current.unregistered(change.studentId);
+        } else if (change.type == EntityBus.Type.REGISTRATION) {
+            int studentId = change.studentId;
+            loader.load("registered " + studentId, () -> Repository.getStudent(studentId), student -> {
+                if (student != null) current.registered(student);
+            });
+        }
+    }
+
+    private static class EventItem {
+        final int id;
+        final String title;
+
+        EventItem(int id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public String toString() {
+            return title;
+        }
+    }
+}
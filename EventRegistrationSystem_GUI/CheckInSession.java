@@ -0,0 +1,241 @@
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// One event's door list for the Check-in tab. When the event is picked its roster is
+// copied from RosterIndex (the same registrations the Registrations tab shows) into an
+// IntSet, with a map from lower-cased email to student id beside it, so checking a
+// student in is a hash lookup and never waits for the database. Check-ins are queued and
+// written by a background thread in batches of checkin.batchSize every checkin.flushMs;
+// a failed write stays queued and is tried again on the next round.
+public class CheckInSession {
+    private static final Logger LOG = Logger.getLogger("eventsystem.checkin");
+    static final int BATCH_SIZE = Integer.getInteger("checkin.batchSize", 500);
+    static final long FLUSH_MS = Long.getLong("checkin.flushMs", 250);
+    static final long RATE_WINDOW_MS = 60 * 1000;
+
+    // NOT_SAVED: a student added offline whose row is still queued; the database has no
+    // registration to check in yet
+    public enum Result { CHECKED_IN, ALREADY_CHECKED_IN, NOT_REGISTERED, NOT_SAVED, UNKNOWN }
+
+    public static class Outcome {
+        public final Result result;
+        public final int studentId;
+        // null when the input matched no registered student
+        public final Student student;
+
+        Outcome(Result result, int studentId, Student student) {
+            this.result = result;
+            this.studentId = studentId;
+            this.student = student;
+        }
+    }
+
+    public static class Stats {
+        public final int registered;
+        public final int checkedIn;
+        public final int perMinute;
+        public final int unsaved;
+        public final String lastError;
+
+        Stats(int registered, int checkedIn, int perMinute, int unsaved, String lastError) {
+            this.registered = registered;
+            this.checkedIn = checkedIn;
+            this.perMinute = perMinute;
+            this.unsaved = unsaved;
+            this.lastError = lastError;
+        }
+
+        public int noShows() {
+            return registered - checkedIn;
+        }
+    }
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "check-in-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Set<CheckInSession> OPEN = ConcurrentHashMap.newKeySet();
+
+    public final int eventId;
+
+    // guarded by this
+    private final IntSet registered;
+    private final IntSet checkedIn;
+    private final Map<Integer, Student> students;
+    private final Map<String, Integer> byEmail;
+    private final ArrayDeque<Long> recent = new ArrayDeque<>();
+    private Map<Integer, Long> queued = new LinkedHashMap<>();
+    private int writing;
+    private String lastError;
+    private boolean closed;
+    // started with the first check-in, so a session nobody uses costs nothing
+    private ScheduledFuture<?> flusher;
+
+    private CheckInSession(int eventId, int[] roster, Map<Integer, Student> students, Set<Integer> alreadyIn) {
+        this.eventId = eventId;
+        this.students = new HashMap<>(students);
+        registered = new IntSet(roster.length);
+        checkedIn = new IntSet(alreadyIn.size());
+        byEmail = new HashMap<>(roster.length * 2);
+        for (int id : roster) registered.add(id);
+        for (Student student : students.values()) {
+            byEmail.put(student.getEmail().toLowerCase(), student.getStudentId());
+        }
+        for (Integer id : alreadyIn) {
+            if (registered.contains(id)) checkedIn.add(id);
+        }
+    }
+
+    // Reads the roster, the students on it and who is already in; call off the EDT.
+    public static CheckInSession load(int eventId) throws SQLException {
+        int[] roster = RosterIndex.studentIds(eventId);
+        List<Integer> ids = new ArrayList<>(roster.length);
+        for (int id : roster) ids.add(id);
+        Map<Integer, Student> students = Repository.getStudents(ids);
+        Map<Integer, Long> alreadyIn = Storage.get().checkIns(eventId);
+        return new CheckInSession(eventId, roster, students, alreadyIn.keySet());
+    }
+
+    // Input is a student id or an email, as typed or scanned.
+    public synchronized Outcome checkIn(String input) {
+        String text = input == null ? "" : input.trim();
+        int studentId;
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit) && text.length() < 10) {
+            studentId = Integer.parseInt(text);
+        } else if (text.indexOf('@') > 0) {
+            Integer id = byEmail.get(text.toLowerCase());
+            if (id == null) return new Outcome(Result.NOT_REGISTERED, 0, null);
+            studentId = id;
+        } else {
+            return new Outcome(Result.UNKNOWN, 0, null);
+        }
+
+        if (!registered.contains(studentId)) return new Outcome(Result.NOT_REGISTERED, studentId, null);
+        Student student = students.get(studentId);
+        // a temporary id would never match a row, and the check-in would be dropped unseen
+        if (studentId < 0) return new Outcome(Result.NOT_SAVED, studentId, student);
+        if (!checkedIn.add(studentId)) return new Outcome(Result.ALREADY_CHECKED_IN, studentId, student);
+        long now = System.currentTimeMillis();
+        queued.put(studentId, now);
+        recent.addLast(now);
+        if (flusher == null) {
+            OPEN.add(this);
+            flusher = WRITER.scheduleWithFixedDelay(this::drain, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+        return new Outcome(Result.CHECKED_IN, studentId, student);
+    }
+
+    public synchronized Stats stats() {
+        long since = System.currentTimeMillis() - RATE_WINDOW_MS;
+        while (!recent.isEmpty() && recent.peekFirst() < since) recent.removeFirst();
+        return new Stats(registered.size(), checkedIn.size(), recent.size(), queued.size() + writing, lastError);
+    }
+
+    // Registered students not checked in, by name.
+    public synchronized List<Student> noShows() {
+        List<Student> missing = new ArrayList<>();
+        for (int id : registered.toArray()) {
+            if (checkedIn.contains(id)) continue;
+            Student student = students.get(id);
+            missing.add(student != null ? student : new Student(id, "", ""));
+        }
+        missing.sort(Comparator.comparing(Student::getName).thenComparingInt(Student::getStudentId));
+        return missing;
+    }
+
+    // Registrations and check-ins made elsewhere, from the EntityBus.
+
+    public synchronized void registered(Student student) {
+        registered.add(student.getStudentId());
+        students.put(student.getStudentId(), student);
+        byEmail.put(student.getEmail().toLowerCase(), student.getStudentId());
+    }
+
+    // Like the database, dropping the registration drops its check-in
+    public synchronized void unregistered(int studentId) {
+        registered.remove(studentId);
+        checkedIn.remove(studentId);
+        queued.remove(studentId);
+    }
+
+    public synchronized void checkedInElsewhere(int studentId) {
+        if (registered.contains(studentId)) checkedIn.add(studentId);
+    }
+
+    // Stops taking the writer's time once the queue is written; nothing queued is dropped.
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (flusher == null) return;
+        }
+        WRITER.execute(this::drain);
+    }
+
+    // Writes what is still queued in every session; for shutdown.
+    public static void flushAll() {
+        for (CheckInSession session : OPEN) session.drain();
+    }
+
+    // Batch after batch until the queue is empty or a write fails
+    private void drain() {
+        while (flush()) {
+        }
+    }
+
+    // Runs on the writer thread (or at shutdown); one batch per call. Returns true if it
+    // wrote a batch and more is queued.
+    private boolean flush() {
+        Map<Integer, Long> batch;
+        synchronized (this) {
+            if (queued.isEmpty()) {
+                if (closed && flusher != null) {
+                    flusher.cancel(false);
+                    OPEN.remove(this);
+                }
+                return false;
+            }
+            if (queued.size() <= BATCH_SIZE) {
+                batch = queued;
+                queued = new LinkedHashMap<>();
+            } else {
+                batch = new LinkedHashMap<>();
+                Iterator<Map.Entry<Integer, Long>> it = queued.entrySet().iterator();
+                while (batch.size() < BATCH_SIZE) {
+                    Map.Entry<Integer, Long> next = it.next();
+                    batch.put(next.getKey(), next.getValue());
+                    it.remove();
+                }
+            }
+            writing = batch.size();
+        }
+        try {
+            // only what went in: a student unregistered meanwhile or checked in at another
+            // desk is skipped by storage and must not show in the audit history
+            Map<Integer, Long> recorded = new LinkedHashMap<>();
+            for (Integer studentId : Storage.get().checkIn(eventId, batch)) {
+                recorded.put(studentId, batch.get(studentId));
+            }
+            AuditLog.checkedIn(eventId, recorded);
+            synchronized (this) {
+                writing = 0;
+                lastError = null;
+                return !queued.isEmpty();
+            }
+        } catch (SQLException e) {
+            synchronized (this) {
+                // flushes retry every round, so only the first failure in a row is logged
+                if (lastError == null) LOG.log(Level.WARNING, "Saving check-ins failed", e);
+                writing = 0;
+                lastError = e.getMessage();
+                // back to the front of the queue, still in check-in order
+                batch.putAll(queued);
+                queued = batch;
+                return false;
+            }
+        }
+    }
+}
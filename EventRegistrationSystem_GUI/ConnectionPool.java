@@ -0,0 +1,417 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Bounded JDBC connection pool. Callers use the returned connection exactly like a
+// DriverManager one; close() hands the physical connection back to the pool.
+// prepareStatement(sql) is served from a per-connection statement cache, so hot
+// queries are parsed once per physical connection rather than once per call.
+// Every statement handed out is timed through Metrics.
+public class ConnectionPool implements AutoCloseable {
+    private static final Pattern IN_LIST = Pattern.compile("\\bIN\\s*\\(\\s*\\?", Pattern.CASE_INSENSITIVE);
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long idleValidationMillis;
+    private final long idleTimeoutMillis;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int maxSize,
+                          long acquireTimeoutMillis, long maxLifetimeMillis,
+                          long idleValidationMillis, long idleTimeoutMillis, int statementCacheSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.idleValidationMillis = idleValidationMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(maxLifetimeMillis, idleTimeoutMillis) / 4);
+        housekeeper.scheduleWithFixedDelay(this::evictStale, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                + " ms waiting for a connection (pool size " + maxSize + ")");
+        }
+
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) pc = open();
+            active.incrementAndGet();
+            acquireLatency.record(System.nanoTime() - start);
+            return pc.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            long now = System.currentTimeMillis();
+            if (now - pc.createdAt >= maxLifetimeMillis) {
+                discard(pc);
+                continue;
+            }
+            if (now - pc.lastUsedAt >= idleValidationMillis && !pc.isValid()) {
+                discard(pc);
+                continue;
+            }
+            return pc;
+        }
+        return null;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        created.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void release(PooledConnection pc) {
+        active.decrementAndGet();
+        try {
+            boolean expired = System.currentTimeMillis() - pc.createdAt >= maxLifetimeMillis;
+            if (closed || pc.broken || expired || !pc.reset()) {
+                discard(pc);
+            } else {
+                pc.lastUsedAt = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        evicted.incrementAndGet();
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            // already unusable, nothing else to do
+        }
+    }
+
+    // Drops idle connections that are past max lifetime or have sat unused too long.
+    private void evictStale() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pc : idle) {
+            if ((now - pc.createdAt >= maxLifetimeMillis || now - pc.lastUsedAt >= idleTimeoutMillis)
+                    && idle.remove(pc)) {
+                discard(pc);
+            }
+        }
+    }
+
+    // SQL built with one placeholder per item ("IN (?, ?, ...)") differs with every list
+    // length, so caching it would only push reusable statements out of the cache.
+    static boolean isCacheable(String sql) {
+        return !IN_LIST.matcher(sql).find();
+    }
+
+    public Stats getStats() {
+        return new Stats(active.get(), idle.size(), waiters.get(), maxSize,
+            created.get(), evicted.get(), timeouts.get(), acquireLatency);
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+    }
+
+    public static class Stats {
+        public final int active;
+        public final int idle;
+        public final int waiters;
+        public final int maxSize;
+        public final long created;
+        public final long evicted;
+        public final long timeouts;
+        public final LatencyHistogram acquireLatency;
+
+        Stats(int active, int idle, int waiters, int maxSize, long created, long evicted,
+              long timeouts, LatencyHistogram acquireLatency) {
+            this.active = active;
+            this.idle = idle;
+            this.waiters = waiters;
+            this.maxSize = maxSize;
+            this.created = created;
+            this.evicted = evicted;
+            this.timeouts = timeouts;
+            this.acquireLatency = acquireLatency;
+        }
+
+        public String toString() {
+            return "active=" + active + " idle=" + idle + " waiters=" + waiters + " max=" + maxSize
+                + " created=" + created + " evicted=" + evicted + " timeouts=" + timeouts
+                + " acquire[" + acquireLatency + "]";
+        }
+    }
+
+    private class PooledConnection {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastUsedAt = createdAt;
+        volatile boolean broken;
+        // Prepared statements kept open across leases, keyed by SQL text
+        final Map<String, PreparedStatement> statementCache =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    // a statement the current lease is using stays until trimCache() runs on return
+                    if (size() <= statementCacheSize || cachedInUse.contains(eldest.getValue())) return false;
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+        // Cached statements handed out by the current lease
+        final Set<PreparedStatement> cachedInUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        void trimCache() {
+            Iterator<PreparedStatement> it = statementCache.values().iterator();
+            while (statementCache.size() > statementCacheSize && it.hasNext()) {
+                PreparedStatement ps = it.next();
+                if (cachedInUse.contains(ps)) continue;
+                it.remove();
+                closeQuietly(ps);
+            }
+        }
+
+        private void closeQuietly(PreparedStatement ps) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                // dropped from the cache either way
+            }
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(2);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // Puts the connection back into the state a fresh DriverManager connection would have.
+        boolean reset() {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new Lease(this));
+        }
+    }
+
+    // One checkout of a pooled connection. Statements opened through the lease are
+    // closed when it is returned, since the panels do not always close them.
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pc;
+        private final List<Statement> statements = new ArrayList<>();
+        private boolean returned;
+
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    returnToPool();
+                    return null;
+                case "isClosed":
+                    return returned || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pc.physical + "]";
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return true;
+                    break;
+                default:
+                    break;
+            }
+            if (returned) throw new SQLException("Connection has already been returned to the pool");
+            if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0
+                    && isCacheable((String) args[0])) {
+                String sql = (String) args[0];
+                PreparedStatement cached = cachedStatement(sql, (Connection) proxy);
+                // null when this lease is already using the cached copy; prepare a fresh one below
+                if (cached != null) return Metrics.instrument(cached, sql, PreparedStatement.class);
+            }
+
+            try {
+                Object result = method.invoke(pc.physical, args);
+                if (result instanceof Statement) {
+                    statements.add((Statement) result);
+                    return instrument((Statement) result, name.startsWith("prepare") ? (String) args[0] : null);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) pc.broken = true;
+                }
+                throw cause;
+            }
+        }
+
+        private Statement instrument(Statement stmt, String sql) {
+            if (stmt instanceof CallableStatement) return Metrics.instrument(stmt, sql, CallableStatement.class);
+            if (stmt instanceof PreparedStatement) return Metrics.instrument(stmt, sql, PreparedStatement.class);
+            return Metrics.instrument(stmt, sql, Statement.class);
+        }
+
+        private PreparedStatement cachedStatement(String sql, Connection owner) throws SQLException {
+            PreparedStatement ps = pc.statementCache.get(sql);
+            if (ps != null && pc.cachedInUse.contains(ps)) return null;
+            if (ps == null || ps.isClosed()) {
+                try {
+                    ps = pc.physical.prepareStatement(sql);
+                } catch (SQLException e) {
+                    String state = e.getSQLState();
+                    if (state != null && state.startsWith("08")) pc.broken = true;
+                    throw e;
+                }
+                pc.statementCache.put(sql, ps);
+            }
+            pc.cachedInUse.add(ps);
+            final PreparedStatement target = ps;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "close":
+                            // keep the statement for the next caller; just release its results
+                            ResultSet open = target.getResultSet();
+                            if (open != null) open.close();
+                            return null;
+                        case "isClosed":
+                            return returned || target.isClosed();
+                        case "getConnection":
+                            return owner;
+                        case "equals":
+                            return p == a[0];
+                        case "hashCode":
+                            return System.identityHashCode(p);
+                        default:
+                            break;
+                    }
+                    if (returned) throw new SQLException("Statement belongs to a connection returned to the pool");
+                    try {
+                        return m.invoke(target, a);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+
+        private void returnToPool() {
+            if (returned) return;
+            returned = true;
+            for (PreparedStatement ps : pc.cachedInUse) {
+                try {
+                    ResultSet open = ps.getResultSet();
+                    if (open != null) open.close();
+                    ps.clearParameters();
+                    ps.clearBatch();
+                } catch (SQLException e) {
+                    pc.statementCache.values().remove(ps);
+                    try {
+                        ps.close();
+                    } catch (SQLException ignored) {
+                        pc.broken = true;
+                    }
+                }
+            }
+            pc.cachedInUse.clear();
+            pc.trimCache();
+            for (Statement stmt : statements) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    pc.broken = true;
+                }
+            }
+            statements.clear();
+            release(pc);
+        }
+    }
+}
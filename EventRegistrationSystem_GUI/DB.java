@@ -1,20 +1,42 @@
 import java.sql.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DB {
-    static final String URL = "jdbc:mysql://localhost:3308/event_system3";
-    static final String USER = "root";
-    static final String PASSWORD = "";
+    private static final Logger LOG = Logger.getLogger("eventsystem.db");
+    static final String URL = System.getProperty("db.url", "jdbc:mysql://localhost:3308/event_system3");
+    static final String USER = System.getProperty("db.user", "root");
+    static final String PASSWORD = System.getProperty("db.password", "");
+
+    // Pool settings, overridable with -Ddb.pool.* system properties
+    static final int POOL_SIZE = Integer.getInteger("db.pool.size", 8);
+    static final long ACQUIRE_TIMEOUT_MS = Long.getLong("db.pool.acquireTimeoutMs", 5000);
+    static final long MAX_LIFETIME_MS = Long.getLong("db.pool.maxLifetimeMs", 30 * 60 * 1000);
+    static final long IDLE_VALIDATION_MS = Long.getLong("db.pool.idleValidationMs", 30 * 1000);
+    static final long IDLE_TIMEOUT_MS = Long.getLong("db.pool.idleTimeoutMs", 10 * 60 * 1000);
+    static final int STATEMENT_CACHE = Integer.getInteger("db.pool.statementCache", 64);
+
+    private static final ConnectionPool POOL;
 
     static {
-        try {
-            
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+        if (URL.startsWith("jdbc:mysql:")) {
+            try {
+
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            } catch (ClassNotFoundException e) {
+                LOG.log(Level.SEVERE, "MySQL driver not on the classpath", e);
+            }
         }
+        POOL = new ConnectionPool(URL, USER, PASSWORD, POOL_SIZE, ACQUIRE_TIMEOUT_MS,
+            MAX_LIFETIME_MS, IDLE_VALIDATION_MS, IDLE_TIMEOUT_MS, STATEMENT_CACHE);
+        Runtime.getRuntime().addShutdownHook(new Thread(POOL::close, "db-pool-shutdown"));
     }
 
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return POOL.getConnection();
+    }
+
+    public static ConnectionPool.Stats poolStats() {
+        return POOL.getStats();
     }
 }
\ No newline at end of file
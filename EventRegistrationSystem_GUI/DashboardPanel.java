@@ -0,0 +1,128 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.DefaultTableModel;
+
+// Registration statistics from Analytics. Changes on the EntityBus only mark the report
+// stale; it is recomputed off the EDT at most once per refresh interval, and only
+// while the tab is on screen.
+public class DashboardPanel extends JPanel {
+    static final int REFRESH_MS = Integer.getInteger("dashboard.refreshMs", 1000);
+
+    private final JLabel summaryLabel = new JLabel(" ");
+    private final JLabel statusLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
+    private final DefaultTableModel eventsModel = model("Event", "Date", "Venue", "Registered", "Capacity", "Fill %");
+    private final DefaultTableModel daysModel = model("Date", "Events", "Registered", "Capacity", "Fill %");
+    private final DefaultTableModel venuesModel = model("Venue", "Events", "Registered", "Capacity", "Fill %");
+    private final DefaultTableModel studentsModel = model("Student ID", "Name", "Email", "Events");
+    private boolean stale = true;
+
+    public DashboardPanel() {
+        setLayout(new BorderLayout());
+
+        JPanel tables = new JPanel(new GridLayout(2, 2));
+        tables.add(titled("Registrations per event", eventsModel));
+        tables.add(titled("Top students by events", studentsModel));
+        tables.add(titled("Registrations per day", daysModel));
+        tables.add(titled("Registrations per venue", venuesModel));
+        add(tables, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> refresh());
+        buttonPanel.add(refreshButton);
+        buttonPanel.add(statusLabel);
+        add(summaryLabel, BorderLayout.NORTH);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        EntityBus.subscribe(change -> {
+            if (change.type != EntityBus.Type.STUDENT) stale = true;
+        });
+        Timer timer = new Timer(REFRESH_MS, e -> {
+            if (stale && isShowing()) refresh();
+        });
+        timer.start();
+        refresh();
+    }
+
+    private void refresh() {
+        stale = false;
+        loader.load("report", Analytics::compute, this::show);
+    }
+
+    private void show(Analytics.Report report) {
+        summaryLabel.setText(String.format(" %d events, %d registrations of %d seats (%.1f%% full), %d students registered; computed in %d ms",
+            report.events.size(), report.registered, report.capacity, report.fill(), report.activeStudents, report.computeMillis));
+
+        List<Object[]> rows = new ArrayList<>(report.events.size());
+        for (Analytics.EventStats stats : report.events) {
+            Event event = stats.event;
+            rows.add(new Object[]{event.getTitle(), event.getDate(), event.getVenue(), stats.registered, event.getCapacity(), stats.fill()});
+        }
+        AsyncLoader.setRows(eventsModel, rows);
+        AsyncLoader.setRows(daysModel, bucketRows(report.byDay));
+        AsyncLoader.setRows(venuesModel, bucketRows(report.byVenue));
+
+        rows = new ArrayList<>(report.topStudents.size());
+        for (Analytics.StudentCount student : report.topStudents) {
+            rows.add(new Object[]{student.studentId, student.name, student.email, student.events});
+        }
+        AsyncLoader.setRows(studentsModel, rows);
+    }
+
+    private static List<Object[]> bucketRows(List<Analytics.Bucket> buckets) {
+        List<Object[]> rows = new ArrayList<>(buckets.size());
+        for (Analytics.Bucket bucket : buckets) {
+            rows.add(new Object[]{bucket.key, bucket.events, bucket.registered, bucket.capacity, bucket.fill()});
+        }
+        return rows;
+    }
+
+    private static DefaultTableModel model(String... columns) {
+        return new DefaultTableModel(columns, 0) {
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+
+            // so the row sorter compares numbers as numbers
+            public Class<?> getColumnClass(int column) {
+                Object value = getRowCount() > 0 ? getValueAt(0, column) : null;
+                return value != null ? value.getClass() : Object.class;
+            }
+        };
+    }
+
+    private static JComponent titled(String title, DefaultTableModel model) {
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setDefaultRenderer(Double.class, new FillRenderer());
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setBorder(BorderFactory.createTitledBorder(title));
+        return scroll;
+    }
+
+    // Draws a fill percentage as a bar
+    private static class FillRenderer extends DefaultTableCellRenderer {
+        private double fill;
+
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            fill = value instanceof Double ? (Double) value : 0;
+            return super.getTableCellRendererComponent(table, String.format("%.1f%%", fill), isSelected, hasFocus, row, column);
+        }
+
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(fill >= 100 ? new Color(0xF4C7C3) : new Color(0xC8E6C9));
+            g.fillRect(0, 1, (int) (getWidth() * Math.min(fill, 100) / 100), getHeight() - 2);
+            // the text goes over the bar instead of a fresh background
+            setOpaque(false);
+            super.paintComponent(g);
+            setOpaque(true);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+// In-process notification of inserts and deletes, so panels can patch what they show
+// instead of re-reading whole tables. Listeners are always called on the EDT.
+public class EntityBus {
+    private static final Logger LOG = Logger.getLogger("eventsystem.bus");
+    public enum Type { EVENT, STUDENT, REGISTRATION, CHECK_IN }
+
+    public enum Kind { ADDED, UPDATED, REMOVED }
+
+    public interface Listener {
+        void changed(Change change);
+    }
+
+    public static class Change {
+        public final Type type;
+        public final Kind kind;
+        // EVENT/STUDENT: the entity id. REGISTRATION/CHECK_IN: the event id. 0 after a bulk change.
+        public final int id;
+        // REGISTRATION/CHECK_IN only: the student id
+        public final int studentId;
+        // The Event or Student that changed, null for registrations and removals
+        public final Object entity;
+
+        Change(Type type, Kind kind, int id, int studentId, Object entity) {
+            this.type = type;
+            this.kind = kind;
+            this.id = id;
+            this.studentId = studentId;
+            this.entity = entity;
+        }
+
+        public String toString() {
+            return type + " " + kind + " " + id + (studentId != 0 ? "/" + studentId : "");
+        }
+    }
+
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    public static void subscribe(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void unsubscribe(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static void eventAdded(Event event) {
+        publish(new Change(Type.EVENT, Kind.ADDED, event.getEventId(), 0, event));
+    }
+
+    public static void studentAdded(Student student) {
+        publish(new Change(Type.STUDENT, Kind.ADDED, student.getStudentId(), 0, student));
+    }
+
+    public static void registrationAdded(int eventId, int studentId) {
+        publish(new Change(Type.REGISTRATION, Kind.ADDED, eventId, studentId, null));
+    }
+
+    public static void registrationRemoved(int eventId, int studentId) {
+        publish(new Change(Type.REGISTRATION, Kind.REMOVED, eventId, studentId, null));
+    }
+
+    public static void checkedIn(int eventId, int studentId) {
+        publish(new Change(Type.CHECK_IN, Kind.ADDED, eventId, studentId, null));
+    }
+
+    // Many rows of one type changed at once (e.g. a CSV import); listeners should reload.
+    public static void bulkChange(Type type) {
+        publish(new Change(type, Kind.UPDATED, 0, 0, null));
+    }
+
+    public static void publish(Change change) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            deliver(change);
+        } else {
+            SwingUtilities.invokeLater(() -> deliver(change));
+        }
+    }
+
+    private static void deliver(Change change) {
+        for (Listener listener : LISTENERS) {
+            try {
+                listener.changed(change);
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Listener failed on " + change, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+public class Event {
+    private final int eventId;
+    private final String title;
+    private final java.sql.Date date;
+    private final java.sql.Time time;
+    private final String venue;
+    private final int capacity;
+
+    public Event(int eventId, String title, java.sql.Date date, java.sql.Time time, String venue, int capacity) {
+        this.eventId = eventId;
+        this.title = title;
+        this.date = date;
+        this.time = time;
+        this.venue = venue;
+        this.capacity = capacity;
+    }
+
+    public int getEventId() {
+        return eventId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public java.sql.Date getDate() {
+        return date;
+    }
+
+    public java.sql.Time getTime() {
+        return time;
+    }
+
+    public String getVenue() {
+        return venue;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -1,18 +1,16 @@
 import java.awt.*;
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 
 public class EventsPanel extends JPanel {
-    private DefaultTableModel tableModel;
+    private PagedTableModel tableModel;
     private JTable eventsTable;
+    private final JLabel statusLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
 
     public EventsPanel() {
         setLayout(new BorderLayout());
 
-        tableModel = new DefaultTableModel(new Object[]{"Event ID", "Title", "Date", "Time", "Venue", "Capacity"}, 0);
+        tableModel = new PagedTableModel(new String[]{"Event ID", "Title", "Date", "Time", "Venue", "Capacity"}, loader);
         eventsTable = new JTable(tableModel);
 
         JPanel buttonPanel = new JPanel(new FlowLayout());
@@ -20,43 +18,19 @@ public class EventsPanel extends JPanel {
         addEventButton.addActionListener(e -> showAddEventDialog());
 
         buttonPanel.add(addEventButton);
+        buttonPanel.add(statusLabel);
         add(buttonPanel, BorderLayout.NORTH);
         add(new JScrollPane(eventsTable), BorderLayout.CENTER);
 
-        refreshEvents();
+        tableModel.setSource(Storage.get().eventPages(), "events");
+
+        EntityBus.subscribe(change -> {
+            if (change.type == EntityBus.Type.EVENT) refreshEvents();
+        });
     }
 
     private void refreshEvents() {
-        tableModel.setRowCount(0);
-        try (Connection conn = DB.getConnection()) {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM events");
-
-            List<Event> events = new ArrayList<>();
-            while (rs.next()) {
-                events.add(new Event(
-                        rs.getInt("event_id"),
-                        rs.getString("title"),
-                        rs.getDate("event_date"),
-                        rs.getTime("event_time"),
-                        rs.getString("venue"),
-                        rs.getInt("capacity")
-                ));
-            }
-
-            for (Event event : events) {
-                tableModel.addRow(new Object[]{
-                        event.getEventId(),
-                        event.getTitle(),
-                        event.getDate(),
-                        event.getTime(),
-                        event.getVenue(),
-                        event.getCapacity()
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        tableModel.reload();
     }
 
     private void showAddEventDialog() {
@@ -80,83 +54,29 @@ public class EventsPanel extends JPanel {
 
         int result = JOptionPane.showConfirmDialog(this, panel, "Add New Event", JOptionPane.OK_CANCEL_OPTION);
 
-        if (result == JOptionPane.OK_OPTION) {
-            String title = titleField.getText().trim();
-            String dateStr = dateField.getText().trim();
-            String timeStr = timeField.getText().trim();
-            String venue = venueField.getText().trim();
-            String capacityStr = capacityField.getText().trim();
-
-            if (title.isEmpty() || dateStr.isEmpty() || timeStr.isEmpty() || venue.isEmpty() || capacityStr.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "All fields are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
-            try {
-                int capacity = Integer.parseInt(capacityStr);
-                java.sql.Date sqlDate = java.sql.Date.valueOf(dateStr);
-                java.sql.Time sqlTime = java.sql.Time.valueOf(timeStr);
-
-                try (Connection conn = DB.getConnection()) {
-                    try (PreparedStatement insertStmt = conn.prepareStatement("INSERT INTO events (title, event_date, event_time, venue, capacity) VALUES (?, ?, ?, ?, ?)")) {
-                        insertStmt.setString(1, title);
-                        insertStmt.setDate(2, sqlDate);
-                        insertStmt.setTime(3, sqlTime);
-                        insertStmt.setString(4, venue);
-                        insertStmt.setInt(5, capacity);
-                        insertStmt.executeUpdate();
-                    }
-                    JOptionPane.showMessageDialog(this, "Event added successfully.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    refreshEvents();
+        if (result != JOptionPane.OK_OPTION) return;
+        String title = titleField.getText();
+        String date = dateField.getText();
+        String time = timeField.getText();
+        String venue = venueField.getText();
+        String capacity = capacityField.getText();
+
+        // the first conflict check loads the schedule, so both steps run off the EDT
+        AsyncLoader.write(this, "event", () -> CatalogService.venueConflicts(date, time, venue), clashes -> {
+            if (!clashes.isEmpty()) {
+                StringBuilder message = new StringBuilder("The venue is already booked around that time:\n");
+                for (Event clash : clashes) {
+                    message.append("  ").append(clash.getTitle()).append(" (").append(clash.getDate())
+                        .append(' ').append(clash.getTime()).append(")\n");
                 }
-
-            } catch (NumberFormatException ex) {
-                JOptionPane.showMessageDialog(this, "Capacity must be a valid number.", "Input Error", JOptionPane.ERROR_MESSAGE);
-            } catch (SQLException e) {
-                JOptionPane.showMessageDialog(this, "Error saving event: " + e.getMessage(), "Database Error", JOptionPane.ERROR_MESSAGE);
+                message.append("Add the event anyway?");
+                int answer = JOptionPane.showConfirmDialog(this, message.toString(), "Venue Conflict",
+                    JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (answer != JOptionPane.YES_OPTION) return;
             }
-        }
-    }
-
-    class Event {
-        private final int eventId;
-        private final String title;
-        private final java.sql.Date date;
-        private final java.sql.Time time;
-        private final String venue;
-        private final int capacity;
-
-        public Event(int eventId, String title, java.sql.Date date, java.sql.Time time, String venue, int capacity) {
-            this.eventId = eventId;
-            this.title = title;
-            this.date = date;
-            this.time = time;
-            this.venue = venue;
-            this.capacity = capacity;
-        }
-
-        public int getEventId() {
-            return eventId;
-        }
-
-        public String getTitle() {
-            return title;
-        }
-
-        public java.sql.Date getDate() {
-            return date;
-        }
-
-        public java.sql.Time getTime() {
-            return time;
-        }
-
-        public String getVenue() {
-            return venue;
-        }
-
-        public int getCapacity() {
-            return capacity;
-        }
+            AsyncLoader.write(this, "event", () -> CatalogService.addEvent(title, date, time, venue, capacity),
+                event -> JOptionPane.showMessageDialog(this, "Event added successfully.", "Success",
+                    JOptionPane.INFORMATION_MESSAGE));
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+// Open-addressing hash set of ints (no boxing). Not thread safe.
+public class IntSet {
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] slots;
+    private int size;
+
+    public IntSet() {
+        this(8);
+    }
+
+    public IntSet(int expected) {
+        int capacity = 8;
+        while (capacity * 3 < expected * 4) capacity <<= 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        if (value == FREE) return false;
+        int mask = slots.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            if (slots[i] == value) return true;
+            if (slots[i] == FREE) return false;
+        }
+    }
+
+    // Returns false if the value was already present. Integer.MIN_VALUE cannot be stored.
+    public boolean add(int value) {
+        if (value == FREE) throw new IllegalArgumentException("IntSet cannot hold " + FREE);
+        if ((size + 1) * 4 > slots.length * 3) grow();
+        int mask = slots.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            if (slots[i] == value) return false;
+            if (slots[i] == FREE) {
+                slots[i] = value;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(int value) {
+        if (value == FREE) return false;
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != value) {
+            if (slots[i] == FREE) return false;
+            i = (i + 1) & mask;
+        }
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int hole = i;
+        for (int j = (hole + 1) & mask; slots[j] != FREE; j = (j + 1) & mask) {
+            int home = hash(slots[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = FREE;
+        size--;
+        return true;
+    }
+
+    public int[] toArray() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int value : slots) {
+            if (value != FREE) out[n++] = value;
+        }
+        return out;
+    }
+
+    private void grow() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        Arrays.fill(slots, FREE);
+        size = 0;
+        for (int value : old) {
+            if (value != FREE) add(value);
+        }
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
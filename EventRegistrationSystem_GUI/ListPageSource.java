@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// PageSource over a list that is built once, on first use, by load(). The position in
+// the list is the key, appended to each fetched row as an extra trailing column.
+public abstract class ListPageSource implements PagedTableModel.PageSource {
+    private List<Object[]> rows;
+
+    protected abstract List<Object[]> load() throws SQLException;
+
+    public synchronized List<Object[]> rows() throws SQLException {
+        if (rows == null) rows = load();
+        return rows;
+    }
+
+    public int count() throws SQLException {
+        return rows().size();
+    }
+
+    public List<Object[]> fetch(Object[] afterKey, int limit) throws SQLException {
+        List<Object[]> all = rows();
+        int from = afterKey == null ? 0 : (Integer) afterKey[0] + 1;
+        if (from >= all.size()) return Collections.emptyList();
+        List<Object[]> page = new ArrayList<>();
+        for (int i = from; i < Math.min(all.size(), from + limit); i++) {
+            Object[] row = all.get(i);
+            Object[] positioned = new Object[row.length + 1];
+            System.arraycopy(row, 0, positioned, 0, row.length);
+            positioned[row.length] = i;
+            page.add(positioned);
+        }
+        return page;
+    }
+
+    public Object[] keyAt(int offset) throws SQLException {
+        return new Object[]{offset};
+    }
+
+    public Object[] keyOf(Object[] row) {
+        return new Object[]{row[row.length - 1]};
+    }
+}
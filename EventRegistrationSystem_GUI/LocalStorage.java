@@ -0,0 +1,650 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+// Embedded storage for desks that work without the database server. Everything is held
+// in memory; each change is first appended to an AppendLog and forced to disk, then
+// applied, so nothing acknowledged is lost in a crash. On open the latest snapshot is
+// loaded and the log replayed up to its last complete record. Once the log passes
+// storage.compactBytes it is folded into a fresh snapshot and a new, empty log.
+//
+// Files in storage.dir:
+//   snapshot.dat          magic, format, generation, id counters, all rows, CRC32C
+//   log-<generation>.dat  changes since that snapshot
+public class LocalStorage implements Storage {
+    static final String DIR = System.getProperty("storage.dir",
+        System.getProperty("user.home") + File.separator + ".event-registration");
+    static final long COMPACT_BYTES = Long.getLong("storage.compactBytes", 16L << 20);
+    // Forcing every record is what makes an acknowledged write survive a power cut
+    static final boolean SYNC = Boolean.parseBoolean(System.getProperty("storage.sync", "true"));
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.storage");
+    private static final int MAGIC = 0x45525331;
+    // 2 added check-ins; format 1 snapshots are still read
+    private static final int FORMAT = 2;
+    private static final byte EVENT = 1;
+    private static final byte STUDENT = 2;
+    private static final byte REGISTER = 3;
+    private static final byte UNREGISTER = 4;
+    private static final byte CHECK_IN = 5;
+
+    private static final Comparator<Student> BY_NAME = Comparator
+        .comparing(Student::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+        .thenComparingInt(Student::getStudentId);
+
+    private final Path dir;
+    private final TreeMap<Integer, Event> events = new TreeMap<>();
+    private final TreeMap<Integer, Student> students = new TreeMap<>();
+    private final TreeSet<Student> studentsByName = new TreeSet<>(BY_NAME);
+    private final Map<String, Integer> emails = new HashMap<>();
+    private final Map<Integer, IntSet> rosters = new HashMap<>();
+    // event id -> student id -> check-in time
+    private final Map<Integer, Map<Integer, Long>> checkIns = new HashMap<>();
+    private int lastEventId;
+    private int lastStudentId;
+
+    private long generation;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private AppendLog log;
+    // while true, appends are not forced one by one (see endBatch)
+    private boolean inBatch;
+
+    public LocalStorage() {
+        this(Paths.get(DIR));
+    }
+
+    public LocalStorage(Path dir) {
+        this.dir = dir;
+    }
+
+    // Recovery
+
+    public synchronized void open() throws SQLException {
+        if (log != null) return;
+        try {
+            Files.createDirectories(dir);
+            lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = lockChannel.tryLock();
+            if (lock == null) throw new SQLException("Local store " + dir + " is in use by another process");
+
+            long start = System.nanoTime();
+            Path snapshot = dir.resolve("snapshot.dat");
+            if (Files.exists(snapshot)) readSnapshot(snapshot);
+            int replayed = openLog();
+            // logs from generations the snapshot already covers
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "log-*.dat")) {
+                for (Path p : old) {
+                    if (!p.equals(logPath(generation))) Files.delete(p);
+                }
+            }
+            LOG.info(String.format("Local store %s: %d events, %d students, %d log records replayed in %.1f ms",
+                dir, events.size(), students.size(), replayed, (System.nanoTime() - start) / 1e6));
+            if (log.size() > COMPACT_BYTES) compact();
+        } catch (IOException e) {
+            throw new SQLException("Cannot open local store " + dir + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Path logPath(long gen) {
+        return dir.resolve("log-" + gen + ".dat");
+    }
+
+    private void readSnapshot(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.limit() < 8 || buf.getInt(0) != MAGIC) throw new IOException(path + " is not a snapshot");
+            CRC32C crc = new CRC32C();
+            ByteBuffer body = buf.duplicate();
+            body.limit(buf.limit() - 4);
+            crc.update(body);
+            if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) {
+                // snapshots are renamed into place only once complete, so this is disk damage
+                throw new IOException(path + " is corrupt (checksum mismatch)");
+            }
+
+            buf.position(4);
+            int format = buf.getInt();
+            if (format < 1 || format > FORMAT) throw new IOException(path + " has unsupported format " + format);
+            generation = buf.getLong();
+            lastEventId = buf.getInt();
+            lastStudentId = buf.getInt();
+            for (int n = buf.getInt(); n > 0; n--) {
+                putEvent(readEvent(buf));
+            }
+            for (int n = buf.getInt(); n > 0; n--) {
+                putStudent(new Student(buf.getInt(), AppendLog.getString(buf), AppendLog.getString(buf)));
+            }
+            for (int n = buf.getInt(); n > 0; n--) {
+                int eventId = buf.getInt();
+                int size = buf.getInt();
+                IntSet roster = new IntSet(size);
+                for (int i = 0; i < size; i++) roster.add(buf.getInt());
+                rosters.put(eventId, roster);
+            }
+            if (format < 2) return;
+            for (int n = buf.getInt(); n > 0; n--) {
+                Map<Integer, Long> event = checkIns.computeIfAbsent(buf.getInt(), k -> new HashMap<>());
+                for (int size = buf.getInt(); size > 0; size--) event.put(buf.getInt(), buf.getLong());
+            }
+        }
+    }
+
+    private int openLog() throws IOException {
+        log = new AppendLog(logPath(generation));
+        return log.open(this::apply);
+    }
+
+    private void apply(byte type, ByteBuffer record) {
+        switch (type) {
+            case EVENT:
+                Event event = readEvent(record);
+                putEvent(event);
+                lastEventId = Math.max(lastEventId, event.getEventId());
+                break;
+            case STUDENT:
+                Student student = new Student(record.getInt(), AppendLog.getString(record), AppendLog.getString(record));
+                putStudent(student);
+                lastStudentId = Math.max(lastStudentId, student.getStudentId());
+                break;
+            case REGISTER:
+                int eventId = record.getInt();
+                rosters.computeIfAbsent(eventId, k -> new IntSet()).add(record.getInt());
+                break;
+            case UNREGISTER:
+                eventId = record.getInt();
+                int studentId = record.getInt();
+                IntSet roster = rosters.get(eventId);
+                if (roster != null) roster.remove(studentId);
+                removeCheckIn(eventId, studentId);
+                break;
+            case CHECK_IN:
+                eventId = record.getInt();
+                studentId = record.getInt();
+                checkIns.computeIfAbsent(eventId, k -> new HashMap<>()).put(studentId, record.getLong());
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record type " + type);
+        }
+    }
+
+    // A check-in goes with its registration, as in the database
+    private void removeCheckIn(int eventId, int studentId) {
+        Map<Integer, Long> event = checkIns.get(eventId);
+        if (event != null) event.remove(studentId);
+    }
+
+    private void putEvent(Event event) {
+        events.put(event.getEventId(), event);
+    }
+
+    private void putStudent(Student student) {
+        students.put(student.getStudentId(), student);
+        studentsByName.add(student);
+        emails.put(student.getEmail().toLowerCase(), student.getStudentId());
+    }
+
+    // Writes
+
+    // Appends one record and forces it to disk; the caller applies it afterwards.
+    private void append(byte type, byte[] payload) throws SQLException {
+        if (log == null) throw new SQLException("Local store is not open");
+        try {
+            log.append(type, payload, SYNC && !inBatch);
+        } catch (IOException e) {
+            throw new SQLException("Cannot write local log: " + e.getMessage(), e);
+        }
+    }
+
+    // Caller holds the lock; the batch's records are forced once here instead of one by one
+    private void endBatch() {
+        inBatch = false;
+        if (SYNC && log != null) log.force();
+    }
+
+    private void maybeCompact() throws SQLException {
+        if (log.size() > COMPACT_BYTES) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // the log still holds everything; try again after the next write
+                LOG.log(Level.WARNING, "Compacting the log in " + dir + " failed", e);
+            }
+        }
+    }
+
+    // Writes a snapshot of the current state for the next generation, then switches to an
+    // empty log for it. A crash at any point leaves either the old snapshot and log or the
+    // new snapshot, both complete.
+    public synchronized void compact() throws IOException {
+        long next = generation + 1;
+        Path tmp = dir.resolve("snapshot.tmp");
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+                public void write(int b) throws IOException {
+                    crc.update(b);
+                    file.write(b);
+                }
+
+                public void write(byte[] b, int off, int len) throws IOException {
+                    crc.update(b, off, len);
+                    file.write(b, off, len);
+                }
+            }, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(next);
+            out.writeInt(lastEventId);
+            out.writeInt(lastStudentId);
+            out.writeInt(events.size());
+            for (Event event : events.values()) writeEvent(out, event);
+            out.writeInt(students.size());
+            for (Student student : students.values()) {
+                out.writeInt(student.getStudentId());
+                AppendLog.putString(out, student.getName());
+                AppendLog.putString(out, student.getEmail());
+            }
+            out.writeInt(rosters.size());
+            for (Map.Entry<Integer, IntSet> entry : rosters.entrySet()) {
+                int[] ids = entry.getValue().toArray();
+                out.writeInt(entry.getKey());
+                out.writeInt(ids.length);
+                for (int id : ids) out.writeInt(id);
+            }
+            out.writeInt(checkIns.size());
+            for (Map.Entry<Integer, Map<Integer, Long>> entry : checkIns.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Integer, Long> checkIn : entry.getValue().entrySet()) {
+                    out.writeInt(checkIn.getKey());
+                    out.writeLong(checkIn.getValue());
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, dir.resolve("snapshot.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+
+        Path oldLog = logPath(generation);
+        log.close();
+        generation = next;
+        openLog();
+        Files.deleteIfExists(oldLog);
+    }
+
+    public synchronized void close() throws SQLException {
+        if (log == null) return;
+        try {
+            if (log.size() > 0) compact();
+            log.close();
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            throw new SQLException("Cannot close local store: " + e.getMessage(), e);
+        } finally {
+            log = null;
+        }
+    }
+
+    // Events
+
+    public synchronized List<Event> events() {
+        return new ArrayList<>(events.values());
+    }
+
+    public synchronized Event event(int eventId) {
+        return events.get(eventId);
+    }
+
+    public synchronized Event addEvent(String title, java.sql.Date date, java.sql.Time time, String venue, int capacity)
+            throws SQLException {
+        Event event = new Event(lastEventId + 1, title, date, time, venue, capacity);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeEvent(new DataOutputStream(bytes), event);
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        append(EVENT, bytes.toByteArray());
+        putEvent(event);
+        lastEventId = event.getEventId();
+        maybeCompact();
+        return event;
+    }
+
+    // Students
+
+    public synchronized List<Student> students() {
+        return new ArrayList<>(students.values());
+    }
+
+    public synchronized Map<Integer, Student> students(Collection<Integer> ids) {
+        Map<Integer, Student> result = new HashMap<>();
+        for (Integer id : ids) {
+            Student student = students.get(id);
+            if (student != null) result.put(id, student);
+        }
+        return result;
+    }
+
+    public synchronized List<Student> studentsAfter(int afterId) {
+        return new ArrayList<>(students.tailMap(afterId, false).values());
+    }
+
+    public synchronized Set<String> studentEmails() {
+        return new HashSet<>(emails.keySet());
+    }
+
+    public synchronized Student addStudent(String name, String email) throws SQLException {
+        if (emails.containsKey(email.toLowerCase())) return null;
+        Student student = new Student(lastStudentId + 1, name, email);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(student.getStudentId());
+            AppendLog.putString(out, name);
+            AppendLog.putString(out, email);
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        append(STUDENT, bytes.toByteArray());
+        putStudent(student);
+        lastStudentId = student.getStudentId();
+        maybeCompact();
+        return student;
+    }
+
+    public synchronized List<Student> addStudents(List<String[]> rows, Rejections rejected) throws SQLException {
+        List<Student> added = new ArrayList<>();
+        for (String[] row : rows) {
+            Student student = addStudent(row[0], row[1]);
+            if (student == null) {
+                rejected.reject(row, "duplicate email " + row[1]);
+            } else {
+                added.add(student);
+            }
+        }
+        return added;
+    }
+
+    // Registrations
+
+    public synchronized RegistrationService.Result register(int studentId, int eventId) throws SQLException {
+        Event event = events.get(eventId);
+        if (event == null) return RegistrationService.Result.NO_SUCH_EVENT;
+        IntSet roster = rosters.computeIfAbsent(eventId, k -> new IntSet());
+        if (roster.contains(studentId)) return RegistrationService.Result.DUPLICATE;
+        if (roster.size() >= event.getCapacity()) return RegistrationService.Result.FULL;
+        append(REGISTER, pair(eventId, studentId));
+        roster.add(studentId);
+        maybeCompact();
+        return RegistrationService.Result.REGISTERED;
+    }
+
+    public synchronized int unregister(int studentId, int eventId, IntSupplier waiting) throws SQLException {
+        IntSet roster = rosters.get(eventId);
+        if (roster == null || !roster.contains(studentId)) return -1;
+        append(UNREGISTER, pair(eventId, studentId));
+        roster.remove(studentId);
+        removeCheckIn(eventId, studentId);
+
+        int promoted = 0;
+        int next;
+        while ((next = waiting.getAsInt()) != 0) {
+            RegistrationService.Result result = register(next, eventId);
+            if (result == RegistrationService.Result.REGISTERED) {
+                promoted = next;
+                break;
+            }
+            // only students who are already registered are skipped; if the seat is gone, nobody fits
+            if (result != RegistrationService.Result.DUPLICATE) break;
+        }
+        maybeCompact();
+        return promoted;
+    }
+
+    public synchronized Map<Integer, RegistrationService.Result> registerAll(int eventId, List<Integer> studentIds)
+            throws SQLException {
+        Map<Integer, RegistrationService.Result> results = new LinkedHashMap<>();
+        inBatch = true;
+        try {
+            for (Integer studentId : studentIds) {
+                if (!results.containsKey(studentId)) results.put(studentId, register(studentId, eventId));
+            }
+        } finally {
+            endBatch();
+        }
+        return results;
+    }
+
+    public synchronized List<Integer> unregisterAll(int eventId, List<Integer> studentIds, IntSupplier waiting,
+                                                    List<Integer> promoted) throws SQLException {
+        List<Integer> removed = new ArrayList<>();
+        inBatch = true;
+        try {
+            IntSet roster = rosters.get(eventId);
+            for (Integer studentId : studentIds) {
+                if (roster == null || !roster.contains(studentId)) continue;
+                append(UNREGISTER, pair(eventId, studentId));
+                roster.remove(studentId);
+                removeCheckIn(eventId, studentId);
+                removed.add(studentId);
+            }
+            int next;
+            int filled = 0;
+            while (filled < removed.size() && (next = waiting.getAsInt()) != 0) {
+                RegistrationService.Result result = register(next, eventId);
+                if (result == RegistrationService.Result.REGISTERED) {
+                    promoted.add(next);
+                    filled++;
+                } else if (result != RegistrationService.Result.DUPLICATE) {
+                    break;
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        maybeCompact();
+        return removed;
+    }
+
+    public void forEachRegistration(RegistrationVisitor visitor) {
+        Map<Integer, int[]> copy = new HashMap<>();
+        synchronized (this) {
+            for (Map.Entry<Integer, IntSet> entry : rosters.entrySet()) copy.put(entry.getKey(), entry.getValue().toArray());
+        }
+        for (Map.Entry<Integer, int[]> entry : copy.entrySet()) {
+            for (int studentId : entry.getValue()) visitor.visit(entry.getKey(), studentId);
+        }
+    }
+
+    // Check-ins
+
+    public synchronized Map<Integer, Long> checkIns(int eventId) {
+        return new HashMap<>(checkIns.getOrDefault(eventId, Collections.emptyMap()));
+    }
+
+    // One record per check-in, forced once for the batch
+    public synchronized List<Integer> checkIn(int eventId, Map<Integer, Long> batch) throws SQLException {
+        IntSet roster = rosters.get(eventId);
+        Map<Integer, Long> event = checkIns.computeIfAbsent(eventId, k -> new HashMap<>());
+        List<Integer> recorded = new ArrayList<>();
+        inBatch = true;
+        try {
+            for (Map.Entry<Integer, Long> checkIn : batch.entrySet()) {
+                int studentId = checkIn.getKey();
+                if (roster == null || !roster.contains(studentId) || event.containsKey(studentId)) continue;
+                append(CHECK_IN, ByteBuffer.allocate(16).putInt(eventId).putInt(studentId).putLong(checkIn.getValue()).array());
+                event.put(studentId, checkIn.getValue());
+                recorded.add(studentId);
+            }
+        } finally {
+            endBatch();
+        }
+        maybeCompact();
+        return recorded;
+    }
+
+    // Table sources, built from a copy of the rows taken when first read
+
+    public PagedTableModel.PageSource eventPages() {
+        return new ListPageSource() {
+            protected List<Object[]> load() {
+                List<Object[]> rows = new ArrayList<>();
+                for (Event e : events()) {
+                    rows.add(new Object[]{e.getEventId(), e.getTitle(), e.getDate(), e.getTime(), e.getVenue(), e.getCapacity()});
+                }
+                return rows;
+            }
+        };
+    }
+
+    public PagedTableModel.PageSource studentPages() {
+        return studentPages(StudentQuery.ALL);
+    }
+
+    public PagedTableModel.PageSource studentPages(StudentQuery query) {
+        return new ListPageSource() {
+            protected List<Object[]> load() {
+                List<Student> sorted = new ArrayList<>();
+                synchronized (LocalStorage.this) {
+                    for (Student s : studentsByName) {
+                        if (query.matches(s)) sorted.add(s);
+                    }
+                }
+                // studentsByName is already in name order
+                if (query.sortBy == StudentQuery.Column.ID) {
+                    sorted.sort(Comparator.comparingInt(Student::getStudentId));
+                } else if (query.sortBy == StudentQuery.Column.EMAIL) {
+                    sorted.sort(Comparator.comparing(Student::getEmail));
+                }
+                if (query.descending) Collections.reverse(sorted);
+                List<Object[]> rows = new ArrayList<>(sorted.size());
+                for (Student s : sorted) rows.add(new Object[]{s.getStudentId(), s.getName(), s.getEmail()});
+                return rows;
+            }
+        };
+    }
+
+    public PagedTableModel.PageSource findStudents(String filter) {
+        String q = filter == null ? "" : SchemaMigrations.normalize(filter);
+        return new ListPageSource() {
+            protected List<Object[]> load() {
+                List<Object[]> rows = new ArrayList<>();
+                synchronized (LocalStorage.this) {
+                    for (Student s : studentsByName) {
+                        if (q.isEmpty() || SchemaMigrations.normalize(s.getName()).contains(q)
+                                || s.getEmail().toLowerCase().contains(q)) {
+                            rows.add(new Object[]{s.getStudentId(), s.getName(), s.getEmail()});
+                        }
+                    }
+                }
+                return rows;
+            }
+        };
+    }
+
+    // Same stages as StudentSearch: whole-name prefix, then word prefix, then substring
+    // only if nothing matched, each in name order, capped at search.limit rows.
+    public PagedTableModel.PageSource search(String query) {
+        String q = SchemaMigrations.normalize(query);
+        return new ListPageSource() {
+            protected List<Object[]> load() {
+                List<Object[]> rows = new ArrayList<>();
+                if (q.isEmpty()) return rows;
+                List<String> words = StudentSearch.tokens(q);
+                String firstWord = words.isEmpty() ? null : words.get(0);
+                synchronized (LocalStorage.this) {
+                    List<Student> prefix = new ArrayList<>();
+                    List<Student> word = new ArrayList<>();
+                    List<Student> contains = new ArrayList<>();
+                    for (Student s : studentsByName) {
+                        String name = SchemaMigrations.normalize(s.getName());
+                        if (name == null || !name.contains(q)) continue;
+                        if (name.startsWith(q)) {
+                            prefix.add(s);
+                        } else if (firstWord != null && startsAWord(name, firstWord)) {
+                            word.add(s);
+                        } else {
+                            contains.add(s);
+                        }
+                    }
+                    addRegistrations(prefix, rows);
+                    addRegistrations(word, rows);
+                    if (rows.isEmpty()) addRegistrations(contains, rows);
+                }
+                return rows;
+            }
+        };
+    }
+
+    private static boolean startsAWord(String name, String word) {
+        for (String token : StudentSearch.tokens(name)) {
+            if (token.startsWith(word)) return true;
+        }
+        return false;
+    }
+
+    // Caller holds the lock
+    private void addRegistrations(List<Student> matches, List<Object[]> rows) {
+        for (Student s : matches) {
+            for (Event e : events.values()) {
+                if (rows.size() >= StudentSearch.LIMIT) return;
+                IntSet roster = rosters.get(e.getEventId());
+                if (roster != null && roster.contains(s.getStudentId())) {
+                    rows.add(new Object[]{s.getStudentId(), s.getName(), s.getEmail(), e.getTitle(), e.getEventId()});
+                }
+            }
+        }
+    }
+
+    // Encoding
+
+    private static byte[] pair(int a, int b) {
+        return ByteBuffer.allocate(8).putInt(a).putInt(b).array();
+    }
+
+    // Makes a rename in dir survive a power cut. Not every platform can open a directory;
+    // there the rename is as durable as the file system makes it.
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOG.fine("Cannot sync directory " + dir + ": " + e.getMessage());
+        }
+    }
+
+    static void writeEvent(DataOutput out, Event event) throws IOException {
+        out.writeInt(event.getEventId());
+        AppendLog.putString(out, event.getTitle());
+        out.writeLong(event.getDate() == null ? Long.MIN_VALUE : event.getDate().toLocalDate().toEpochDay());
+        out.writeInt(event.getTime() == null ? -1 : event.getTime().toLocalTime().toSecondOfDay());
+        AppendLog.putString(out, event.getVenue());
+        out.writeInt(event.getCapacity());
+    }
+
+    static Event readEvent(ByteBuffer in) {
+        int id = in.getInt();
+        String title = AppendLog.getString(in);
+        long day = in.getLong();
+        int second = in.getInt();
+        String venue = AppendLog.getString(in);
+        int capacity = in.getInt();
+        return new Event(id, title,
+            day == Long.MIN_VALUE ? null : java.sql.Date.valueOf(java.time.LocalDate.ofEpochDay(day)),
+            second < 0 ? null : java.sql.Time.valueOf(java.time.LocalTime.ofSecondOfDay(second)),
+            venue, capacity);
+    }
+}
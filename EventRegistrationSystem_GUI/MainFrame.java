@@ -1,26 +1,83 @@
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.*;
 
 public class MainFrame extends JFrame {
+    private static final Logger LOG = Logger.getLogger("eventsystem.startup");
+    private final JTabbedPane tabbedPane = new JTabbedPane();
+
     public MainFrame() {
         setTitle("Event Management System");
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        JTabbedPane tabbedPane = new JTabbedPane();
-        
-        // Add panels to tabs
-        tabbedPane.addTab("Events", new EventsPanel());
-        tabbedPane.addTab("Registrations", new RegistrationsPanel());
-        tabbedPane.addTab("Students", new StudentsPanel());
+        // Add panels to tabs; each is built the first time its tab is selected
+        addLazyTab("Events", EventsPanel::new);
+        addLazyTab("Registrations", RegistrationsPanel::new);
+        addLazyTab("Students", StudentsPanel::new);
+        addLazyTab("Check-in", CheckInPanel::new);
+        addLazyTab("Dashboard", DashboardPanel::new);
+        addLazyTab("Metrics", MetricsPanel::new);
+        tabbedPane.addChangeListener(e -> buildSelectedTab());
 
         add(tabbedPane, BorderLayout.CENTER);
+
+        addWindowListener(new WindowAdapter() {
+            public void windowOpened(WindowEvent e) {
+                Startup.mark("window");
+                // after the first paint, so the window never waits for a panel
+                SwingUtilities.invokeLater(() -> buildSelectedTab());
+            }
+        });
+    }
+
+    private void addLazyTab(String title, Supplier<JComponent> factory) {
+        JPanel holder = new JPanel(new BorderLayout());
+        holder.putClientProperty("factory", factory);
+        tabbedPane.addTab(title, holder);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void buildSelectedTab() {
+        JPanel holder = (JPanel) tabbedPane.getSelectedComponent();
+        if (holder == null || !isShowing()) return;
+        Supplier<JComponent> factory = (Supplier<JComponent>) holder.getClientProperty("factory");
+        if (factory == null) return;
+        holder.putClientProperty("factory", null);
+        holder.add(factory.get(), BorderLayout.CENTER);
+        holder.revalidate();
+        Startup.mark("tab:" + tabbedPane.getTitleAt(tabbedPane.getSelectedIndex()));
     }
 
     public static void main(String[] args) {
+        Startup.mark("main");
+        Metrics.start();
+        // Migrations and log replay run while the window comes up; loads wait for them
+        Startup.openStorage();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Notifications.shutdown(Notifications.SHUTDOWN_MS);
+                CheckInSession.flushAll();
+                AuditLog.close();
+                Storage.get().close();
+            } catch (java.sql.SQLException e) {
+                LOG.log(Level.WARNING, "Closing storage failed", e);
+            }
+        }, "storage-shutdown"));
+        if (System.getProperty("api.port") != null) {
+            try {
+                ApiServer.start(ApiServer.PORT);
+            } catch (java.io.IOException e) {
+                LOG.log(Level.SEVERE, "API server could not start", e);
+            }
+        }
         SwingUtilities.invokeLater(() -> {
             MainFrame frame = new MainFrame();
             frame.setVisible(true);
         });
     }
-}
\ No newline at end of file
+}
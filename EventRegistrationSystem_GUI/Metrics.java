@@ -0,0 +1,293 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+
+// Per-query latency, row and error counts for every statement run through DB, plus how
+// long the EDT spends on each event. Exposed in the Metrics tab, over JMX as
+// eventsystem:type=Metrics, and optionally as a text file (-Dmetrics.exportFile).
+public class Metrics implements MetricsMBean {
+    static final long SLOW_QUERY_MS = Long.getLong("metrics.slowQueryMs", 200);
+    static final long EDT_BLOCK_MS = Long.getLong("metrics.edtBlockMs", 100);
+    static final String EXPORT_FILE = System.getProperty("metrics.exportFile");
+    static final long EXPORT_INTERVAL_MS = Long.getLong("metrics.exportIntervalMs", 10 * 1000);
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.metrics");
+    private static final Logger SLOW_LOG = Logger.getLogger("eventsystem.slowquery");
+    private static final Pattern TABLE = Pattern.compile(
+        "\\b(?:FROM|INTO|UPDATE|TABLE)\\s+([A-Za-z_][A-Za-z0-9_]*)", Pattern.CASE_INSENSITIVE);
+
+    private static final Map<String, QueryStats> QUERIES = new ConcurrentHashMap<>();
+    private static final LatencyHistogram EDT_DISPATCH = new LatencyHistogram();
+    private static final AtomicLong EDT_BLOCKED_NANOS = new AtomicLong();
+    private static final AtomicLong EDT_BLOCKED_EVENTS = new AtomicLong();
+    private static final Metrics INSTANCE = new Metrics();
+    private static boolean started;
+
+    public static class QueryStats {
+        public final String name;
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public final AtomicLong rows = new AtomicLong();
+        public final AtomicLong errors = new AtomicLong();
+        public final AtomicLong slow = new AtomicLong();
+
+        QueryStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Registers the MBean, hooks the EDT and starts the text export if configured.
+    public static synchronized void start() {
+        if (started) return;
+        started = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("eventsystem:type=Metrics"));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Metrics MBean could not be registered", e);
+        }
+        if (!java.awt.GraphicsEnvironment.isHeadless()) {
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimedEventQueue());
+        }
+        if (EXPORT_FILE != null) {
+            ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-export");
+                t.setDaemon(true);
+                return t;
+            });
+            exporter.scheduleWithFixedDelay(() -> {
+                try {
+                    Path target = Paths.get(EXPORT_FILE);
+                    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                    Files.write(tmp, toText().getBytes(StandardCharsets.UTF_8));
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Exporting metrics to " + EXPORT_FILE + " failed", e);
+                }
+            }, EXPORT_INTERVAL_MS, EXPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Short stable name for a statement, e.g. "SELECT students" or "INSERT registrations".
+    public static String queryName(String sql) {
+        String trimmed = sql.trim();
+        int space = trimmed.indexOf(' ');
+        String verb = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase();
+        Matcher m = TABLE.matcher(trimmed);
+        return m.find() ? verb + " " + m.group(1).toLowerCase() : verb;
+    }
+
+    public static QueryStats stats(String name) {
+        return QUERIES.computeIfAbsent(name, QueryStats::new);
+    }
+
+    public static void record(String sql, long nanos, long rows) {
+        QueryStats stats = stats(queryName(sql));
+        stats.latency.record(nanos);
+        if (rows > 0) stats.rows.addAndGet(rows);
+        if (nanos >= SLOW_QUERY_MS * 1_000_000L) {
+            stats.slow.incrementAndGet();
+            SLOW_LOG.warning(String.format("slow query %.1f ms: %s", nanos / 1e6, sql.replaceAll("\\s+", " ")));
+        }
+    }
+
+    public static void error(String sql, SQLException e) {
+        stats(queryName(sql)).errors.incrementAndGet();
+        // constraint violations (SQLState class 23) are answers, e.g. a duplicate email
+        Level level = e.getSQLState() != null && e.getSQLState().startsWith("23") ? Level.FINE : Level.WARNING;
+        SLOW_LOG.log(level, "query failed (" + e.getSQLState() + "): " + e.getMessage());
+    }
+
+    public static List<QueryStats> snapshot() {
+        List<QueryStats> list = new ArrayList<>(QUERIES.values());
+        list.sort(Comparator.comparing(q -> q.name));
+        return list;
+    }
+
+    public static LatencyHistogram edtDispatch() {
+        return EDT_DISPATCH;
+    }
+
+    public static long edtBlockedMillis() {
+        return EDT_BLOCKED_NANOS.get() / 1_000_000L;
+    }
+
+    public static long edtBlockedEvents() {
+        return EDT_BLOCKED_EVENTS.get();
+    }
+
+    public static void reset() {
+        QUERIES.clear();
+        EDT_DISPATCH.reset();
+        EDT_BLOCKED_NANOS.set(0);
+        EDT_BLOCKED_EVENTS.set(0);
+    }
+
+    // Plain text, one metric per line, in the Prometheus exposition format.
+    public static String toText() {
+        StringBuilder out = new StringBuilder();
+        for (QueryStats q : snapshot()) {
+            String label = "{query=\"" + q.name + "\"}";
+            out.append("db_query_count").append(label).append(' ').append(q.latency.getCount()).append('\n');
+            out.append("db_query_errors").append(label).append(' ').append(q.errors.get()).append('\n');
+            out.append("db_query_rows").append(label).append(' ').append(q.rows.get()).append('\n');
+            out.append("db_query_slow").append(label).append(' ').append(q.slow.get()).append('\n');
+            out.append("db_query_mean_ms").append(label).append(' ').append(ms(q.latency.getMeanNanos())).append('\n');
+            out.append("db_query_p99_ms").append(label).append(' ').append(ms(q.latency.percentileNanos(99))).append('\n');
+            out.append("db_query_max_ms").append(label).append(' ').append(ms(q.latency.getMaxNanos())).append('\n');
+        }
+        ConnectionPool.Stats pool = DB.poolStats();
+        out.append("db_pool_active ").append(pool.active).append('\n');
+        out.append("db_pool_idle ").append(pool.idle).append('\n');
+        out.append("db_pool_waiters ").append(pool.waiters).append('\n');
+        out.append("db_pool_timeouts ").append(pool.timeouts).append('\n');
+        out.append("db_pool_acquire_p99_ms ").append(ms(pool.acquireLatency.percentileNanos(99))).append('\n');
+        out.append("edt_dispatch_count ").append(EDT_DISPATCH.getCount()).append('\n');
+        out.append("edt_dispatch_p99_ms ").append(ms(EDT_DISPATCH.percentileNanos(99))).append('\n');
+        out.append("edt_blocked_events ").append(edtBlockedEvents()).append('\n');
+        out.append("edt_blocked_ms ").append(edtBlockedMillis()).append('\n');
+        Notifications.Stats notify = Notifications.stats();
+        out.append("notify_queued ").append(notify.queued).append('\n');
+        out.append("notify_retrying ").append(notify.retrying).append('\n');
+        out.append("notify_sent ").append(notify.sent).append('\n');
+        out.append("notify_failed_attempts ").append(notify.failedAttempts).append('\n');
+        out.append("notify_dead_lettered ").append(notify.deadLettered).append('\n');
+        out.append("notify_dropped ").append(notify.dropped).append('\n');
+        out.append("notify_per_second ").append(String.format(Locale.ROOT, "%.1f", notify.perSecond)).append('\n');
+        out.append("notify_delay_p99_ms ").append(ms(notify.delay.percentileNanos(99))).append('\n');
+        out.append("audit_records ").append(AuditLog.records()).append('\n');
+        out.append("audit_errors ").append(AuditLog.errors()).append('\n');
+        for (Map.Entry<String, Long> phase : Startup.phases().entrySet()) {
+            out.append("startup_ms{phase=\"").append(phase.getKey()).append("\"} ").append(phase.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+
+    public static void writeText(Writer out) throws IOException {
+        out.write(toText());
+        out.flush();
+    }
+
+    private static String ms(double nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // MetricsMBean
+
+    public String getText() {
+        return toText();
+    }
+
+    public long getEdtBlockedMillis() {
+        return edtBlockedMillis();
+    }
+
+    public long getEdtBlockedEvents() {
+        return edtBlockedEvents();
+    }
+
+    public int getPoolActive() {
+        return DB.poolStats().active;
+    }
+
+    public int getPoolWaiters() {
+        return DB.poolStats().waiters;
+    }
+
+    public void resetCounters() {
+        reset();
+    }
+
+    // Wraps a JDBC statement so every execute call is timed and counted under its SQL.
+    // For PreparedStatements sql is the prepared text; plain Statements pass it per call.
+    static Statement instrument(Statement target, String preparedSql, Class<? extends Statement> type) {
+        return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (name.equals("equals")) return proxy == args[0];
+                if (name.equals("hashCode")) return System.identityHashCode(proxy);
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            if (sql == null) sql = "BATCH";
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) error(sql, (SQLException) e.getCause());
+                throw e.getCause();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (result instanceof ResultSet) {
+                // rows are counted as the caller reads them; time is the execute call itself
+                record(sql, elapsed, 0);
+                return countRows((ResultSet) result, stats(queryName(sql)));
+            }
+            long rows = 0;
+            if (result instanceof Integer) rows = (Integer) result;
+            else if (result instanceof Long) rows = (Long) result;
+            else if (result instanceof int[]) for (int n : (int[]) result) rows += Math.max(n, 0);
+            record(sql, elapsed, rows);
+            return result;
+        });
+    }
+
+    private static ResultSet countRows(ResultSet target, QueryStats stats) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("equals")) return proxy == args[0];
+                if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (method.getName().equals("next") && Boolean.TRUE.equals(result)) stats.rows.incrementAndGet();
+                return result;
+            });
+    }
+
+    // Times every AWT event dispatch; anything over metrics.edtBlockMs counts as blocked time.
+    private static class TimedEventQueue extends EventQueue {
+        protected void dispatchEvent(AWTEvent event) {
+            long start = System.nanoTime();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                EDT_DISPATCH.record(elapsed);
+                if (elapsed >= EDT_BLOCK_MS * 1_000_000L) {
+                    EDT_BLOCKED_EVENTS.incrementAndGet();
+                    EDT_BLOCKED_NANOS.addAndGet(elapsed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+// JMX view of Metrics, registered as eventsystem:type=Metrics.
+public interface MetricsMBean {
+    String getText();
+
+    long getEdtBlockedMillis();
+
+    long getEdtBlockedEvents();
+
+    int getPoolActive();
+
+    int getPoolWaiters();
+
+    void resetCounters();
+}
@@ -0,0 +1,113 @@
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+
+// Live view of Metrics: per-query latency and counts, pool usage and EDT blocking.
+public class MetricsPanel extends JPanel {
+    private static final Logger LOG = Logger.getLogger("eventsystem.metrics");
+    static final int REFRESH_MS = Integer.getInteger("metrics.refreshMs", 2000);
+
+    private final DefaultTableModel tableModel;
+    private final JLabel poolLabel = new JLabel(" ");
+    private final JLabel edtLabel = new JLabel(" ");
+    private final JLabel notifyLabel = new JLabel(" ");
+    private final JLabel startupLabel = new JLabel(" ");
+
+    public MetricsPanel() {
+        setLayout(new BorderLayout());
+
+        tableModel = new DefaultTableModel(new String[]{
+            "Query", "Calls", "Errors", "Slow", "Rows", "Mean ms", "p50 ms", "p99 ms", "Max ms"}, 0) {
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            Metrics.reset();
+            refresh();
+        });
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> export());
+        buttonPanel.add(resetButton);
+        buttonPanel.add(exportButton);
+
+        JPanel summary = new JPanel(new GridLayout(4, 1));
+        summary.add(poolLabel);
+        summary.add(edtLabel);
+        summary.add(notifyLabel);
+        summary.add(startupLabel);
+
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(buttonPanel, BorderLayout.NORTH);
+        top.add(summary, BorderLayout.CENTER);
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        // Only sample while the tab is on screen
+        Timer timer = new Timer(REFRESH_MS, e -> {
+            if (isShowing()) refresh();
+        });
+        timer.start();
+    }
+
+    private void refresh() {
+        List<Object[]> rows = new ArrayList<>();
+        for (Metrics.QueryStats q : Metrics.snapshot()) {
+            LatencyHistogram h = q.latency;
+            rows.add(new Object[]{q.name, h.getCount(), q.errors.get(), q.slow.get(), q.rows.get(),
+                ms(h.getMeanNanos()), ms(h.percentileNanos(50)), ms(h.percentileNanos(99)), ms(h.getMaxNanos())});
+        }
+        AsyncLoader.setRows(tableModel, rows);
+
+        ConnectionPool.Stats pool = DB.poolStats();
+        poolLabel.setText(String.format(" Pool: %d active, %d idle, %d waiting of %d; %d timeouts; acquire p99 %s ms",
+            pool.active, pool.idle, pool.waiters, pool.maxSize, pool.timeouts, ms(pool.acquireLatency.percentileNanos(99))));
+        LatencyHistogram edt = Metrics.edtDispatch();
+        edtLabel.setText(String.format(" EDT: %d events, p99 %s ms, max %s ms; %d blocked over %d ms for %d ms total",
+            edt.getCount(), ms(edt.percentileNanos(99)), ms(edt.getMaxNanos()),
+            Metrics.edtBlockedEvents(), Metrics.EDT_BLOCK_MS, Metrics.edtBlockedMillis()));
+
+        Notifications.Stats notify = Notifications.stats();
+        notifyLabel.setText(String.format(" Notifications: %d queued, %d retrying; %d sent (%.1f/s), delay p99 %s ms;"
+            + " %d failed attempts, %d dead-lettered, %d dropped",
+            notify.queued, notify.retrying, notify.sent, notify.perSecond, ms(notify.delay.percentileNanos(99)),
+            notify.failedAttempts, notify.deadLettered, notify.dropped));
+
+        StringBuilder startup = new StringBuilder(" Startup (ms):");
+        for (Map.Entry<String, Long> phase : Startup.phases().entrySet()) {
+            startup.append(' ').append(phase.getKey()).append(' ').append(phase.getValue()).append(';');
+        }
+        startupLabel.setText(startup.toString());
+    }
+
+    private void export() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("metrics.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try (Writer out = Files.newBufferedWriter(chooser.getSelectedFile().toPath(), StandardCharsets.UTF_8)) {
+            Metrics.writeText(out);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Writing metrics failed", ex);
+            JOptionPane.showMessageDialog(this, "Error writing metrics: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static String ms(double nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
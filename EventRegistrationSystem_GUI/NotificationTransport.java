@@ -0,0 +1,206 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+// Where Notifications sends its mail, chosen with -Dnotify.transport: "file" (default)
+// appends every message to an mbox file, "smtp" hands them to a mail relay, "none"
+// drops them, and any other value is taken as the name of a class with a no-argument
+// constructor.
+public interface NotificationTransport {
+    // Sends a batch and returns the messages that were not sent. Throwing means none of
+    // the batch was sent.
+    List<Failure> send(List<Notifications.Notification> batch) throws IOException;
+
+    class Failure {
+        public final Notifications.Notification notification;
+        public final String reason;
+        // retrying cannot help, e.g. the server refused the recipient
+        public final boolean permanent;
+
+        public Failure(Notifications.Notification notification, String reason, boolean permanent) {
+            this.notification = notification;
+            this.reason = reason;
+            this.permanent = permanent;
+        }
+    }
+
+    // Header values come from what people type (titles, names): CR and LF would start a new
+    // header, so they become spaces. Text outside ASCII goes as RFC 2047 encoded words, each
+    // at most 75 characters, with fold between them.
+    static String header(String value, String fold) {
+        String flat = value.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
+        boolean ascii = true;
+        for (int i = 0; i < flat.length() && ascii; i++) ascii = flat.charAt(i) >= 0x20 && flat.charAt(i) < 0x7f;
+        if (ascii) return flat;
+        // 45 bytes of UTF-8 are 60 of base64, plus 12 for =?UTF-8?B? and ?=; a character is never split
+        StringBuilder out = new StringBuilder();
+        int start = 0;
+        while (start < flat.length()) {
+            int end = start;
+            int bytes = 0;
+            while (end < flat.length()) {
+                int cp = flat.codePointAt(end);
+                int n = new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8).length;
+                if (bytes + n > 45) break;
+                bytes += n;
+                end += Character.charCount(cp);
+            }
+            if (out.length() > 0) out.append(fold);
+            out.append("=?UTF-8?B?").append(Base64.getEncoder().encodeToString(
+                flat.substring(start, end).getBytes(StandardCharsets.UTF_8))).append("?=");
+            start = end;
+        }
+        return out.toString();
+    }
+
+    // An address with a line break or angle bracket in it would end the SMTP command or
+    // header early; such a message is failed rather than sent.
+    static boolean validAddress(String address) {
+        if (address == null || address.isEmpty()) return false;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c < 0x20 || c == 0x7f || c == '<' || c == '>') return false;
+        }
+        return true;
+    }
+
+    static NotificationTransport create(String name) {
+        switch (name) {
+            case "file":
+                return new FileTransport(Paths.get(System.getProperty("notify.outbox",
+                    Paths.get(LocalStorage.DIR, "outbox.mbox").toString())));
+            case "smtp":
+                return new SmtpTransport(System.getProperty("notify.smtpHost", "localhost"),
+                    Integer.getInteger("notify.smtpPort", 25), System.getProperty("notify.from", "events@localhost"));
+            case "none":
+                return batch -> Collections.emptyList();
+            default:
+                try {
+                    return (NotificationTransport) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown notification transport " + name, e);
+                }
+        }
+    }
+
+    // Stand-in for a mail server while testing: the whole batch is one append and one flush.
+    class FileTransport implements NotificationTransport {
+        private final Path file;
+
+        public FileTransport(Path file) {
+            this.file = file;
+        }
+
+        public List<Failure> send(List<Notifications.Notification> batch) throws IOException {
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir != null) Files.createDirectories(dir);
+            SimpleDateFormat date = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.ROOT);
+            StringBuilder out = new StringBuilder();
+            List<Failure> failed = new ArrayList<>();
+            for (Notifications.Notification n : batch) {
+                if (!validAddress(n.to)) {
+                    failed.add(new Failure(n, "Invalid recipient address", true));
+                    continue;
+                }
+                out.append("From eventsystem ").append(date.format(new Date())).append('\n')
+                    .append("To: ").append(n.to).append('\n')
+                    .append("Subject: ").append(header(n.subject, "\n ")).append('\n')
+                    .append('\n')
+                    .append(n.body.replace("\nFrom ", "\n>From ")).append("\n\n");
+            }
+            Files.write(file, out.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return failed;
+        }
+    }
+
+    // Plain SMTP to a relay that needs no login, e.g. a local test server. One connection
+    // per batch; a recipient the server refuses fails only that message.
+    class SmtpTransport implements NotificationTransport {
+        static final int TIMEOUT_MS = 10 * 1000;
+
+        private final String host;
+        private final int port;
+        private final String from;
+
+        public SmtpTransport(String host, int port, String from) {
+            this.host = host;
+            this.port = port;
+            this.from = from;
+        }
+
+        public List<Failure> send(List<Notifications.Notification> batch) throws IOException {
+            List<Failure> failed = new ArrayList<>();
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+                socket.setSoTimeout(TIMEOUT_MS);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                expect(in, 220);
+                command(out, in, "HELO localhost", 250);
+                int done = 0;
+                try {
+                    for (Notifications.Notification n : batch) {
+                        if (!validAddress(n.to)) {
+                            failed.add(new Failure(n, "Invalid recipient address", true));
+                            done++;
+                            continue;
+                        }
+                        command(out, in, "MAIL FROM:<" + from + ">", 250);
+                        String reply = command(out, in, "RCPT TO:<" + n.to + ">", -1);
+                        if (!reply.startsWith("25")) {
+                            failed.add(new Failure(n, reply, reply.startsWith("5")));
+                            done++;
+                            command(out, in, "RSET", 250);
+                            continue;
+                        }
+                        command(out, in, "DATA", 354);
+                        out.write("From: " + from + "\r\nTo: " + n.to + "\r\nSubject: " + header(n.subject, "\r\n ")
+                            + "\r\nMIME-Version: 1.0\r\nContent-Type: text/plain; charset=UTF-8"
+                            + "\r\nContent-Transfer-Encoding: 8bit\r\n\r\n");
+                        for (String line : n.body.split("\n", -1)) {
+                            out.write((line.startsWith(".") ? "." : "") + line + "\r\n");
+                        }
+                        command(out, in, ".", 250);
+                        done++;
+                    }
+                    command(out, in, "QUIT", 221);
+                } catch (IOException e) {
+                    if (done == 0) throw e;
+                    // the ones already accepted are delivered; the rest are retried
+                    for (Notifications.Notification n : batch.subList(done, batch.size())) {
+                        failed.add(new Failure(n, e.getMessage(), false));
+                    }
+                }
+            }
+            return failed;
+        }
+
+        // Sends a line and reads the reply; expected -1 accepts any reply.
+        private static String command(Writer out, BufferedReader in, String line, int expected) throws IOException {
+            out.write(line + "\r\n");
+            out.flush();
+            return expected < 0 ? reply(in) : expect(in, expected);
+        }
+
+        private static String expect(BufferedReader in, int code) throws IOException {
+            String reply = reply(in);
+            if (!reply.startsWith(String.valueOf(code))) throw new IOException("SMTP server said: " + reply);
+            return reply;
+        }
+
+        // The last line of a possibly multi-line reply
+        private static String reply(BufferedReader in) throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) throw new EOFException("SMTP server closed the connection");
+            } while (line.length() > 3 && line.charAt(3) == '-');
+            return line;
+        }
+    }
+}
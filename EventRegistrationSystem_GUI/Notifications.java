@@ -0,0 +1,395 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Confirmation mail for registrations, cancellations, waitlist moves and new events.
+// Callers only put a small message on a bounded queue, after their change has committed
+// and outside any lock, so sending never slows the registration path. One dispatcher
+// thread takes the messages in batches, looks up the students and events (through the
+// Repository cache), and hands the batch to the NotificationTransport, no faster than
+// notify.ratePerSecond. A message that fails is retried with exponential backoff; after
+// notify.maxAttempts, or on a permanent failure, or if the queue is full when it is
+// submitted, it goes to the dead-letter file instead of being lost silently. The file is
+// written by its own thread, so a caller turned away by a full queue never waits on disk.
+public class Notifications {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("notify.enabled", "true"));
+    static final int QUEUE_SIZE = Integer.getInteger("notify.queueSize", 20000);
+    static final int BATCH_SIZE = Integer.getInteger("notify.batchSize", 100);
+    static final double RATE_PER_SECOND = Double.parseDouble(System.getProperty("notify.ratePerSecond", "100"));
+    static final int MAX_ATTEMPTS = Integer.getInteger("notify.maxAttempts", 5);
+    static final long RETRY_MS = Long.getLong("notify.retryMs", 1000);
+    static final long MAX_RETRY_MS = Long.getLong("notify.maxRetryMs", 60 * 1000);
+    // new events are announced to this address, if set
+    static final String ORGANIZER = System.getProperty("notify.organizer");
+    static final Path DEAD_LETTER_FILE = Paths.get(System.getProperty("notify.deadLetterFile",
+        Paths.get(LocalStorage.DIR, "notifications-dead.log").toString()));
+    static final int MAX_DEAD_KEPT = 500;
+    static final long SHUTDOWN_MS = Long.getLong("notify.shutdownMs", 2000);
+    // throughput is the messages sent over this window
+    static final long RATE_WINDOW_MS = 10 * 1000;
+
+    public enum Kind { REGISTERED, WAITLISTED, UNREGISTERED, PROMOTED, EVENT_ADDED }
+
+    // What happened, as submitted; rendered into a Notification when it is sent
+    static class Message {
+        final Kind kind;
+        final int eventId;
+        final int studentId;
+        final long created = System.nanoTime();
+        int attempts;
+        long due;
+        String lastError;
+
+        Message(Kind kind, int eventId, int studentId) {
+            this.kind = kind;
+            this.eventId = eventId;
+            this.studentId = studentId;
+        }
+
+        public String toString() {
+            return kind + " event " + eventId + (kind == Kind.EVENT_ADDED ? "" : " student " + studentId);
+        }
+    }
+
+    public static class Notification {
+        public final String to;
+        public final String subject;
+        public final String body;
+        final Message message;
+
+        Notification(String to, String subject, String body, Message message) {
+            this.to = to;
+            this.subject = subject;
+            this.body = body;
+            this.message = message;
+        }
+    }
+
+    public static class Stats {
+        public final int queued;
+        public final int retrying;
+        public final long sent;
+        public final long failedAttempts;
+        public final long deadLettered;
+        // turned away because the queue was full; also dead-lettered
+        public final long dropped;
+        public final double perSecond;
+        // from submit to handed to the transport
+        public final LatencyHistogram delay;
+
+        Stats(int queued, int retrying, long sent, long failedAttempts, long deadLettered, long dropped,
+              double perSecond, LatencyHistogram delay) {
+            this.queued = queued;
+            this.retrying = retrying;
+            this.sent = sent;
+            this.failedAttempts = failedAttempts;
+            this.deadLettered = deadLettered;
+            this.dropped = dropped;
+            this.perSecond = perSecond;
+            this.delay = delay;
+        }
+    }
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.notify");
+    private static final BlockingQueue<Message> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final PriorityBlockingQueue<Message> RETRIES =
+        new PriorityBlockingQueue<>(64, Comparator.comparingLong(m -> m.due));
+    private static final AtomicLong SENT = new AtomicLong();
+    private static final AtomicLong FAILED_ATTEMPTS = new AtomicLong();
+    private static final AtomicLong DEAD_LETTERED = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final LatencyHistogram DELAY = new LatencyHistogram();
+    // {time, count} per batch sent within RATE_WINDOW_MS; guarded by itself
+    private static final ArrayDeque<long[]> RECENT = new ArrayDeque<>();
+    // guarded by itself
+    private static final ArrayDeque<String> DEAD = new ArrayDeque<>();
+    // lines waiting for the dead-letter thread, which stops at END
+    private static final BlockingQueue<String> DEAD_LINES = new LinkedBlockingQueue<>();
+    private static final String END = new String("end");
+
+    private static NotificationTransport transport;
+    private static Thread dispatcher;
+    private static Thread deadLetterWriter;
+    private static volatile boolean stopping;
+    // earliest time the next message may go, for the rate limit; dispatcher thread only
+    private static long nextSendNanos;
+    // logged once when the transport starts failing, not once per batch; dispatcher thread only
+    private static boolean transportDown;
+
+    private Notifications() {
+    }
+
+    // Called after the change has committed; never blocks.
+
+    public static void registered(int eventId, int studentId) {
+        submit(Kind.REGISTERED, eventId, studentId);
+    }
+
+    public static void waitlisted(int eventId, int studentId) {
+        submit(Kind.WAITLISTED, eventId, studentId);
+    }
+
+    public static void unregistered(int eventId, int studentId) {
+        submit(Kind.UNREGISTERED, eventId, studentId);
+    }
+
+    public static void promoted(int eventId, int studentId) {
+        submit(Kind.PROMOTED, eventId, studentId);
+    }
+
+    public static void eventAdded(int eventId) {
+        if (ORGANIZER != null) submit(Kind.EVENT_ADDED, eventId, 0);
+    }
+
+    static void submit(Kind kind, int eventId, int studentId) {
+        if (!ENABLED || stopping) return;
+        start();
+        Message message = new Message(kind, eventId, studentId);
+        if (!QUEUE.offer(message)) {
+            DROPPED.incrementAndGet();
+            deadLetter(message, "queue full");
+        }
+    }
+
+    private static synchronized void start() {
+        if (dispatcher != null) return;
+        transport = NotificationTransport.create(System.getProperty("notify.transport", "file"));
+        dispatcher = new Thread(Notifications::run, "notify-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        deadLetterWriter = new Thread(Notifications::writeDeadLetters, "notify-dead-letters");
+        deadLetterWriter.setDaemon(true);
+        deadLetterWriter.start();
+    }
+
+    public static Stats stats() {
+        long since = System.currentTimeMillis() - RATE_WINDOW_MS;
+        long recent = 0;
+        synchronized (RECENT) {
+            while (!RECENT.isEmpty() && RECENT.peekFirst()[0] < since) RECENT.removeFirst();
+            for (long[] batch : RECENT) recent += batch[1];
+        }
+        return new Stats(QUEUE.size(), RETRIES.size(), SENT.get(), FAILED_ATTEMPTS.get(), DEAD_LETTERED.get(),
+            DROPPED.get(), recent * 1000.0 / RATE_WINDOW_MS, DELAY);
+    }
+
+    // The latest dead letters, oldest first; all of them are in DEAD_LETTER_FILE.
+    public static List<String> deadLetters() {
+        synchronized (DEAD) {
+            return new ArrayList<>(DEAD);
+        }
+    }
+
+    // Gives the queue up to timeoutMs to empty, then dead-letters what is left so it can be
+    // found later. For shutdown.
+    public static void shutdown(long timeoutMs) {
+        if (dispatcher == null) return;
+        long end = System.currentTimeMillis() + timeoutMs;
+        while ((!QUEUE.isEmpty() || !RETRIES.isEmpty()) && System.currentTimeMillis() < end) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        stopping = true;
+        dispatcher.interrupt();
+        List<Message> left = new ArrayList<>();
+        QUEUE.drainTo(left);
+        RETRIES.drainTo(left);
+        for (Message message : left) deadLetter(message, "not sent before shutdown");
+        // the dead-letter thread writes what it still holds, then stops
+        DEAD_LINES.add(END);
+        try {
+            deadLetterWriter.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run() {
+        List<Message> batch = new ArrayList<>(BATCH_SIZE);
+        while (!stopping) {
+            try {
+                batch.clear();
+                Message retry = RETRIES.peek();
+                long wait = retry == null ? 1000 : Math.max(0, retry.due - System.currentTimeMillis());
+                Message first = QUEUE.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) batch.add(first);
+                QUEUE.drainTo(batch, BATCH_SIZE - batch.size());
+                long now = System.currentTimeMillis();
+                while (batch.size() < BATCH_SIZE && (retry = RETRIES.peek()) != null && retry.due <= now) {
+                    batch.add(RETRIES.poll());
+                }
+                if (batch.isEmpty()) continue;
+                pace(batch.size());
+                send(batch);
+            } catch (InterruptedException e) {
+                if (stopping) return;
+            } catch (RuntimeException e) {
+                // a transport bug must not stop the dispatcher; the batch is retried
+                LOG.log(Level.SEVERE, "Sending notifications failed", e);
+                for (Message message : batch) failed(message, e.toString(), false);
+            }
+        }
+    }
+
+    // Spaces batches so that on average no more than RATE_PER_SECOND messages go out
+    private static void pace(int messages) throws InterruptedException {
+        long now = System.nanoTime();
+        long start = Math.max(now, nextSendNanos);
+        nextSendNanos = start + (long) (messages * 1e9 / RATE_PER_SECOND);
+        if (start > now) TimeUnit.NANOSECONDS.sleep(start - now);
+    }
+
+    private static void send(List<Message> batch) {
+        List<Notification> notifications;
+        try {
+            notifications = render(batch);
+        } catch (SQLException e) {
+            for (Message message : batch) failed(message, e.getMessage(), false);
+            return;
+        }
+        if (notifications.isEmpty()) return;
+
+        List<NotificationTransport.Failure> failures;
+        try {
+            failures = transport.send(notifications);
+        } catch (IOException e) {
+            if (!transportDown) LOG.warning("Sending notifications failed, retrying: " + e.getMessage());
+            transportDown = true;
+            for (Notification n : notifications) failed(n.message, e.getMessage(), false);
+            return;
+        }
+        if (transportDown) LOG.info("Sending notifications again");
+        transportDown = false;
+        Set<Message> notSent = new HashSet<>();
+        for (NotificationTransport.Failure failure : failures) {
+            notSent.add(failure.notification.message);
+            failed(failure.notification.message, failure.reason, failure.permanent);
+        }
+        long now = System.nanoTime();
+        int sent = 0;
+        for (Notification n : notifications) {
+            if (notSent.contains(n.message)) continue;
+            DELAY.record(now - n.message.created);
+            sent++;
+        }
+        SENT.addAndGet(sent);
+        synchronized (RECENT) {
+            RECENT.addLast(new long[]{System.currentTimeMillis(), sent});
+        }
+    }
+
+    // Students and events for the whole batch in two lookups. A message whose student or
+    // event no longer exists cannot be sent and is dead-lettered.
+    private static List<Notification> render(List<Message> batch) throws SQLException {
+        Set<Integer> studentIds = new HashSet<>();
+        for (Message message : batch) {
+            if (message.kind != Kind.EVENT_ADDED) studentIds.add(message.studentId);
+        }
+        Map<Integer, Student> students = Repository.getStudents(studentIds);
+        List<Notification> notifications = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            Event event = Repository.getEvent(message.eventId);
+            Student student = students.get(message.studentId);
+            if (event == null || (message.kind != Kind.EVENT_ADDED && student == null)) {
+                deadLetter(message, event == null ? "no such event" : "no such student");
+                continue;
+            }
+            notifications.add(render(message, event, student));
+        }
+        return notifications;
+    }
+
+    private static Notification render(Message message, Event event, Student student) {
+        String when = event.getDate() + (event.getTime() != null ? " at " + event.getTime() : "")
+            + (event.getVenue() != null ? ", " + event.getVenue() : "");
+        String greeting = student != null ? "Hello " + student.getName() + ",\n\n" : "";
+        switch (message.kind) {
+            case REGISTERED:
+                return new Notification(student.getEmail(), "Registration confirmed: " + event.getTitle(),
+                    greeting + "You are registered for " + event.getTitle() + " on " + when + ".", message);
+            case WAITLISTED:
+                return new Notification(student.getEmail(), "On the waiting list: " + event.getTitle(),
+                    greeting + event.getTitle() + " on " + when + " is full. You are on the waiting list and "
+                    + "will be registered if a seat becomes free.", message);
+            case PROMOTED:
+                return new Notification(student.getEmail(), "A seat is yours: " + event.getTitle(),
+                    greeting + "A seat became free and you are now registered for " + event.getTitle()
+                    + " on " + when + ".", message);
+            case UNREGISTERED:
+                return new Notification(student.getEmail(), "Registration cancelled: " + event.getTitle(),
+                    greeting + "Your registration for " + event.getTitle() + " on " + when + " has been cancelled.",
+                    message);
+            default:
+                return new Notification(ORGANIZER, "New event: " + event.getTitle(),
+                    event.getTitle() + " has been added for " + when + ", with " + event.getCapacity() + " seats.",
+                    message);
+        }
+    }
+
+    private static void failed(Message message, String reason, boolean permanent) {
+        FAILED_ATTEMPTS.incrementAndGet();
+        message.attempts++;
+        message.lastError = reason;
+        if (permanent || message.attempts >= MAX_ATTEMPTS) {
+            deadLetter(message, reason);
+            return;
+        }
+        long backoff = Math.min(MAX_RETRY_MS, RETRY_MS << Math.min(20, message.attempts - 1));
+        // jitter, so messages that failed together do not all come back together
+        message.due = System.currentTimeMillis() + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        RETRIES.add(message);
+    }
+
+    // One line per message in DEAD_LETTER_FILE; the file is the store, the deque a view of its end.
+    private static void deadLetter(Message message, String reason) {
+        DEAD_LETTERED.incrementAndGet();
+        String line = new java.sql.Timestamp(System.currentTimeMillis()) + "  " + message
+            + "  after " + message.attempts + " attempts: " + reason;
+        synchronized (DEAD) {
+            DEAD.addLast(line);
+            if (DEAD.size() > MAX_DEAD_KEPT) DEAD.removeFirst();
+        }
+        DEAD_LINES.add(line);
+    }
+
+    // The dead-letter thread: everything queued since the last write goes in one append.
+    private static void writeDeadLetters() {
+        List<String> lines = new ArrayList<>();
+        boolean done = false;
+        while (!done) {
+            try {
+                lines.add(DEAD_LINES.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            DEAD_LINES.drainTo(lines);
+            StringBuilder text = new StringBuilder();
+            for (String line : lines) {
+                if (line == END) {
+                    done = true;
+                } else {
+                    text.append(line).append(System.lineSeparator());
+                }
+            }
+            lines.clear();
+            if (text.length() == 0) continue;
+            try {
+                Path dir = DEAD_LETTER_FILE.toAbsolutePath().getParent();
+                if (dir != null) Files.createDirectories(dir);
+                Files.write(DEAD_LETTER_FILE, text.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Dead letters could not be written to " + DEAD_LETTER_FILE, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.sql.SQLException;
+import java.util.*;
+import javax.swing.table.AbstractTableModel;
+
+// Table model that only holds the pages the JTable has actually asked for. Pages are
+// fetched in the background by key ("rows after the last key of the previous page"),
+// and the least recently used pages are dropped once maxPages are cached.
+public class PagedTableModel extends AbstractTableModel {
+    static final int DEFAULT_PAGE_SIZE = Integer.getInteger("table.pageSize", 200);
+    static final int DEFAULT_MAX_PAGES = Integer.getInteger("table.maxPages", 20);
+
+    public interface PageSource {
+        int count() throws SQLException;
+
+        // Up to limit rows ordered by key, starting after the given key (null = from the start)
+        List<Object[]> fetch(Object[] afterKey, int limit) throws SQLException;
+
+        // Key of the row at the given offset, used to start a page nobody has scrolled past yet
+        Object[] keyAt(int offset) throws SQLException;
+
+        Object[] keyOf(Object[] row);
+    }
+
+    private final String[] columns;
+    private final AsyncLoader loader;
+    private final int pageSize;
+    private final Map<Integer, List<Object[]>> pages;
+    private final Map<Integer, Object[]> pageEndKeys = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private PageSource source;
+    private int rowCount;
+    private int generation;
+    // Last-known first page, shown until the first fresh page arrives
+    private String snapshotName;
+    private PageSource snapshotSource;
+    private List<Object[]> snapshot;
+
+    public PagedTableModel(String[] columns, AsyncLoader loader) {
+        this(columns, loader, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public PagedTableModel(String[] columns, AsyncLoader loader, int pageSize, final int maxPages) {
+        this.columns = columns;
+        this.loader = loader;
+        this.pageSize = pageSize;
+        this.pages = new LinkedHashMap<Integer, List<Object[]>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Object[]>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    public void setSource(PageSource source) {
+        this.source = source;
+        reload();
+    }
+
+    // Shows the rows saved under name at the last startup until source delivers its own
+    // first page, which is then saved in their place.
+    public void setSource(PageSource source, String snapshotName) {
+        this.snapshotName = snapshotName;
+        this.snapshotSource = source;
+        Startup.Snapshot saved = Startup.readSnapshot(snapshotName);
+        this.source = source;
+        reload();
+        if (saved != null && source != null) {
+            snapshot = saved.rows;
+            rowCount = saved.count;
+            fireTableDataChanged();
+        }
+    }
+
+    public PageSource getSource() {
+        return source;
+    }
+
+    // The rows at the given positions, taken from the loaded pages when called (on the EDT),
+    // so a change committed before the work runs cannot shift them onto other rows. Rows on
+    // pages that are not loaded are fetched the way the table would load those pages. Run
+    // the returned work off the EDT.
+    public java.util.concurrent.Callable<List<Object[]>> rowsAt(int[] positions) {
+        final PageSource src = source;
+        final Object[][] known = new Object[positions.length][];
+        // page not loaded -> key its rows start after, null if not known yet
+        final SortedMap<Integer, Object[]> missing = new TreeMap<>();
+        for (int i = 0; i < positions.length; i++) {
+            int page = positions[i] / pageSize;
+            List<Object[]> rows = pages.get(page);
+            if (rows == null) {
+                missing.put(page, page == 0 ? null : pageEndKeys.get(page - 1));
+            } else if (positions[i] - page * pageSize < rows.size()) {
+                known[i] = rows.get(positions[i] - page * pageSize);
+            }
+        }
+        return () -> {
+            Map<Integer, List<Object[]>> fetched = new HashMap<>();
+            for (Map.Entry<Integer, Object[]> entry : missing.entrySet()) {
+                int page = entry.getKey();
+                Object[] after = entry.getValue();
+                List<Object[]> previous = fetched.get(page - 1);
+                if (after == null && previous != null && !previous.isEmpty()) {
+                    after = src.keyOf(previous.get(previous.size() - 1));
+                } else if (after == null && page > 0) {
+                    after = src.keyAt(page * pageSize - 1);
+                }
+                fetched.put(page, src.fetch(after, pageSize));
+            }
+            List<Object[]> rows = new ArrayList<>(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                Object[] row = known[i];
+                if (row == null) {
+                    List<Object[]> page = fetched.getOrDefault(positions[i] / pageSize, Collections.emptyList());
+                    int offset = positions[i] % pageSize;
+                    if (offset < page.size()) row = page.get(offset);
+                }
+                if (row != null) rows.add(row);
+            }
+            return rows;
+        };
+    }
+
+    // Every row of source, in key order, for "select all" over rows that were never loaded.
+    // Runs off the EDT.
+    public static List<Object[]> allRows(PageSource source) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        Object[] after = null;
+        while (true) {
+            List<Object[]> page = source.fetch(after, 1000);
+            rows.addAll(page);
+            if (page.size() < 1000) return rows;
+            after = source.keyOf(page.get(page.size() - 1));
+        }
+    }
+
+    // Drops every cached page and re-counts; only the pages in view are fetched again.
+    public void reload() {
+        final int gen = ++generation;
+        pages.clear();
+        pageEndKeys.clear();
+        loading.clear();
+        snapshot = null;
+        final PageSource src = source;
+        if (src == null) {
+            rowCount = 0;
+            fireTableDataChanged();
+            return;
+        }
+        loader.load("count", src::count, count -> {
+            if (gen != generation) return;
+            rowCount = count;
+            fireTableDataChanged();
+        });
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Object[] row = getRow(rowIndex);
+        return row == null ? null : row[columnIndex];
+    }
+
+    // The row if its page is loaded; otherwise schedules the page and returns null.
+    public Object[] getRow(int rowIndex) {
+        int page = rowIndex / pageSize;
+        List<Object[]> rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return snapshot != null && rowIndex < snapshot.size() ? snapshot.get(rowIndex) : null;
+        }
+        int offset = rowIndex - page * pageSize;
+        return offset < rows.size() ? rows.get(offset) : null;
+    }
+
+    private void requestPage(final int page) {
+        if (source == null || !loading.add(page)) return;
+        final int gen = generation;
+        final PageSource src = source;
+        final Object[] knownStart = page == 0 ? null : pageEndKeys.get(page - 1);
+        loader.load("page:" + page, () -> {
+            Object[] after = knownStart;
+            if (after == null && page > 0) {
+                after = src.keyAt(page * pageSize - 1);
+            }
+            return src.fetch(after, pageSize);
+        }, rows -> {
+            if (gen != generation) return;
+            loading.remove(page);
+            pages.put(page, rows);
+            if (!rows.isEmpty()) {
+                pageEndKeys.put(page, src.keyOf(rows.get(rows.size() - 1)));
+            }
+            int first = page * pageSize;
+            int last = Math.min(rowCount, first + pageSize) - 1;
+            if (page == 0 && snapshotName != null && src == snapshotSource) {
+                Startup.firstData(snapshotName);
+                Startup.writeSnapshot(snapshotName, rowCount, rows);
+                if (snapshot != null) {
+                    // the fresh page may be shorter than the snapshot it replaces
+                    last = Math.max(last, Math.min(rowCount, snapshot.size()) - 1);
+                    snapshot = null;
+                }
+            }
+            if (last >= first) fireTableRowsUpdated(first, last);
+        }, () -> {
+            // asked for again the next time one of its rows is painted
+            if (gen == generation) loading.remove(page);
+        });
+    }
+}
@@ -0,0 +1,809 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Storage for desks on a slow link to the central database (-Dstorage=queued). Reads go
+// to the database as with SqlStorage; new students, registrations and unregistrations
+// are checked against the local view (Repository, RosterIndex), written to a durable
+// queue in storage.dir and acknowledged at once. A background worker sends the queue
+// to the database in batches: each batch is one transaction of JDBC batches that takes
+// the event row locks once, re-checks capacity and duplicate emails there, and records
+// every operation's key in sync_applied so a batch resent after a lost reply is not
+// applied twice. Writes the database refuses are reported as conflicts and undone locally.
+//
+// New students get a negative temporary id until their row is inserted; queued
+// registrations that refer to one are rewritten to the real id when it is known.
+public class QueuedStorage implements Storage {
+    private static final Logger LOG = Logger.getLogger("eventsystem.sync");
+    static final int BATCH_SIZE = Integer.getInteger("sync.batchSize", 500);
+    static final long INTERVAL_MS = Long.getLong("sync.intervalMs", 200);
+    static final long RETRY_MS = Long.getLong("sync.retryMs", 500);
+    static final long MAX_RETRY_MS = Long.getLong("sync.maxRetryMs", 30 * 1000);
+    // A batch that keeps failing for a non-network reason is split up to find the bad operation
+    static final int MAX_ATTEMPTS = 5;
+    static final int MAX_CONFLICTS_KEPT = 500;
+
+    private static final byte ADD_STUDENT = 1;
+    private static final byte REGISTER = 2;
+    private static final byte UNREGISTER = 3;
+    private static final byte ACK = 4;
+    private static final byte MAPPED = 5;
+
+    public static class Conflict {
+        public final long time;
+        public final String operation;
+        public final String reason;
+
+        Conflict(String operation, String reason) {
+            this.time = System.currentTimeMillis();
+            this.operation = operation;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return new java.sql.Timestamp(time) + "  " + operation + ": " + reason;
+        }
+    }
+
+    private static class Op {
+        final String key;
+        final byte type;
+        int studentId;
+        final int eventId;
+        final String name;
+        final String email;
+
+        Op(String key, byte type, int studentId, int eventId, String name, String email) {
+            this.key = key;
+            this.type = type;
+            this.studentId = studentId;
+            this.eventId = eventId;
+            this.name = name;
+            this.email = email;
+        }
+
+        public String toString() {
+            switch (type) {
+                case ADD_STUDENT:
+                    return "add student " + name + " <" + email + ">";
+                case REGISTER:
+                    return "register student " + studentId + " for event " + eventId;
+                default:
+                    return "unregister student " + studentId + " from event " + eventId;
+            }
+        }
+    }
+
+    private final SqlStorage central = new SqlStorage();
+    private final Path dir;
+    private AppendLog queue;
+    private Writer conflictLog;
+    private Thread worker;
+    private volatile boolean running;
+
+    // guarded by this
+    private final LinkedHashMap<String, Op> pending = new LinkedHashMap<>();
+    private final Map<Integer, Student> pendingStudents = new HashMap<>();
+    private final Map<Integer, Integer> realIds = new HashMap<>();
+    private final Deque<Conflict> conflicts = new ArrayDeque<>();
+    private Set<String> emails;
+    private int nextTempId = -1;
+    private long synced;
+    private String lastError;
+
+    public QueuedStorage() {
+        this(Paths.get(LocalStorage.DIR));
+    }
+
+    public QueuedStorage(Path dir) {
+        this.dir = dir;
+    }
+
+    // The active queue, or null when another backend is in use
+    public static QueuedStorage active() {
+        Storage storage = Storage.get();
+        return storage instanceof QueuedStorage ? (QueuedStorage) storage : null;
+    }
+
+    public synchronized void open() throws SQLException {
+        if (queue != null) return;
+        central.open();
+        try {
+            Files.createDirectories(dir);
+            queue = new AppendLog(dir.resolve("queue.dat"));
+            queue.open(this::replay);
+            conflictLog = Files.newBufferedWriter(dir.resolve("conflicts.log"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new SQLException("Cannot open write queue in " + dir + ": " + e.getMessage(), e);
+        }
+        running = true;
+        worker = new Thread(this::run, "sync-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void replay(byte type, ByteBuffer in) {
+        switch (type) {
+            case ADD_STUDENT: {
+                Op op = new Op(AppendLog.getString(in), type, in.getInt(), 0, AppendLog.getString(in), AppendLog.getString(in));
+                pending.put(op.key, op);
+                pendingStudents.put(op.studentId, new Student(op.studentId, op.name, op.email));
+                nextTempId = Math.min(nextTempId, op.studentId - 1);
+                break;
+            }
+            case REGISTER:
+            case UNREGISTER: {
+                Op op = new Op(AppendLog.getString(in), type, in.getInt(), in.getInt(), null, null);
+                Integer real = realIds.get(op.studentId);
+                if (real != null) op.studentId = real;
+                pending.put(op.key, op);
+                break;
+            }
+            case ACK: {
+                Op op = pending.remove(AppendLog.getString(in));
+                if (op != null && op.type == ADD_STUDENT) pendingStudents.remove(op.studentId);
+                break;
+            }
+            case MAPPED:
+                mapStudent(in.getInt(), in.getInt());
+                break;
+            default:
+                throw new IllegalStateException("Unknown queue record type " + type);
+        }
+    }
+
+    // Caller holds the lock
+    private void mapStudent(int tempId, int realId) {
+        realIds.put(tempId, realId);
+        for (Op op : pending.values()) {
+            if (op.studentId == tempId && op.type != ADD_STUDENT) op.studentId = realId;
+        }
+    }
+
+    public void close() throws SQLException {
+        running = false;
+        Thread w = worker;
+        if (w != null) {
+            w.interrupt();
+            try {
+                w.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                if (queue != null) queue.close();
+                if (conflictLog != null) conflictLog.close();
+            } catch (IOException e) {
+                throw new SQLException("Cannot close write queue: " + e.getMessage(), e);
+            } finally {
+                queue = null;
+            }
+        }
+    }
+
+    // Status
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public synchronized long syncedCount() {
+        return synced;
+    }
+
+    // Message of the last failed sync attempt, null once a batch succeeds again
+    public synchronized String lastError() {
+        return lastError;
+    }
+
+    public synchronized List<Conflict> conflicts() {
+        return new ArrayList<>(conflicts);
+    }
+
+    // Queueing
+
+    private void enqueue(Op op, boolean force) throws SQLException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            AppendLog.putString(out, op.key);
+            out.writeInt(op.studentId);
+            if (op.type == ADD_STUDENT) {
+                AppendLog.putString(out, op.name);
+                AppendLog.putString(out, op.email);
+            } else {
+                out.writeInt(op.eventId);
+            }
+            synchronized (this) {
+                if (queue == null) throw new SQLException("Write queue is not open");
+                queue.append(op.type, bytes.toByteArray(), force && LocalStorage.SYNC);
+                pending.put(op.key, op);
+                notifyAll();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Cannot write to the queue: " + e.getMessage(), e);
+        }
+    }
+
+    private static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    // Reads go to the central database, merged with what is still queued
+
+    public List<Event> events() throws SQLException {
+        return central.events();
+    }
+
+    public Event event(int eventId) throws SQLException {
+        return central.event(eventId);
+    }
+
+    // Events are created online only
+    public Event addEvent(String title, java.sql.Date date, java.sql.Time time, String venue, int capacity)
+            throws SQLException {
+        return central.addEvent(title, date, time, venue, capacity);
+    }
+
+    public List<Student> students() throws SQLException {
+        List<Student> students = central.students();
+        synchronized (this) {
+            students.addAll(pendingStudents.values());
+        }
+        return students;
+    }
+
+    public Map<Integer, Student> students(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Student> result = new HashMap<>();
+        List<Integer> stored = new ArrayList<>();
+        synchronized (this) {
+            for (Integer id : ids) {
+                if (id < 0) {
+                    Student student = pendingStudents.get(id);
+                    if (student != null) result.put(id, student);
+                } else {
+                    stored.add(id);
+                }
+            }
+        }
+        if (!stored.isEmpty()) result.putAll(central.students(stored));
+        return result;
+    }
+
+    public List<Student> studentsAfter(int afterId) throws SQLException {
+        return central.studentsAfter(afterId);
+    }
+
+    public Set<String> studentEmails() throws SQLException {
+        synchronized (this) {
+            if (emails != null) return new HashSet<>(emails);
+        }
+        Set<String> loaded = central.studentEmails();
+        synchronized (this) {
+            if (emails == null) {
+                emails = loaded;
+                for (Student student : pendingStudents.values()) emails.add(student.getEmail().toLowerCase());
+            }
+            return new HashSet<>(emails);
+        }
+    }
+
+    public Student addStudent(String name, String email) throws SQLException {
+        return addStudent(name, email, true);
+    }
+
+    private Student addStudent(String name, String email, boolean force) throws SQLException {
+        studentEmails();
+        Student student;
+        synchronized (this) {
+            if (!emails.add(email.toLowerCase())) return null;
+            student = new Student(nextTempId--, name, email);
+            pendingStudents.put(student.getStudentId(), student);
+        }
+        enqueue(new Op(newKey(), ADD_STUDENT, student.getStudentId(), 0, name, email), force);
+        return student;
+    }
+
+    public List<Student> addStudents(List<String[]> rows, Rejections rejected) throws SQLException {
+        List<Student> added = new ArrayList<>();
+        for (String[] row : rows) {
+            Student student = addStudent(row[0], row[1], false);
+            if (student == null) {
+                rejected.reject(row, "duplicate email " + row[1]);
+            } else {
+                added.add(student);
+            }
+        }
+        force();
+        return added;
+    }
+
+    // Checked against the local roster index, which includes queued registrations;
+    // the database checks again when the batch is sent.
+    public RegistrationService.Result register(int studentId, int eventId) throws SQLException {
+        Event event = Repository.getEvent(eventId);
+        if (event == null) return RegistrationService.Result.NO_SUCH_EVENT;
+        if (RosterIndex.contains(eventId, studentId)) return RegistrationService.Result.DUPLICATE;
+        if (RosterIndex.count(eventId) >= event.getCapacity()) return RegistrationService.Result.FULL;
+        enqueue(new Op(newKey(), REGISTER, studentId, eventId, null, null), true);
+        return RegistrationService.Result.REGISTERED;
+    }
+
+    public int unregister(int studentId, int eventId, IntSupplier waiting) throws SQLException {
+        if (!RosterIndex.contains(eventId, studentId)) return -1;
+        enqueue(new Op(newKey(), UNREGISTER, studentId, eventId, null, null), true);
+
+        // checked before taking anyone off the waitlist, so nobody is dropped without a seat
+        Event event = Repository.getEvent(eventId);
+        if (event == null || RosterIndex.count(eventId) - 1 >= event.getCapacity()) return 0;
+        int next;
+        while ((next = waiting.getAsInt()) != 0) {
+            if (RosterIndex.contains(eventId, next)) continue;
+            enqueue(new Op(newKey(), REGISTER, next, eventId, null, null), true);
+            return next;
+        }
+        return 0;
+    }
+
+    public Map<Integer, RegistrationService.Result> registerAll(int eventId, List<Integer> studentIds)
+            throws SQLException {
+        Map<Integer, RegistrationService.Result> results = new LinkedHashMap<>();
+        Event event = Repository.getEvent(eventId);
+        // the roster index is patched only after this returns, so count this batch here
+        int registered = RosterIndex.count(eventId);
+        for (Integer studentId : studentIds) {
+            if (results.containsKey(studentId)) continue;
+            if (event == null) {
+                results.put(studentId, RegistrationService.Result.NO_SUCH_EVENT);
+            } else if (RosterIndex.contains(eventId, studentId)) {
+                results.put(studentId, RegistrationService.Result.DUPLICATE);
+            } else if (registered >= event.getCapacity()) {
+                results.put(studentId, RegistrationService.Result.FULL);
+            } else {
+                enqueue(new Op(newKey(), REGISTER, studentId, eventId, null, null), false);
+                registered++;
+                results.put(studentId, RegistrationService.Result.REGISTERED);
+            }
+        }
+        force();
+        return results;
+    }
+
+    public List<Integer> unregisterAll(int eventId, List<Integer> studentIds, IntSupplier waiting, List<Integer> promoted)
+            throws SQLException {
+        List<Integer> removed = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (Integer studentId : studentIds) {
+            if (!seen.add(studentId) || !RosterIndex.contains(eventId, studentId)) continue;
+            enqueue(new Op(newKey(), UNREGISTER, studentId, eventId, null, null), false);
+            removed.add(studentId);
+        }
+        Event event = Repository.getEvent(eventId);
+        int registered = RosterIndex.count(eventId) - removed.size();
+        int next;
+        while (event != null && registered < event.getCapacity() && promoted.size() < removed.size()
+                && (next = waiting.getAsInt()) != 0) {
+            if (RosterIndex.contains(eventId, next) && !removed.contains(next)) continue;
+            enqueue(new Op(newKey(), REGISTER, next, eventId, null, null), false);
+            promoted.add(next);
+            registered++;
+        }
+        force();
+        return removed;
+    }
+
+    private synchronized void force() {
+        if (queue != null && LocalStorage.SYNC) queue.force();
+    }
+
+    public void forEachRegistration(RegistrationVisitor visitor) throws SQLException {
+        // Taken before reading the table: an operation synced meanwhile is then in both,
+        // which the overrides below make harmless
+        Map<Long, Boolean> overrides = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Op op : pending.values()) {
+                if (op.type != ADD_STUDENT) overrides.put(pair(op.eventId, op.studentId), op.type == REGISTER);
+            }
+        }
+        Set<Long> seen = new HashSet<>();
+        central.forEachRegistration((eventId, studentId) -> {
+            long key = pair(eventId, studentId);
+            Boolean override = overrides.get(key);
+            if (override == null) {
+                visitor.visit(eventId, studentId);
+            } else if (override && seen.add(key)) {
+                visitor.visit(eventId, studentId);
+            }
+        });
+        for (Map.Entry<Long, Boolean> entry : overrides.entrySet()) {
+            if (entry.getValue() && seen.add(entry.getKey())) {
+                visitor.visit((int) (entry.getKey() >> 32), (int) (long) entry.getKey());
+            }
+        }
+    }
+
+    private static long pair(int eventId, int studentId) {
+        return ((long) eventId << 32) | (studentId & 0xffffffffL);
+    }
+
+    // Check-ins go straight to the database; CheckInSession already queues and batches them.
+    // Students still queued have no row there yet and are skipped like unregistered ones.
+    public Map<Integer, Long> checkIns(int eventId) throws SQLException {
+        return central.checkIns(eventId);
+    }
+
+    public List<Integer> checkIn(int eventId, Map<Integer, Long> checkIns) throws SQLException {
+        return central.checkIn(eventId, checkIns);
+    }
+
+    public PagedTableModel.PageSource eventPages() {
+        return central.eventPages();
+    }
+
+    // Students still queued are listed once they reach the database
+    public PagedTableModel.PageSource studentPages() {
+        return central.studentPages();
+    }
+
+    public PagedTableModel.PageSource studentPages(StudentQuery query) {
+        return central.studentPages(query);
+    }
+
+    public PagedTableModel.PageSource search(String query) {
+        return central.search(query);
+    }
+
+    public PagedTableModel.PageSource findStudents(String filter) {
+        return central.findStudents(filter);
+    }
+
+    // Sync worker
+
+    private void run() {
+        long backoff = RETRY_MS;
+        int attempts = 0;
+        while (running) {
+            List<Op> batch = new ArrayList<>();
+            try {
+                synchronized (this) {
+                    while (running && pending.isEmpty()) wait(INTERVAL_MS * 10);
+                    for (Op op : pending.values()) {
+                        if (batch.size() >= BATCH_SIZE) break;
+                        batch.add(op);
+                    }
+                }
+                if (batch.isEmpty()) continue;
+
+                if (attempts >= MAX_ATTEMPTS) {
+                    // Find the operation the database keeps refusing by sending them one at a time
+                    for (Op op : batch) {
+                        try {
+                            send(Collections.singletonList(op));
+                        } catch (SQLException e) {
+                            if (isTransient(e)) throw e;
+                            // a refused registration is undone in the local roster as well
+                            acknowledge(Collections.singletonList(op), Collections.emptyMap(),
+                                Collections.singletonList(new Conflict(op.toString(), e.getMessage())),
+                                op.type == REGISTER ? Collections.singletonList(op) : Collections.emptyList());
+                        }
+                    }
+                } else {
+                    send(batch);
+                }
+                attempts = 0;
+                backoff = RETRY_MS;
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            } catch (SQLException e) {
+                // an unreachable database says nothing about the batch, so only other errors count
+                if (!isTransient(e)) attempts++;
+                synchronized (this) {
+                    lastError = e.getMessage();
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_MS);
+            } catch (RuntimeException e) {
+                // a bug must not stop syncing, nor spin on the same batch
+                LOG.log(Level.SEVERE, "Sync failed", e);
+                synchronized (this) {
+                    lastError = e.toString();
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_MS);
+            }
+        }
+    }
+
+    private static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+            || (state != null && state.startsWith("08"));
+    }
+
+    // Applies one batch in a single transaction, then acknowledges it locally.
+    private void send(List<Op> batch) throws SQLException {
+        Map<Integer, Integer> mapped = new HashMap<>();
+        List<Conflict> found = new ArrayList<>();
+        List<Op> refused = new ArrayList<>();
+
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // Operations a previous attempt already applied (its reply was lost)
+                Map<String, Integer> applied = new HashMap<>();
+                List<String> keys = new ArrayList<>();
+                for (Op op : batch) keys.add(op.key);
+                PreparedStatement done = conn.prepareStatement(
+                    "SELECT op_key, result_id FROM sync_applied WHERE op_key IN (" + marks(keys.size()) + ")");
+                for (int i = 0; i < keys.size(); i++) done.setString(i + 1, keys.get(i));
+                ResultSet rs = done.executeQuery();
+                while (rs.next()) applied.put(rs.getString(1), rs.getInt(2));
+
+                Set<Integer> failedStudents = new HashSet<>();
+                insertStudents(conn, batch, applied, mapped, failedStudents, found);
+                applyRegistrations(conn, batch, applied, mapped, failedStudents, found, refused);
+
+                PreparedStatement record = conn.prepareStatement(
+                    "INSERT INTO sync_applied (op_key, result_id) VALUES (?, ?)");
+                for (Op op : batch) {
+                    if (applied.containsKey(op.key)) continue;
+                    record.setString(1, op.key);
+                    Integer real = op.type == ADD_STUDENT ? mapped.get(op.studentId) : null;
+                    if (real == null) record.setNull(2, Types.INTEGER);
+                    else record.setInt(2, real);
+                    record.addBatch();
+                }
+                record.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        acknowledge(batch, mapped, found, refused);
+    }
+
+    private void insertStudents(Connection conn, List<Op> batch, Map<String, Integer> applied,
+                                Map<Integer, Integer> mapped, Set<Integer> failed, List<Conflict> found)
+            throws SQLException {
+        List<Op> adds = new ArrayList<>();
+        for (Op op : batch) {
+            if (op.type != ADD_STUDENT) continue;
+            Integer real = applied.get(op.key);
+            if (real != null && real > 0) {
+                mapped.put(op.studentId, real);
+            } else if (real == null) {
+                adds.add(op);
+            } else {
+                failed.add(op.studentId);
+            }
+        }
+        if (adds.isEmpty()) return;
+
+        // Another desk may have added the same email since this one was queued
+        Set<String> taken = new HashSet<>();
+        PreparedStatement check = conn.prepareStatement(
+            "SELECT email FROM students WHERE email_norm IN (" + marks(adds.size()) + ")");
+        for (int i = 0; i < adds.size(); i++) check.setString(i + 1, adds.get(i).email.toLowerCase());
+        ResultSet rs = check.executeQuery();
+        while (rs.next()) taken.add(rs.getString(1).toLowerCase());
+
+        List<String[]> rows = new ArrayList<>();
+        List<Op> inserted = new ArrayList<>();
+        for (Op op : adds) {
+            if (taken.contains(op.email.toLowerCase())) {
+                failed.add(op.studentId);
+                found.add(new Conflict(op.toString(), "a student with this email already exists"));
+            } else {
+                rows.add(new String[]{op.name, op.email});
+                inserted.add(op);
+            }
+        }
+        if (rows.isEmpty()) return;
+
+        PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO students (name, email, name_norm) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        for (String[] row : rows) {
+            insert.setString(1, row[0]);
+            insert.setString(2, row[1]);
+            insert.setString(3, SchemaMigrations.normalize(row[0]));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        Map<Integer, String> names = new LinkedHashMap<>();
+        List<int[]> changes = new ArrayList<>();
+        ResultSet keys = insert.getGeneratedKeys();
+        for (int i = 0; i < inserted.size() && keys.next(); i++) {
+            mapped.put(inserted.get(i).studentId, keys.getInt(1));
+            names.put(keys.getInt(1), inserted.get(i).name);
+            changes.add(new int[]{keys.getInt(1), 0});
+        }
+        StudentSearch.indexNames(conn, names);
+        ChangeFeed.record(conn, EntityBus.Type.STUDENT, EntityBus.Kind.ADDED, changes);
+    }
+
+    // Replays the batch's registrations over the current rows in memory, with the event
+    // rows locked, then writes only the net difference.
+    private void applyRegistrations(Connection conn, List<Op> batch, Map<String, Integer> applied,
+                                    Map<Integer, Integer> mapped, Set<Integer> failedStudents,
+                                    List<Conflict> found, List<Op> refused) throws SQLException {
+        List<Op> ops = new ArrayList<>();
+        SortedSet<Integer> eventIds = new TreeSet<>();
+        Set<Integer> studentIds = new HashSet<>();
+        for (Op op : batch) {
+            if (op.type == ADD_STUDENT || applied.containsKey(op.key)) continue;
+            int studentId = mapped.getOrDefault(op.studentId, realIds.getOrDefault(op.studentId, op.studentId));
+            if (studentId < 0) {
+                if (op.type == REGISTER) {
+                    refused.add(op);
+                    found.add(new Conflict(op.toString(), failedStudents.contains(op.studentId)
+                        ? "the student could not be added" : "the student is not in the database"));
+                }
+                continue;
+            }
+            ops.add(new Op(op.key, op.type, studentId, op.eventId, null, op.email));
+            eventIds.add(op.eventId);
+            studentIds.add(studentId);
+        }
+        if (ops.isEmpty()) return;
+
+        // Lock in id order so two desks' batches cannot deadlock
+        Map<Integer, Integer> capacity = new HashMap<>();
+        List<Integer> events = new ArrayList<>(eventIds);
+        PreparedStatement lock = conn.prepareStatement("SELECT event_id, capacity FROM events WHERE event_id IN ("
+            + marks(events.size()) + ") ORDER BY event_id FOR UPDATE");
+        for (int i = 0; i < events.size(); i++) lock.setInt(i + 1, events.get(i));
+        ResultSet rs = lock.executeQuery();
+        while (rs.next()) capacity.put(rs.getInt(1), rs.getInt(2));
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        PreparedStatement count = conn.prepareStatement("SELECT event_id, COUNT(*) FROM registrations WHERE event_id IN ("
+            + marks(events.size()) + ") GROUP BY event_id");
+        for (int i = 0; i < events.size(); i++) count.setInt(i + 1, events.get(i));
+        rs = count.executeQuery();
+        while (rs.next()) counts.put(rs.getInt(1), rs.getInt(2));
+
+        Set<Long> before = new HashSet<>();
+        List<Integer> students = new ArrayList<>(studentIds);
+        for (int from = 0; from < students.size(); from += 500) {
+            List<Integer> chunk = students.subList(from, Math.min(students.size(), from + 500));
+            PreparedStatement existing = conn.prepareStatement("SELECT event_id, student_id FROM registrations WHERE event_id IN ("
+                + marks(events.size()) + ") AND student_id IN (" + marks(chunk.size()) + ")");
+            int p = 1;
+            for (Integer e : events) existing.setInt(p++, e);
+            for (Integer s : chunk) existing.setInt(p++, s);
+            rs = existing.executeQuery();
+            while (rs.next()) before.add(pair(rs.getInt(1), rs.getInt(2)));
+        }
+
+        Set<Long> after = new HashSet<>(before);
+        for (Op op : ops) {
+            long key = pair(op.eventId, op.studentId);
+            Integer cap = capacity.get(op.eventId);
+            if (op.type == UNREGISTER) {
+                if (after.remove(key)) counts.merge(op.eventId, -1, Integer::sum);
+            } else if (cap == null) {
+                refused.add(op);
+                found.add(new Conflict(op.toString(), "the event no longer exists"));
+            } else if (!after.contains(key)) {
+                if (counts.getOrDefault(op.eventId, 0) >= cap) {
+                    refused.add(op);
+                    found.add(new Conflict(op.toString(), "the event is full"));
+                } else {
+                    after.add(key);
+                    counts.merge(op.eventId, 1, Integer::sum);
+                }
+            }
+        }
+
+        PreparedStatement delete = conn.prepareStatement(
+            "DELETE FROM registrations WHERE event_id = ? AND student_id = ?");
+        PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO registrations (event_id, student_id) VALUES (?, ?)");
+        List<int[]> removed = new ArrayList<>();
+        List<int[]> added = new ArrayList<>();
+        for (Long key : before) {
+            if (after.contains(key)) continue;
+            delete.setInt(1, (int) (key >> 32));
+            delete.setInt(2, (int) (long) key);
+            delete.addBatch();
+            removed.add(new int[]{(int) (key >> 32), (int) (long) key});
+        }
+        for (Long key : after) {
+            if (before.contains(key)) continue;
+            insert.setInt(1, (int) (key >> 32));
+            insert.setInt(2, (int) (long) key);
+            insert.addBatch();
+            added.add(new int[]{(int) (key >> 32), (int) (long) key});
+        }
+        delete.executeBatch();
+        insert.executeBatch();
+        ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.REMOVED, removed);
+        ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.ADDED, added);
+    }
+
+    // Records the batch as done, maps temporary student ids and reports conflicts, then
+    // brings the local view back in line with what the database accepted.
+    private void acknowledge(List<Op> batch, Map<Integer, Integer> mapped, List<Conflict> found, List<Op> refused) {
+        synchronized (this) {
+            try {
+                for (Map.Entry<Integer, Integer> entry : mapped.entrySet()) {
+                    queue.append(MAPPED, ByteBuffer.allocate(8).putInt(entry.getKey()).putInt(entry.getValue()).array(), false);
+                }
+                for (Op op : batch) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    AppendLog.putString(new DataOutputStream(bytes), op.key);
+                    queue.append(ACK, bytes.toByteArray(), false);
+                }
+                queue.force();
+            } catch (IOException e) {
+                // replayed after a restart; sync_applied keeps that from applying them twice
+                LOG.log(Level.WARNING, "Acknowledging synced operations failed", e);
+            }
+            for (Op op : batch) {
+                pending.remove(op.key);
+                if (op.type == ADD_STUDENT) pendingStudents.remove(op.studentId);
+            }
+            for (Map.Entry<Integer, Integer> entry : mapped.entrySet()) mapStudent(entry.getKey(), entry.getValue());
+            for (Conflict conflict : found) {
+                conflicts.addLast(conflict);
+                if (conflicts.size() > MAX_CONFLICTS_KEPT) conflicts.removeFirst();
+                try {
+                    conflictLog.write(conflict + System.lineSeparator());
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Writing a sync conflict failed", e);
+                }
+            }
+            try {
+                conflictLog.flush();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Flushing the sync conflict log failed", e);
+            }
+            if (pending.isEmpty()) {
+                queue.clear();
+                realIds.clear();
+            }
+            synced += batch.size();
+            lastError = null;
+        }
+
+        boolean studentsChanged = !mapped.isEmpty();
+        for (Op op : batch) {
+            if (op.type == ADD_STUDENT && !mapped.containsKey(op.studentId)) studentsChanged = true;
+        }
+        if (studentsChanged) {
+            // cached rows and rosters still hold temporary ids
+            Repository.invalidate();
+            RosterIndex.invalidate();
+            EntityBus.bulkChange(EntityBus.Type.STUDENT);
+            EntityBus.bulkChange(EntityBus.Type.REGISTRATION);
+        } else {
+            for (Op op : refused) {
+                RosterIndex.removed(op.eventId, op.studentId);
+                EntityBus.registrationRemoved(op.eventId, op.studentId);
+            }
+        }
+    }
+
+    private static String marks(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+}
@@ -0,0 +1,200 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+// Seat reservation for events. Storage checks capacity and duplicates and inserts in one
+// atomic step (on SQL, a transaction holding the event row lock), so they cannot race
+// between desks. Within this process registrations for the same event also queue on a
+// striped lock first, which keeps them from piling up on the database row lock.
+public class RegistrationService {
+    public enum Result { REGISTERED, DUPLICATE, FULL, WAITLISTED, NO_SUCH_EVENT }
+
+    static final int STRIPES = 64;
+
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+    // event id -> students waiting for a seat, in arrival order; guarded by the event's stripe
+    private static final Map<Integer, LinkedHashSet<Integer>> WAITLISTS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private RegistrationService() {
+    }
+
+    private static ReentrantLock lockFor(int eventId) {
+        return LOCKS[Math.floorMod(eventId, STRIPES)];
+    }
+
+    public static Result register(int studentId, int eventId) throws SQLException {
+        return register(studentId, eventId, false);
+    }
+
+    // With joinWaitlist the student is queued when the event is full instead of getting FULL.
+    public static Result register(int studentId, int eventId, boolean joinWaitlist) throws SQLException {
+        Result result;
+        ReentrantLock lock = lockFor(eventId);
+        lock.lock();
+        try {
+            result = Storage.get().register(studentId, eventId);
+            if (result == Result.REGISTERED) RosterIndex.added(eventId, studentId);
+            if (result == Result.REGISTERED) AuditLog.registered(eventId, studentId);
+            if (result == Result.FULL && joinWaitlist) {
+                synchronized (WAITLISTS) {
+                    WAITLISTS.computeIfAbsent(eventId, k -> new LinkedHashSet<>()).add(studentId);
+                }
+                result = Result.WAITLISTED;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (result == Result.REGISTERED) EntityBus.registrationAdded(eventId, studentId);
+        if (result == Result.REGISTERED) Notifications.registered(eventId, studentId);
+        if (result == Result.WAITLISTED) Notifications.waitlisted(eventId, studentId);
+        return result;
+    }
+
+    // Removes a registration and hands the freed seat to the first waitlisted student, if any.
+    public static boolean unregister(int studentId, int eventId) throws SQLException {
+        int promoted;
+        ReentrantLock lock = lockFor(eventId);
+        lock.lock();
+        try {
+            Waiting waiting = new Waiting(eventId);
+            promoted = Storage.get().unregister(studentId, eventId, waiting);
+            waiting.committed(promoted > 0 ? Collections.singletonList(promoted) : Collections.emptyList());
+            if (promoted >= 0) RosterIndex.removed(eventId, studentId);
+            if (promoted > 0) RosterIndex.added(eventId, promoted);
+            // in the log while the lock is held, so in the order the changes committed
+            if (promoted >= 0) AuditLog.unregistered(eventId, studentId);
+            if (promoted > 0) AuditLog.registered(eventId, promoted);
+        } finally {
+            lock.unlock();
+        }
+        if (promoted >= 0) EntityBus.registrationRemoved(eventId, studentId);
+        if (promoted > 0) EntityBus.registrationAdded(eventId, promoted);
+        if (promoted >= 0) Notifications.unregistered(eventId, studentId);
+        if (promoted > 0) Notifications.promoted(eventId, promoted);
+        return promoted >= 0;
+    }
+
+    // Registers many students for one event in one storage step; with joinWaitlist the
+    // ones that do not fit are queued in list order and reported as WAITLISTED.
+    public static Map<Integer, Result> registerAll(List<Integer> studentIds, int eventId, boolean joinWaitlist)
+            throws SQLException {
+        Map<Integer, Result> results;
+        ReentrantLock lock = lockFor(eventId);
+        lock.lock();
+        try {
+            results = Storage.get().registerAll(eventId, studentIds);
+            for (Map.Entry<Integer, Result> entry : results.entrySet()) {
+                if (entry.getValue() == Result.REGISTERED) RosterIndex.added(eventId, entry.getKey());
+                if (entry.getValue() == Result.REGISTERED) AuditLog.registered(eventId, entry.getKey());
+                if (entry.getValue() == Result.FULL && joinWaitlist) {
+                    synchronized (WAITLISTS) {
+                        WAITLISTS.computeIfAbsent(eventId, k -> new LinkedHashSet<>()).add(entry.getKey());
+                    }
+                    entry.setValue(Result.WAITLISTED);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        List<Integer> added = new ArrayList<>();
+        for (Map.Entry<Integer, Result> entry : results.entrySet()) {
+            if (entry.getValue() == Result.REGISTERED) added.add(entry.getKey());
+            if (entry.getValue() == Result.REGISTERED) Notifications.registered(eventId, entry.getKey());
+            if (entry.getValue() == Result.WAITLISTED) Notifications.waitlisted(eventId, entry.getKey());
+        }
+        publish(eventId, added, Collections.emptyList());
+        return results;
+    }
+
+    // Removes many registrations of one event in one storage step and hands the freed seats
+    // to the waitlist. Returns the students that were actually registered and removed.
+    public static List<Integer> unregisterAll(List<Integer> studentIds, int eventId) throws SQLException {
+        List<Integer> removed;
+        List<Integer> promoted = new ArrayList<>();
+        ReentrantLock lock = lockFor(eventId);
+        lock.lock();
+        try {
+            Waiting waiting = new Waiting(eventId);
+            removed = Storage.get().unregisterAll(eventId, studentIds, waiting, promoted);
+            waiting.committed(promoted);
+            for (Integer studentId : removed) RosterIndex.removed(eventId, studentId);
+            for (Integer studentId : promoted) RosterIndex.added(eventId, studentId);
+            for (Integer studentId : removed) AuditLog.unregistered(eventId, studentId);
+            for (Integer studentId : promoted) AuditLog.registered(eventId, studentId);
+        } finally {
+            lock.unlock();
+        }
+        publish(eventId, promoted, removed);
+        for (Integer studentId : removed) Notifications.unregistered(eventId, studentId);
+        for (Integer studentId : promoted) Notifications.promoted(eventId, studentId);
+        return removed;
+    }
+
+    // One change per row for small batches; one bulk change instead of thousands for large ones
+    private static void publish(int eventId, List<Integer> added, List<Integer> removed) {
+        if (added.size() + removed.size() > 1) {
+            EntityBus.bulkChange(EntityBus.Type.REGISTRATION);
+            return;
+        }
+        for (Integer studentId : removed) EntityBus.registrationRemoved(eventId, studentId);
+        for (Integer studentId : added) EntityBus.registrationAdded(eventId, studentId);
+    }
+
+    // Hands storage an event's waitlist in order without changing it, so a transaction that
+    // rolls back loses nobody. Students are taken off the list once the storage step committed.
+    private static class Waiting implements IntSupplier {
+        private final int eventId;
+        private final List<Integer> queue;
+        private int handedOut;
+        private boolean exhausted;
+
+        Waiting(int eventId) {
+            this.eventId = eventId;
+            synchronized (WAITLISTS) {
+                LinkedHashSet<Integer> waiting = WAITLISTS.get(eventId);
+                queue = waiting == null ? Collections.emptyList() : new ArrayList<>(waiting);
+            }
+        }
+
+        public int getAsInt() {
+            if (handedOut == queue.size()) {
+                exhausted = true;
+                return 0;
+            }
+            return queue.get(handedOut++);
+        }
+
+        // Storage skips only students who are already registered and stops after a promotion,
+        // a full event or the end of the list; the student it stopped at without seating stays.
+        void committed(Collection<Integer> promoted) {
+            int end = handedOut;
+            if (!exhausted && end > 0 && !promoted.contains(queue.get(end - 1))) end--;
+            if (end == 0) return;
+            synchronized (WAITLISTS) {
+                LinkedHashSet<Integer> waiting = WAITLISTS.get(eventId);
+                if (waiting != null) waiting.removeAll(queue.subList(0, end));
+            }
+        }
+    }
+
+    public static List<Integer> getWaitlist(int eventId) {
+        synchronized (WAITLISTS) {
+            LinkedHashSet<Integer> waiting = WAITLISTS.get(eventId);
+            return waiting == null ? Collections.emptyList() : new ArrayList<>(waiting);
+        }
+    }
+
+    public static boolean leaveWaitlist(int studentId, int eventId) {
+        synchronized (WAITLISTS) {
+            LinkedHashSet<Integer> waiting = WAITLISTS.get(eventId);
+            return waiting != null && waiting.remove(studentId);
+        }
+    }
+}
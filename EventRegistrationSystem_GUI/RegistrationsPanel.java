@@ -1,26 +1,36 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.swing.*;
 import javax.swing.event.*;
-import javax.swing.table.DefaultTableModel;
 
 public class RegistrationsPanel extends JPanel {
-    private DefaultTableModel tableModel;
+    private PagedTableModel tableModel;
     private JTable table;
     private JComboBox<EventItem> eventCombo;
     private JTextField searchField;
     private JButton searchButton;
     private JList<String> suggestionList;
     private JPopupMenu suggestionPopup;
+    private final SuggestionEngine suggestions = new SuggestionEngine();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JLabel seatsLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
 
     public RegistrationsPanel() {
         setLayout(new BorderLayout());
 
         // Table setup
-        tableModel = new DefaultTableModel(new Object[]{"Student ID", "Name", "Email", "Event Title"}, 0);
+        tableModel = new PagedTableModel(new String[]{"Student ID", "Name", "Email", "Event Title"}, loader);
         table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         // Event combo box and search button
         eventCombo = new JComboBox<>();
@@ -59,10 +69,16 @@ public class RegistrationsPanel extends JPanel {
         JButton registerBtn = new JButton("Register");
         JButton refreshBtn = new JButton("Refresh");
         JButton deleteBtn = new JButton("Delete Registration");
+        JButton exportBtn = new JButton("Export CSV");
 
         registerBtn.addActionListener(e -> registerStudent());
-        refreshBtn.addActionListener(e -> refresh());
+        refreshBtn.addActionListener(e -> {
+            Repository.invalidate();
+            RosterIndex.invalidate();
+            refresh();
+        });
         deleteBtn.addActionListener(e -> deleteRegistration());
+        exportBtn.addActionListener(e -> exportRegistrations());
 
         // Top panel with controls
         JPanel top = new JPanel(new FlowLayout());
@@ -74,187 +90,314 @@ public class RegistrationsPanel extends JPanel {
         top.add(registerBtn);
         top.add(refreshBtn);
         top.add(deleteBtn);
+        top.add(exportBtn);
+        top.add(seatsLabel);
+        top.add(statusLabel);
+
+        // Queued writes still to reach the central database
+        QueuedStorage queue = QueuedStorage.active();
+        if (queue != null) {
+            JLabel syncLabel = new JLabel(" ");
+            JButton conflictsBtn = new JButton("Sync Conflicts");
+            conflictsBtn.addActionListener(e -> showConflicts(queue));
+            top.add(syncLabel);
+            top.add(conflictsBtn);
+            new javax.swing.Timer(1000, e -> {
+                String error = queue.lastError();
+                syncLabel.setText(queue.pendingCount() + " to sync"
+                    + (error == null ? "" : " (retrying: " + error + ")"));
+                conflictsBtn.setText("Sync Conflicts (" + queue.conflicts().size() + ")");
+            }).start();
+        }
 
         add(top, BorderLayout.NORTH);
         add(new JScrollPane(table), BorderLayout.CENTER);
 
+        EntityBus.subscribe(this::entityChanged);
+        showSavedEvents();
         refresh();  // Initial data load
     }
 
+    // Fills the event list as it was last time, so it can be used before the database answers
+    private void showSavedEvents() {
+        Startup.Snapshot saved = Startup.readSnapshot("registration-events");
+        if (saved == null) return;
+        DefaultComboBoxModel<EventItem> model = new DefaultComboBoxModel<>();
+        for (Object[] row : saved.rows) {
+            model.addElement(new EventItem((Integer) row[0], (String) row[1]));
+        }
+        eventCombo.setModel(model);
+        loadRegistrations();
+    }
+
     private void refresh() {
-        eventCombo.removeAllItems();
-        try (Connection conn = DB.getConnection()) {
-            ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM events ORDER BY title");
-            while (rs.next()) {
-                eventCombo.addItem(new EventItem(rs.getInt("event_id"), rs.getString("title")));
+        loader.load("events", this::loadEventItems, items -> {
+            EventItem previous = (EventItem) eventCombo.getSelectedItem();
+            DefaultComboBoxModel<EventItem> model = new DefaultComboBoxModel<>();
+            for (EventItem item : items) {
+                model.addElement(item);
+                if (previous != null && item.id == previous.id) model.setSelectedItem(item);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            eventCombo.setModel(model);
+            loadRegistrations();
+
+            List<Object[]> rows = new ArrayList<>();
+            for (EventItem item : items) rows.add(new Object[]{item.id, item.title});
+            Startup.writeSnapshot("registration-events", rows.size(), rows);
+            Startup.firstData("registration-events");
+        });
+    }
+
+    // Runs on a loader thread
+    private List<EventItem> loadEventItems() throws SQLException {
+        List<EventItem> items = new ArrayList<>();
+        for (Event event : Repository.listEvents()) {
+            items.add(new EventItem(event.getEventId(), event.getTitle()));
+        }
+        return items;
+    }
+
+    // Applies inserts and deletes made anywhere in the app without re-reading the tables
+    private void entityChanged(EntityBus.Change change) {
+        switch (change.type) {
+            case EVENT:
+                if (change.kind == EntityBus.Kind.ADDED) {
+                    Event event = (Event) change.entity;
+                    EventItem item = new EventItem(event.getEventId(), event.getTitle());
+                    DefaultComboBoxModel<EventItem> model = (DefaultComboBoxModel<EventItem>) eventCombo.getModel();
+                    // a reload that was already under way may have listed it
+                    for (int i = 0; i < model.getSize(); i++) {
+                        if (model.getElementAt(i).id == item.id) return;
+                    }
+                    int at = 0;
+                    while (at < model.getSize() && model.getElementAt(at).title.compareTo(item.title) <= 0) at++;
+                    model.insertElementAt(item, at);
+                } else if (change.id == 0) {
+                    refresh();
+                }
+                break;
+            case STUDENT:
+                if (change.kind == EntityBus.Kind.ADDED) {
+                    Student student = (Student) change.entity;
+                    suggestions.add(student.getStudentId(), student.getName());
+                } else if (change.entity == null) {
+                    suggestions.markStale();
+                }
+                break;
+            case REGISTRATION:
+                EventItem selected = (EventItem) eventCombo.getSelectedItem();
+                if (selected != null && (selected.id == change.id || change.id == 0)) loadRegistrations();
+                break;
         }
-        loadRegistrations();
     }
 
     private void loadRegistrations() {
-        tableModel.setRowCount(0);
         EventItem selected = (EventItem) eventCombo.getSelectedItem();
-        if (selected == null) return;
+        if (selected == null) {
+            tableModel.setSource(null);
+            seatsLabel.setText(" ");
+            return;
+        }
 
-        try (Connection conn = DB.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT s.student_id, s.name, s.email, e.title FROM students s " +
-                "JOIN registrations r ON s.student_id = r.student_id " +
-                "JOIN events e ON r.event_id = e.event_id WHERE r.event_id = ? ORDER BY s.name");
-            stmt.setInt(1, selected.id);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("student_id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("title")
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Served from the roster index; only students missing from the cache are read
+        tableModel.setSource(new RosterIndex.Source(selected.id));
+        loader.load("seats", () -> new int[]{RosterIndex.count(selected.id), RosterIndex.remaining(selected.id)},
+            seats -> seatsLabel.setText(seats[0] + " registered, " + seats[1] + " seats left"));
+    }
+
+    private void showConflicts(QueuedStorage queue) {
+        StringBuilder text = new StringBuilder();
+        for (QueuedStorage.Conflict conflict : queue.conflicts()) {
+            text.append(conflict).append('\n');
         }
+        JTextArea area = new JTextArea(text.length() == 0 ? "No conflicts." : text.toString(), 15, 70);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), "Sync Conflicts", JOptionPane.INFORMATION_MESSAGE);
     }
 
     private void updateSuggestions() {
-        String query = searchField.getText().toLowerCase();
-        if (query.isEmpty()) {
+        String query = searchField.getText();
+        if (query.trim().isEmpty()) {
+            suggestions.suggestAsync("", list -> {});
             suggestionPopup.setVisible(false);
             return;
         }
 
-        ArrayList<String> suggestions = new ArrayList<>();
-        try (Connection conn = DB.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT student_id, name FROM students WHERE LOWER(name) LIKE ?");
-            stmt.setString(1, "%" + query + "%");
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                suggestions.add(rs.getString("name") + " (ID: " + rs.getInt("student_id") + ")");
+        suggestions.suggestAsync(query, list -> {
+            if (!list.isEmpty()) {
+                String[] items = new String[list.size()];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = list.get(i).toString();
+                }
+                suggestionList.setListData(items);
+                suggestionPopup.show(searchField, 0, searchField.getHeight());
+            } else {
+                suggestionPopup.setVisible(false);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        if (!suggestions.isEmpty()) {
-            suggestionList.setListData(suggestions.toArray(new String[0]));
-            suggestionPopup.show(searchField, 0, searchField.getHeight());
-        } else {
-            suggestionPopup.setVisible(false);
-        }
+        });
     }
 
     private void searchStudentEvents() {
-        tableModel.setRowCount(0);
-        String query = searchField.getText().toLowerCase();
-        if (query.isEmpty()) return;
-
-        try (Connection conn = DB.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT s.student_id, s.name, s.email, e.title FROM students s " +
-                "JOIN registrations r ON s.student_id = r.student_id " +
-                "JOIN events e ON r.event_id = e.event_id " +
-                "WHERE LOWER(s.name) LIKE ? ORDER BY e.title");
-            stmt.setString(1, "%" + query + "%");
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                tableModel.addRow(new Object[]{
-                    rs.getInt("student_id"),
-                    rs.getString("name"),
-                    rs.getString("email"),
-                    rs.getString("title")
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            tableModel.setSource(null);
+            return;
         }
+
+        tableModel.setSource(Storage.get().search(query));
     }
 
     private void registerStudent() {
         EventItem selected = (EventItem) eventCombo.getSelectedItem();
         if (selected == null) return;
 
-        DefaultComboBoxModel<StudentItem> studentModel = new DefaultComboBoxModel<>();
-        try (Connection conn = DB.getConnection()) {
-            PreparedStatement stmt = conn.prepareStatement(
-                "SELECT student_id, name FROM students WHERE student_id NOT IN " +
-                "(SELECT student_id FROM registrations WHERE event_id = ?)");
-            stmt.setInt(1, selected.id);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                studentModel.addElement(new StudentItem(rs.getInt("student_id"), rs.getString("name")));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        if (studentModel.getSize() == 0) {
-            JOptionPane.showMessageDialog(this, "All students already registered.");
-            return;
-        }
-
-        JComboBox<StudentItem> studentCombo = new JComboBox<>(studentModel);
-        JPanel panel = new JPanel();
-        panel.add(new JLabel("Student:"));
-        panel.add(studentCombo);
+        loader.load("roster", () -> {
+            IntSet registered = new IntSet();
+            for (int id : RosterIndex.studentIds(selected.id)) registered.add(id);
+            return registered;
+        }, registered -> showRegisterDialog(selected, registered));
+    }
 
+    private void showRegisterDialog(EventItem selected, IntSet registered) {
+        StudentPicker picker = new StudentPicker(registered);
         int result = JOptionPane.showConfirmDialog(
             this,
-            panel,
-            "Register Student",
+            picker,
+            "Register Students for " + selected.title,
             JOptionPane.OK_CANCEL_OPTION,
             JOptionPane.PLAIN_MESSAGE
         );
+        if (result != JOptionPane.OK_OPTION || picker.selectedCount() == 0) return;
+
+        java.util.concurrent.Callable<List<Integer>> selection = picker.selection();
+        loader.load("register", () -> {
+            List<Integer> ids = selection.call();
+            return new Object[]{ids, overlapWarning(ids, selected.id)};
+        }, checked -> {
+            @SuppressWarnings("unchecked")
+            List<Integer> ids = (List<Integer>) checked[0];
+            String warning = (String) checked[1];
+            if (warning != null && JOptionPane.showConfirmDialog(this, warning + "\nRegister anyway?",
+                    "Overlapping Events", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION) {
+                return;
+            }
+            // One batch and one transaction for the whole selection
+            loader.load("register", () -> RegistrationService.registerAll(ids, selected.id, false),
+                results -> showRegisterResults(selected, results));
+        });
+    }
 
-        if (result == JOptionPane.OK_OPTION) {
-            StudentItem student = (StudentItem) studentCombo.getSelectedItem();
-            try (Connection conn = DB.getConnection()) {
-                PreparedStatement stmt = conn.prepareStatement(
-                    "INSERT INTO registrations (student_id, event_id) VALUES (?, ?)");
-                stmt.setInt(1, student.id);
-                stmt.setInt(2, selected.id);
-                stmt.executeUpdate();
-                loadRegistrations();
-            } catch (SQLException e) {
-                e.printStackTrace();
+    // Names the students already registered for events overlapping this one; null if none
+    private static String overlapWarning(List<Integer> ids, int eventId) throws SQLException {
+        Map<Integer, List<Event>> overlaps = ScheduleIndex.studentConflicts(ids, eventId);
+        if (overlaps.isEmpty()) return null;
+        Map<Integer, Student> students = Repository.getStudents(overlaps.keySet());
+        StringBuilder message = new StringBuilder(overlaps.size() + " student(s) already have an event at that time:\n");
+        int shown = 0;
+        for (Map.Entry<Integer, List<Event>> entry : overlaps.entrySet()) {
+            if (shown++ == 10) {
+                message.append("  ... and ").append(overlaps.size() - 10).append(" more\n");
+                break;
             }
+            Student student = students.get(entry.getKey());
+            message.append("  ").append(student != null ? student.getName() : "Student " + entry.getKey()).append(": ");
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                Event event = entry.getValue().get(i);
+                if (i > 0) message.append(", ");
+                message.append(event.getTitle()).append(" (").append(event.getDate()).append(' ').append(event.getTime()).append(')');
+            }
+            message.append('\n');
+        }
+        return message.toString();
+    }
+
+    private void showRegisterResults(EventItem selected, Map<Integer, RegistrationService.Result> results) {
+        Map<RegistrationService.Result, List<Integer>> byResult = new EnumMap<>(RegistrationService.Result.class);
+        for (Map.Entry<Integer, RegistrationService.Result> entry : results.entrySet()) {
+            byResult.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        if (byResult.containsKey(RegistrationService.Result.NO_SUCH_EVENT)) {
+            JOptionPane.showMessageDialog(this, "This event no longer exists.");
+            return;
+        }
+
+        StringBuilder message = new StringBuilder();
+        for (Map.Entry<RegistrationService.Result, List<Integer>> entry : byResult.entrySet()) {
+            if (message.length() > 0) message.append(", ");
+            message.append(entry.getValue().size()).append(' ').append(entry.getKey().name().toLowerCase().replace('_', ' '));
+        }
+        List<Integer> full = byResult.get(RegistrationService.Result.FULL);
+        if (full == null) {
+            statusLabel.setText(message.toString());
+            return;
+        }
+        int join = JOptionPane.showConfirmDialog(this,
+            message + ".\n" + selected.title + " is full. Add the " + full.size() + " remaining student(s) to the waitlist?",
+            "Event Full", JOptionPane.YES_NO_OPTION);
+        if (join == JOptionPane.YES_OPTION) {
+            loader.load("waitlist", () -> RegistrationService.registerAll(full, selected.id, true),
+                waitlisted -> statusLabel.setText(waitlisted.size() + " added to the waitlist"));
         }
     }
 
     private void deleteRegistration() {
-        int row = table.getSelectedRow();
-        if (row == -1) {
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0) {
             JOptionPane.showMessageDialog(this, "Please select a registration to delete.");
             return;
         }
-
-        int studentId = (int) tableModel.getValueAt(row, 0);
         EventItem selected = (EventItem) eventCombo.getSelectedItem();
-        if (selected == null) return;
+        PagedTableModel.PageSource source = tableModel.getSource();
+        if (source == null) return;
+        // A roster lists one event; search results carry each row's event id
+        boolean roster = source instanceof RosterIndex.Source;
+        if (roster && selected == null) return;
 
         int confirm = JOptionPane.showConfirmDialog(
             this,
-            "Are you sure you want to delete this registration?",
+            rows.length == 1 ? "Are you sure you want to delete this registration?"
+                : "Are you sure you want to delete these " + rows.length + " registrations?",
             "Confirm Delete",
             JOptionPane.YES_NO_OPTION,
             JOptionPane.WARNING_MESSAGE
         );
+        if (confirm != JOptionPane.YES_OPTION) return;
+
+        // the rows as shown when Delete was pressed, not whatever is at those positions later
+        java.util.concurrent.Callable<List<Object[]>> selection = tableModel.rowsAt(rows);
+        loader.load("delete", () -> {
+            Map<Integer, List<Integer>> byEvent = new LinkedHashMap<>();
+            for (Object[] row : selection.call()) {
+                int eventId = roster ? selected.id : ((Number) row[4]).intValue();
+                byEvent.computeIfAbsent(eventId, k -> new ArrayList<>()).add(((Number) row[0]).intValue());
+            }
+            int removed = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : byEvent.entrySet()) {
+                removed += RegistrationService.unregisterAll(entry.getValue(), entry.getKey()).size();
+            }
+            return removed;
+        }, removed -> {
+            statusLabel.setText(removed + " registration(s) deleted");
+            // search results are not patched by the roster reload
+            if (!roster) tableModel.reload();
+        });
+    }
+
+    private void exportRegistrations() {
+        EventItem selected = (EventItem) eventCombo.getSelectedItem();
+        if (selected == null) return;
 
-        if (confirm == JOptionPane.YES_OPTION) {
-            try (Connection conn = DB.getConnection()) {
-                PreparedStatement stmt = conn.prepareStatement(
-                    "DELETE FROM registrations WHERE student_id = ? AND event_id = ?");
-                stmt.setInt(1, studentId);
-                stmt.setInt(2, selected.id);
-                stmt.executeUpdate();
-                loadRegistrations();
-            } catch (SQLException e) {
-                e.printStackTrace();
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(selected.title.replaceAll("[^A-Za-z0-9_-]+", "_") + "_registrations.csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
+
+        loader.load("export", () -> {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                return BulkTransfer.exportRegistrations(selected.id, out);
             }
-        }
+        }, report -> JOptionPane.showMessageDialog(this, "Exported to " + file.getName() + ": " + report,
+            "Export", JOptionPane.INFORMATION_MESSAGE));
     }
 
     // Helper classes
@@ -269,16 +412,4 @@ public class RegistrationsPanel extends JPanel {
             return title;
         }
     }
-
-    private static class StudentItem {
-        int id;
-        String name;
-        StudentItem(int id, String name) {
-            this.id = id;
-            this.name = name;
-        }
-        public String toString() {
-            return name + " (ID: " + id + ")";
-        }
-    }
 }
\ No newline at end of file
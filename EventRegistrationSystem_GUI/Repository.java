@@ -0,0 +1,193 @@
+import java.sql.*;
+import java.util.*;
+import java.util.function.Function;
+
+// Shared cache of Event and Student rows in front of Storage. Inserts go through
+// here so the cache stays current (write-through) and EntityBus listeners hear about them.
+// Both caches are size-bounded LRUs; a full list is only served from memory while
+// every row still fits.
+public class Repository {
+    static final int MAX_EVENTS = Integer.getInteger("cache.maxEvents", 5000);
+    static final int MAX_STUDENTS = Integer.getInteger("cache.maxStudents", 50000);
+
+    private static final Lru<Integer, Event> EVENTS = new Lru<>(MAX_EVENTS);
+    private static final Lru<Integer, Student> STUDENTS = new Lru<>(MAX_STUDENTS);
+
+    private Repository() {
+    }
+
+    public static List<Event> listEvents() throws SQLException {
+        synchronized (EVENTS) {
+            if (EVENTS.complete) return sortedEvents();
+        }
+        List<Event> loaded = reload(EVENTS, () -> Storage.get().events(), Event::getEventId);
+        loaded.sort(Comparator.comparing(Event::getTitle));
+        return loaded;
+    }
+
+    private static List<Event> sortedEvents() {
+        List<Event> events = new ArrayList<>(EVENTS.values());
+        events.sort(Comparator.comparing(Event::getTitle));
+        return events;
+    }
+
+    public static Event getEvent(int eventId) throws SQLException {
+        synchronized (EVENTS) {
+            Event cached = EVENTS.get(eventId);
+            if (cached != null) return cached;
+        }
+        Event event = Storage.get().event(eventId);
+        if (event != null) cacheEvent(event);
+        return event;
+    }
+
+    public static Event addEvent(String title, java.sql.Date date, java.sql.Time time, String venue, int capacity)
+            throws SQLException {
+        Event event = Storage.get().addEvent(title, date, time, venue, capacity);
+        cacheEvent(event);
+        ScheduleIndex.added(event);
+        AuditLog.eventAdded(event);
+        EntityBus.eventAdded(event);
+        Notifications.eventAdded(event.getEventId());
+        return event;
+    }
+
+    private static void cacheEvent(Event event) {
+        synchronized (EVENTS) {
+            EVENTS.put(event.getEventId(), event);
+            if (EVENTS.loading > 0) EVENTS.written.add(event);
+            if (EVENTS.evicted) EVENTS.complete = false;
+        }
+    }
+
+    public static Student getStudent(int studentId) throws SQLException {
+        return getStudents(Collections.singleton(studentId)).get(studentId);
+    }
+
+    // Looks up many students at once; only the ones not cached are read from storage.
+    public static Map<Integer, Student> getStudents(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Student> result = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        synchronized (STUDENTS) {
+            for (Integer id : ids) {
+                Student cached = STUDENTS.get(id);
+                if (cached != null) {
+                    result.put(id, cached);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (Student student : Storage.get().students(missing).values()) {
+                result.put(student.getStudentId(), student);
+                cacheStudent(student);
+            }
+        }
+        return result;
+    }
+
+    public static List<Student> listStudents() throws SQLException {
+        synchronized (STUDENTS) {
+            if (STUDENTS.complete) return new ArrayList<>(STUDENTS.values());
+        }
+        return reload(STUDENTS, () -> Storage.get().students(), Student::getStudentId);
+    }
+
+    // Returns null if a student with this email already exists.
+    public static Student addStudent(String name, String email) throws SQLException {
+        Student student = Storage.get().addStudent(name, email);
+        if (student == null) return null;
+        cacheStudent(student);
+        AuditLog.studentAdded(student);
+        EntityBus.studentAdded(student);
+        return student;
+    }
+
+    private static void cacheStudent(Student student) {
+        synchronized (STUDENTS) {
+            STUDENTS.put(student.getStudentId(), student);
+            if (STUDENTS.loading > 0) STUDENTS.written.add(student);
+            if (STUDENTS.evicted) STUDENTS.complete = false;
+        }
+    }
+
+    // Forgets everything cached, e.g. after another desk may have changed the data.
+    public static void invalidate() {
+        synchronized (EVENTS) {
+            EVENTS.clear();
+            EVENTS.complete = false;
+            EVENTS.generation++;
+        }
+        synchronized (STUDENTS) {
+            STUDENTS.clear();
+            STUDENTS.complete = false;
+            STUDENTS.generation++;
+        }
+        ScheduleIndex.invalidate();
+    }
+
+    private interface Loader<V> {
+        List<V> load() throws SQLException;
+    }
+
+    // Refills the cache from a full read, outside its lock. A row cached while the read
+    // runs, e.g. an insert that committed after it, is put back on top of it; a cache
+    // invalidated meanwhile is left empty. Returns the read rows with those on top.
+    private static <V> List<V> reload(Lru<Integer, V> cache, Loader<V> loader, Function<V, Integer> id)
+            throws SQLException {
+        int mark;
+        int generation;
+        synchronized (cache) {
+            cache.loading++;
+            mark = cache.written.size();
+            generation = cache.generation;
+        }
+        List<V> loaded = null;
+        List<V> written;
+        try {
+            loaded = loader.load();
+        } finally {
+            synchronized (cache) {
+                written = new ArrayList<>(cache.written.subList(mark, cache.written.size()));
+                if (--cache.loading == 0) cache.written.clear();
+                if (loaded != null && generation == cache.generation) {
+                    cache.clear();
+                    cache.evicted = false;
+                    for (V row : loaded) cache.put(id.apply(row), row);
+                    for (V row : written) cache.put(id.apply(row), row);
+                    cache.complete = !cache.evicted;
+                }
+            }
+        }
+        if (written.isEmpty()) return loaded;
+        Map<Integer, V> rows = new LinkedHashMap<>();
+        for (V row : loaded) rows.put(id.apply(row), row);
+        for (V row : written) rows.put(id.apply(row), row);
+        return new ArrayList<>(rows.values());
+    }
+
+    private static class Lru<K, V> extends LinkedHashMap<K, V> {
+        private final int max;
+        boolean complete;
+        boolean evicted;
+        // bumped by invalidate(); full loads in progress, and rows cached while they run
+        int generation;
+        int loading;
+        final List<V> written = new ArrayList<>();
+
+        Lru(int max) {
+            super(16, 0.75f, true);
+            this.max = max;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > max) {
+                evicted = true;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.sql.SQLException;
+import java.util.*;
+
+// In-memory copy of the registrations table: event id -> set of registered student ids.
+// It is read from Storage once and afterwards patched by RegistrationService as
+// each registration commits, so showing a roster or its seat count needs no query.
+// Names and emails for the rows come from the Repository student cache.
+public class RosterIndex {
+    private static final IntSet EMPTY = new IntSet(0);
+    private static final Object LOAD_LOCK = new Object();
+
+    // null until loaded; guarded by RosterIndex.class
+    private static Map<Integer, IntSet> rosters;
+    // changes committed while a load is reading the table, replayed over its result
+    private static List<int[]> pending;
+    // number of events each student is registered for, indexed by student id
+    private static int[] perStudent;
+    private static int generation;
+
+    private RosterIndex() {
+    }
+
+    private static void ensureLoaded() throws SQLException {
+        synchronized (LOAD_LOCK) {
+            int loadGeneration;
+            synchronized (RosterIndex.class) {
+                if (rosters != null) return;
+                pending = new ArrayList<>();
+                loadGeneration = generation;
+            }
+            Map<Integer, IntSet> loaded = new HashMap<>();
+            boolean read = false;
+            try {
+                Storage.get().forEachRegistration(
+                    (eventId, studentId) -> loaded.computeIfAbsent(eventId, k -> new IntSet()).add(studentId));
+                read = true;
+            } finally {
+                // replayed and published under one lock, so no change can land in between and be lost
+                synchronized (RosterIndex.class) {
+                    if (read && generation == loadGeneration && pending != null) {
+                        // adds and removes are idempotent, so replaying ones the read already saw is harmless
+                        for (int[] change : pending) apply(loaded, change[0], change[1], change[2] > 0);
+                        rosters = loaded;
+                        perStudent = countPerStudent(loaded);
+                    }
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    private static boolean apply(Map<Integer, IntSet> into, int eventId, int studentId, boolean add) {
+        if (add) {
+            return into.computeIfAbsent(eventId, k -> new IntSet()).add(studentId);
+        }
+        IntSet roster = into.get(eventId);
+        return roster != null && roster.remove(studentId);
+    }
+
+    private static int[] countPerStudent(Map<Integer, IntSet> loaded) {
+        List<int[]> ids = new ArrayList<>(loaded.size());
+        int max = 0;
+        for (IntSet roster : loaded.values()) {
+            int[] students = roster.toArray();
+            for (int id : students) max = Math.max(max, id);
+            ids.add(students);
+        }
+        int[] counts = new int[max + 1];
+        for (int[] students : ids) {
+            // ids below zero are queued students without a database row yet
+            for (int id : students) if (id > 0) counts[id]++;
+        }
+        return counts;
+    }
+
+    private static synchronized void patch(int eventId, int studentId, boolean add) {
+        if (rosters != null) {
+            if (apply(rosters, eventId, studentId, add) && studentId > 0) {
+                if (studentId >= perStudent.length) {
+                    perStudent = Arrays.copyOf(perStudent, Math.max(studentId + 1, perStudent.length * 3 / 2));
+                }
+                perStudent[studentId] += add ? 1 : -1;
+            }
+        } else if (pending != null) {
+            pending.add(new int[]{eventId, studentId, add ? 1 : 0});
+        }
+    }
+
+    // Called after the registration has committed.
+    static void added(int eventId, int studentId) {
+        patch(eventId, studentId, true);
+    }
+
+    static void removed(int eventId, int studentId) {
+        patch(eventId, studentId, false);
+    }
+
+    // Drops the index; the next read loads it again from the database.
+    public static synchronized void invalidate() {
+        rosters = null;
+        perStudent = null;
+        pending = null;
+        generation++;
+    }
+
+    private static IntSet roster(int eventId) throws SQLException {
+        while (true) {
+            ensureLoaded();
+            synchronized (RosterIndex.class) {
+                if (rosters != null) return rosters.getOrDefault(eventId, EMPTY);
+            }
+        }
+    }
+
+    // Registered count of every event with at least one registration.
+    public static Map<Integer, Integer> counts() throws SQLException {
+        while (true) {
+            ensureLoaded();
+            synchronized (RosterIndex.class) {
+                if (rosters == null) continue;
+                Map<Integer, Integer> counts = new HashMap<>(rosters.size() * 2);
+                for (Map.Entry<Integer, IntSet> entry : rosters.entrySet()) {
+                    if (!entry.getValue().isEmpty()) counts.put(entry.getKey(), entry.getValue().size());
+                }
+                return counts;
+            }
+        }
+    }
+
+    // Copy of the per-student event counts, indexed by student id.
+    public static int[] perStudentCounts() throws SQLException {
+        while (true) {
+            ensureLoaded();
+            synchronized (RosterIndex.class) {
+                if (perStudent != null) return perStudent.clone();
+            }
+        }
+    }
+
+    public static int[] studentIds(int eventId) throws SQLException {
+        IntSet roster = roster(eventId);
+        synchronized (RosterIndex.class) {
+            return roster.toArray();
+        }
+    }
+
+    public static int count(int eventId) throws SQLException {
+        IntSet roster = roster(eventId);
+        synchronized (RosterIndex.class) {
+            return roster.size();
+        }
+    }
+
+    public static boolean contains(int eventId, int studentId) throws SQLException {
+        IntSet roster = roster(eventId);
+        synchronized (RosterIndex.class) {
+            return roster.contains(studentId);
+        }
+    }
+
+    // Seats left, or 0 for an unknown event.
+    public static int remaining(int eventId) throws SQLException {
+        Event event = Repository.getEvent(eventId);
+        return event == null ? 0 : Math.max(0, event.getCapacity() - count(eventId));
+    }
+
+    // Rows of student_id, name, email, event title for one event, ordered by name.
+    public static List<Object[]> rows(int eventId) throws SQLException {
+        int[] ids = studentIds(eventId);
+        List<Integer> boxed = new ArrayList<>(ids.length);
+        for (int id : ids) boxed.add(id);
+        Map<Integer, Student> students = Repository.getStudents(boxed);
+        Event event = Repository.getEvent(eventId);
+        String title = event == null ? null : event.getTitle();
+
+        List<Student> sorted = new ArrayList<>(students.values());
+        sorted.sort(Comparator.comparing(Student::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparingInt(Student::getStudentId));
+        List<Object[]> rows = new ArrayList<>(sorted.size());
+        for (Student student : sorted) {
+            rows.add(new Object[]{student.getStudentId(), student.getName(), student.getEmail(), title});
+        }
+        return rows;
+    }
+
+    // One event's roster for a PagedTableModel.
+    public static class Source extends ListPageSource {
+        private final int eventId;
+
+        public Source(int eventId) {
+            this.eventId = eventId;
+        }
+
+        protected List<Object[]> load() throws SQLException {
+            return RosterIndex.rows(eventId);
+        }
+    }
+}
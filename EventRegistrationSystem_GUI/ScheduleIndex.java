@@ -0,0 +1,157 @@
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.util.*;
+
+// Sorted timeline of event start times, overall and per venue, read from the events once
+// and afterwards patched by Repository as events are added. Clashes are found with a
+// range lookup instead of a query.
+// The schema has no end time, so every event is taken to last schedule.eventMinutes; two
+// events overlap when their starts are less than that apart, which is why a timeline of
+// starts is enough and no interval tree is needed.
+public class ScheduleIndex {
+    static final int EVENT_MINUTES = Math.max(1, Integer.getInteger("schedule.eventMinutes", 120));
+
+    private static final Object LOAD_LOCK = new Object();
+
+    // null until loaded; guarded by ScheduleIndex.class. Start minute -> events starting then.
+    private static NavigableMap<Long, List<Event>> timeline;
+    private static Map<String, NavigableMap<Long, List<Event>>> venues;
+    // events added while a load is reading, put in after it
+    private static List<Event> pending;
+    private static int generation;
+
+    private ScheduleIndex() {
+    }
+
+    private static void ensureLoaded() throws SQLException {
+        synchronized (LOAD_LOCK) {
+            int loadGeneration;
+            synchronized (ScheduleIndex.class) {
+                if (timeline != null) return;
+                pending = new ArrayList<>();
+                loadGeneration = generation;
+            }
+            List<Event> events;
+            try {
+                events = Repository.listEvents();
+            } catch (SQLException e) {
+                synchronized (ScheduleIndex.class) {
+                    pending = null;
+                }
+                throw e;
+            }
+            synchronized (ScheduleIndex.class) {
+                if (generation != loadGeneration) return;
+                timeline = new TreeMap<>();
+                venues = new HashMap<>();
+                for (Event event : events) put(event);
+                for (Event event : pending) put(event);
+                pending = null;
+            }
+        }
+    }
+
+    // Called with the ScheduleIndex lock held
+    private static void put(Event event) {
+        Long start = start(event);
+        if (start == null) return;
+        add(timeline, start, event);
+        add(venues.computeIfAbsent(venueKey(event.getVenue()), k -> new TreeMap<>()), start, event);
+    }
+
+    private static void add(NavigableMap<Long, List<Event>> into, long start, Event event) {
+        List<Event> events = into.computeIfAbsent(start, k -> new ArrayList<>(1));
+        for (Event existing : events) {
+            if (existing.getEventId() == event.getEventId()) return;
+        }
+        events.add(event);
+    }
+
+    // Called after the event has been stored.
+    static synchronized void added(Event event) {
+        if (timeline != null) {
+            put(event);
+        } else if (pending != null) {
+            pending.add(event);
+        }
+    }
+
+    // Drops the index; the next lookup reads the events again.
+    public static synchronized void invalidate() {
+        timeline = null;
+        venues = null;
+        pending = null;
+        generation++;
+    }
+
+    // Events at the same venue whose time overlaps a new event starting at date and time.
+    public static List<Event> venueConflicts(String venue, java.sql.Date date, java.sql.Time time) throws SQLException {
+        Long start = start(date, time);
+        if (start == null || venue == null) return Collections.emptyList();
+        while (true) {
+            ensureLoaded();
+            synchronized (ScheduleIndex.class) {
+                if (venues == null) continue;
+                return overlapping(venues.get(venueKey(venue)), start, -1);
+            }
+        }
+    }
+
+    public static List<Event> venueConflicts(Event event) throws SQLException {
+        List<Event> conflicts = new ArrayList<>(venueConflicts(event.getVenue(), event.getDate(), event.getTime()));
+        conflicts.removeIf(other -> other.getEventId() == event.getEventId());
+        return conflicts;
+    }
+
+    // For each student already registered for an event that overlaps eventId, those events.
+    // Only the few events near eventId on the timeline are checked, against RosterIndex.
+    public static Map<Integer, List<Event>> studentConflicts(Collection<Integer> studentIds, int eventId)
+            throws SQLException {
+        Map<Integer, List<Event>> conflicts = new LinkedHashMap<>();
+        Event event = Repository.getEvent(eventId);
+        Long start = event == null ? null : start(event);
+        if (start == null) return conflicts;
+        List<Event> nearby;
+        while (true) {
+            ensureLoaded();
+            synchronized (ScheduleIndex.class) {
+                if (timeline == null) continue;
+                nearby = overlapping(timeline, start, eventId);
+                break;
+            }
+        }
+        for (Event other : nearby) {
+            for (Integer studentId : studentIds) {
+                if (RosterIndex.contains(other.getEventId(), studentId)) {
+                    conflicts.computeIfAbsent(studentId, k -> new ArrayList<>()).add(other);
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    private static List<Event> overlapping(NavigableMap<Long, List<Event>> starts, long start, int excludeId) {
+        List<Event> result = new ArrayList<>();
+        if (starts == null) return result;
+        for (List<Event> events : starts.subMap(start - EVENT_MINUTES, false, start + EVENT_MINUTES, false).values()) {
+            for (Event event : events) {
+                if (event.getEventId() != excludeId) result.add(event);
+            }
+        }
+        return result;
+    }
+
+    private static Long start(Event event) {
+        return start(event.getDate(), event.getTime());
+    }
+
+    // Minutes since the epoch, in local wall-clock time
+    private static Long start(java.sql.Date date, java.sql.Time time) {
+        if (date == null || time == null) return null;
+        return date.toLocalDate().atTime(time.toLocalTime()).toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    private static String venueKey(String venue) {
+        return venue == null ? "" : venue.trim().toLowerCase();
+    }
+}
@@ -0,0 +1,288 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+// Versioned schema changes. The applied version is kept in schema_version and each
+// step runs once, in order, the first time the app starts against a database.
+public class SchemaMigrations {
+    interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final List<Step> STEPS = new ArrayList<>();
+    private static final Logger LOG = Logger.getLogger("eventsystem.schema");
+
+    // Statements on the app's hot paths, a sample parameter, and the index their plan
+    // must use, or alternatives separated by |. Index names are matched case-insensitively
+    // against the plan, so H2's generated suffixes and MySQL's PRIMARY both match.
+    static final String[][] PLANS = {
+        {"add student", "SELECT student_id FROM students WHERE email_norm = ?", "x@example.com", "uq_students_email_norm"},
+        {"seat count", "SELECT COUNT(*), SUM(CASE WHEN student_id = ? THEN 1 ELSE 0 END) FROM registrations "
+            + "WHERE event_id = ?", "1", "uq_registrations"},
+        {"roster", "SELECT student_id FROM registrations WHERE event_id = ?", "1", "uq_registrations"},
+        {"unregister", "SELECT 1 FROM registrations WHERE student_id = ? AND event_id = ?", "1",
+            "idx_registrations_student|uq_registrations"},
+        {"student's registrations", "SELECT event_id FROM registrations WHERE student_id = ?", "1", "idx_registrations_student"},
+        {"lock event", "SELECT capacity FROM events WHERE event_id = ? FOR UPDATE", "1", "primary"},
+        {"students page", "SELECT student_id, name, email FROM students WHERE name >= ? AND (name > ? OR (name = ? AND student_id > ?)) "
+            + "ORDER BY name, student_id LIMIT ?", "1", "idx_students_name_id"},
+        {"students page by email", "SELECT student_id, name, email FROM students WHERE email < ? "
+            + "ORDER BY email DESC LIMIT ?", "m", "uq_students_email|idx_students_email_desc"},
+        {"students page by id", "SELECT student_id, name, email FROM students WHERE student_id < ? "
+            + "ORDER BY student_id DESC LIMIT ?", "1000", "primary|idx_students_id_desc"},
+        {"name prefix search", "SELECT student_id FROM students WHERE name_norm LIKE ? ESCAPE '!'", "ab%", "idx_students_name_norm"},
+        {"change feed", ChangeFeed.POLL_SQL, "1", "primary"},
+        {"check-ins", "SELECT student_id, checked_in_at FROM check_ins WHERE event_id = ?", "1", "primary"},
+        {"name word search", "SELECT student_id FROM student_name_tokens WHERE token LIKE ? ESCAPE '!'", "ab%", "primary"},
+    };
+
+    static {
+        // 1: lower-cased copy of students.name with an index, for prefix search
+        STEPS.add(conn -> {
+            Statement stmt = conn.createStatement();
+            stmt.execute("ALTER TABLE students ADD COLUMN name_norm VARCHAR(100)");
+            stmt.execute("UPDATE students SET name_norm = LOWER(TRIM(name))");
+            stmt.execute("CREATE INDEX idx_students_name_norm ON students (name_norm)");
+        });
+        // 2: name search joins from matching students into their registrations
+        STEPS.add(conn -> conn.createStatement().execute(
+            "CREATE INDEX idx_registrations_student ON registrations (student_id, event_id)"));
+        // 3: one row per word of each name, so "starts a word" lookups are index range scans
+        STEPS.add(conn -> {
+            conn.createStatement().execute("CREATE TABLE student_name_tokens ("
+                + "token VARCHAR(100) NOT NULL, student_id INT NOT NULL, PRIMARY KEY (token, student_id))");
+            ResultSet rs = conn.createStatement().executeQuery("SELECT student_id, name FROM students");
+            PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO student_name_tokens (token, student_id) VALUES (?, ?)");
+            int pending = 0;
+            while (rs.next()) {
+                pending += StudentSearch.addTokens(insert, rs.getInt(1), rs.getString(2));
+                if (pending >= 1000) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+            insert.executeBatch();
+        });
+        // 4: keys of queued desk writes already applied, so a resent batch is not applied twice
+        STEPS.add(conn -> conn.createStatement().execute("CREATE TABLE sync_applied ("
+            + "op_key VARCHAR(36) NOT NULL PRIMARY KEY, result_id INT, applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"));
+        // 5: one student per email, enforced by the database so adding a student is a single
+        // INSERT; rows that already share an email are merged into the oldest one, and the
+        // merged students and their registrations as they were are kept in quarantine tables
+        STEPS.add(conn -> {
+            String merged = "student_id IN (SELECT student_id FROM students) AND student_id NOT IN "
+                + "(SELECT keep FROM (SELECT MIN(student_id) AS keep FROM students GROUP BY email) k)";
+            quarantine(conn, 5, "students", merged);
+            quarantine(conn, 5, "registrations", merged);
+            Statement stmt = conn.createStatement();
+            stmt.execute("UPDATE registrations SET student_id = (SELECT MIN(k.student_id) FROM students s "
+                + "JOIN students k ON k.email = s.email WHERE s.student_id = registrations.student_id) "
+                + "WHERE student_id IN (SELECT student_id FROM students)");
+            // the derived table is needed for MySQL, which cannot read the table it deletes from
+            stmt.execute("DELETE FROM students WHERE student_id NOT IN "
+                + "(SELECT keep FROM (SELECT MIN(student_id) AS keep FROM students GROUP BY email) k)");
+            stmt.execute("DELETE FROM student_name_tokens WHERE student_id NOT IN (SELECT student_id FROM students)");
+            stmt.execute("ALTER TABLE students ADD CONSTRAINT uq_students_email UNIQUE (email)");
+            // key order of the Students tab pages
+            stmt.execute("CREATE INDEX idx_students_name_id ON students (name, student_id)");
+        });
+        // 6: one row per registration; the unique index also serves every per-event lookup
+        STEPS.add(conn -> {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT event_id, student_id FROM registrations "
+                + "GROUP BY event_id, student_id HAVING COUNT(*) > 1");
+            List<int[]> duplicates = new ArrayList<>();
+            while (rs.next()) duplicates.add(new int[]{rs.getInt(1), rs.getInt(2)});
+            PreparedStatement delete = conn.prepareStatement(
+                "DELETE FROM registrations WHERE event_id = ? AND student_id = ?");
+            PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO registrations (event_id, student_id) VALUES (?, ?)");
+            for (int[] pair : duplicates) {
+                delete.setInt(1, pair[0]);
+                delete.setInt(2, pair[1]);
+                delete.executeUpdate();
+                insert.setInt(1, pair[0]);
+                insert.setInt(2, pair[1]);
+                insert.executeUpdate();
+            }
+            stmt.execute("ALTER TABLE registrations ADD CONSTRAINT uq_registrations UNIQUE (event_id, student_id)");
+        });
+        // 7: foreign keys, after moving rows that point at deleted events or students to quarantine
+        STEPS.add(conn -> {
+            String orphaned = "event_id NOT IN (SELECT event_id FROM events) "
+                + "OR student_id NOT IN (SELECT student_id FROM students)";
+            quarantine(conn, 7, "registrations", orphaned);
+            Statement stmt = conn.createStatement();
+            stmt.execute("DELETE FROM registrations WHERE " + orphaned);
+            stmt.execute("ALTER TABLE registrations ADD CONSTRAINT fk_registrations_event "
+                + "FOREIGN KEY (event_id) REFERENCES events (event_id) ON DELETE CASCADE");
+            stmt.execute("ALTER TABLE registrations ADD CONSTRAINT fk_registrations_student "
+                + "FOREIGN KEY (student_id) REFERENCES students (student_id) ON DELETE CASCADE");
+            stmt.execute("ALTER TABLE student_name_tokens ADD CONSTRAINT fk_name_tokens_student "
+                + "FOREIGN KEY (student_id) REFERENCES students (student_id) ON DELETE CASCADE");
+            stmt.execute("ALTER TABLE events ADD CONSTRAINT ck_events_capacity CHECK (capacity >= 0)");
+        });
+        // 8: one numbered row per committed insert or delete, which desks poll to
+        // see each other's changes (ChangeFeed)
+        STEPS.add(conn -> conn.createStatement().execute("CREATE TABLE change_log ("
+            + "seq BIGINT AUTO_INCREMENT PRIMARY KEY, entity VARCHAR(16) NOT NULL, kind VARCHAR(8) NOT NULL, "
+            + "entity_id INT NOT NULL, student_id INT, origin VARCHAR(36), changed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"));
+        // 9: attendance; a check-in belongs to a registration and goes when it does
+        STEPS.add(conn -> {
+            Statement stmt = conn.createStatement();
+            stmt.execute("CREATE TABLE check_ins (event_id INT NOT NULL, student_id INT NOT NULL, "
+                + "checked_in_at TIMESTAMP NOT NULL, PRIMARY KEY (event_id, student_id))");
+            stmt.execute("ALTER TABLE check_ins ADD CONSTRAINT fk_check_ins_registration FOREIGN KEY (event_id, student_id) "
+                + "REFERENCES registrations (event_id, student_id) ON DELETE CASCADE");
+        });
+        // 10: emails unique regardless of case, on every backend. Students that differ only in
+        // the case of their email are not merged here: they may have registrations and check-ins
+        // of their own, so the step stops and names them until someone merges them by hand.
+        STEPS.add(conn -> {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT LOWER(email), COUNT(*) FROM students "
+                + "GROUP BY LOWER(email) HAVING COUNT(*) > 1");
+            List<String> clashes = new ArrayList<>();
+            while (rs.next()) clashes.add(rs.getString(1) + " (" + rs.getInt(2) + " students)");
+            if (!clashes.isEmpty()) {
+                throw new SQLException("Students share an email apart from case; merge them and start again: "
+                    + String.join(", ", clashes.subList(0, Math.min(10, clashes.size())))
+                    + (clashes.size() > 10 ? " and " + (clashes.size() - 10) + " more" : ""));
+            }
+            stmt.execute("ALTER TABLE students ADD COLUMN email_norm VARCHAR(100) GENERATED ALWAYS AS (LOWER(email))");
+            stmt.execute("ALTER TABLE students ADD CONSTRAINT uq_students_email_norm UNIQUE (email_norm)");
+        });
+        // 11: descending students pages; MySQL reads the ascending indexes backwards, H2 cannot
+        // and would sort the whole table for every page
+        STEPS.add(conn -> {
+            if (DB.URL.startsWith("jdbc:mysql:")) return;
+            Statement stmt = conn.createStatement();
+            stmt.execute("CREATE INDEX idx_students_id_desc ON students (student_id DESC)");
+            stmt.execute("CREATE INDEX idx_students_name_id_desc ON students (name DESC, student_id DESC)");
+            stmt.execute("CREATE INDEX idx_students_email_desc ON students (email DESC)");
+        });
+    }
+
+    private SchemaMigrations() {
+    }
+
+    // Copies the rows of table that a step is about to delete or rewrite into
+    // quarantine_<step>_<table>, and logs how many, so a migration never loses data silently.
+    private static void quarantine(Connection conn, int step, String table, String where) throws SQLException {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table + " WHERE " + where);
+        rs.next();
+        int rows = rs.getInt(1);
+        if (rows == 0) return;
+        String copy = "quarantine_" + step + "_" + table;
+        stmt.execute("CREATE TABLE " + copy + " AS SELECT * FROM " + table + " WHERE " + where);
+        LOG.warning("Schema migration " + step + ": " + rows + " rows of " + table + " are changed or removed; "
+            + "the originals are kept in " + copy);
+    }
+
+    public static int latestVersion() {
+        return STEPS.size();
+    }
+
+    // Applies every step newer than the database's version; returns the resulting version.
+    public static int migrate() throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            Statement stmt = conn.createStatement();
+            createBaseTables(stmt);
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (version INT NOT NULL)");
+            ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version");
+            int version = rs.next() ? rs.getInt(1) : 0;
+
+            for (int v = version + 1; v <= STEPS.size(); v++) {
+                // MySQL commits DDL implicitly, so a failed step may be half applied
+                conn.setAutoCommit(false);
+                try {
+                    STEPS.get(v - 1).apply(conn);
+                    PreparedStatement record = conn.prepareStatement("INSERT INTO schema_version (version) VALUES (?)");
+                    record.setInt(1, v);
+                    record.executeUpdate();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Schema migration " + v + " failed: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                version = v;
+            }
+            return version;
+        }
+    }
+
+    // EXPLAINs every statement in PLANS; returns one line per statement whose plan does
+    // not use its index. Run with -Dschema.verifyPlans=true or through main().
+    public static List<String> verifyPlans() throws SQLException {
+        List<String> problems = new ArrayList<>();
+        try (Connection conn = DB.getConnection()) {
+            for (String[] plan : PLANS) {
+                PreparedStatement explain = conn.prepareStatement("EXPLAIN " + plan[1]);
+                int params = plan[1].length() - plan[1].replace("?", "").length();
+                for (int i = 1; i <= params; i++) explain.setString(i, plan[2]);
+                String used = planText(explain.executeQuery());
+                boolean indexed = false;
+                for (String index : plan[3].split("\\|")) indexed |= used.toLowerCase().contains(index);
+                if (!indexed) {
+                    problems.add(plan[0] + ": expected index " + plan[3] + ", plan was " + used);
+                }
+            }
+        }
+        return problems;
+    }
+
+    // H2 returns the plan as one text column; MySQL returns a row per table with the
+    // chosen index in the "key" column (null for a full scan)
+    private static String planText(ResultSet rs) throws SQLException {
+        boolean mysql = false;
+        ResultSetMetaData meta = rs.getMetaData();
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (meta.getColumnLabel(i).equalsIgnoreCase("key")) mysql = true;
+        }
+        StringBuilder text = new StringBuilder();
+        while (rs.next()) {
+            if (text.length() > 0) text.append("; ");
+            text.append(mysql ? rs.getString("table") + " " + rs.getString("key") : rs.getString(1));
+        }
+        return text.toString().replaceAll("\\s+", " ");
+    }
+
+    static void logPlanProblems() {
+        try {
+            for (String problem : verifyPlans()) LOG.warning("Query plan: " + problem);
+        } catch (SQLException e) {
+            LOG.warning("Query plans could not be checked: " + e.getMessage());
+        }
+    }
+
+    // Migrates the database from -Ddb.url and checks the query plans; exits with 1 if any
+    // statement is not using its index. The build runs the same check, and the SQL the page
+    // sources, name search and change feed really send, in QueryPlanTest.
+    public static void main(String[] args) throws SQLException {
+        System.out.println("Schema version " + migrate());
+        List<String> problems = verifyPlans();
+        for (String problem : problems) System.out.println("FAIL " + problem);
+        System.out.println((PLANS.length - problems.size()) + " of " + PLANS.length + " statements use their index");
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+
+    // The tables as the app was first written against them, for an empty database.
+    // Existing databases already have them and are left alone.
+    private static void createBaseTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS events (event_id INT AUTO_INCREMENT PRIMARY KEY, "
+            + "title VARCHAR(100) NOT NULL, event_date DATE, event_time TIME, venue VARCHAR(100), capacity INT NOT NULL)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS students (student_id INT AUTO_INCREMENT PRIMARY KEY, "
+            + "name VARCHAR(100) NOT NULL, email VARCHAR(100) NOT NULL)");
+        stmt.execute("CREATE TABLE IF NOT EXISTS registrations (student_id INT NOT NULL, event_id INT NOT NULL)");
+    }
+
+    // Lower-cased form of a name as stored in students.name_norm.
+    public static String normalize(String name) {
+        return name == null ? null : name.trim().toLowerCase();
+    }
+}
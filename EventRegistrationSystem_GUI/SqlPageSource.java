@@ -0,0 +1,146 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Keyset-paginated query: SELECT <columns> FROM <from> [WHERE <where>] ORDER BY <key columns>,
+// all ascending or all descending. The key columns must be unique together and also appear
+// in the select list.
+public class SqlPageSource implements PagedTableModel.PageSource {
+    private final String columns;
+    private final String from;
+    private final String where;
+    private final Object[] params;
+    private final String[] keyColumns;
+    private final int[] keyIndexes;
+    private final boolean descending;
+
+    public SqlPageSource(String columns, String from, String where, Object[] params,
+                         String[] keyColumns, int[] keyIndexes) {
+        this(columns, from, where, params, keyColumns, keyIndexes, false);
+    }
+
+    public SqlPageSource(String columns, String from, String where, Object[] params,
+                         String[] keyColumns, int[] keyIndexes, boolean descending) {
+        this.columns = columns;
+        this.from = from;
+        this.where = where;
+        this.params = params == null ? new Object[0] : params;
+        this.keyColumns = keyColumns;
+        this.keyIndexes = keyIndexes;
+        this.descending = descending;
+    }
+
+    public int count() throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(countSql());
+            bind(stmt, null);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    public List<Object[]> fetch(Object[] afterKey, int limit) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(fetchSql(afterKey));
+            int next = bind(stmt, afterKey);
+            stmt.setInt(next, limit);
+            ResultSet rs = stmt.executeQuery();
+            int width = rs.getMetaData().getColumnCount();
+            List<Object[]> rows = new ArrayList<>(limit);
+            while (rs.next()) {
+                Object[] row = new Object[width];
+                for (int i = 0; i < width; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+
+    public Object[] keyAt(int offset) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                "SELECT " + String.join(", ", keyColumns) + " FROM " + from + whereClause(null)
+                + orderBy() + " LIMIT 1 OFFSET ?");
+            int next = bind(stmt, null);
+            stmt.setInt(next, offset);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) return null;
+            Object[] key = new Object[keyColumns.length];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = rs.getObject(i + 1);
+            }
+            return key;
+        }
+    }
+
+    public Object[] keyOf(Object[] row) {
+        Object[] key = new Object[keyIndexes.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = row[keyIndexes[i]];
+        }
+        return key;
+    }
+
+    String countSql() {
+        return "SELECT COUNT(*) FROM " + from + whereClause(null);
+    }
+
+    // The page after afterKey (the first page if null); bind() fills all but the last
+    // parameter, which is the row limit
+    String fetchSql(Object[] afterKey) {
+        return "SELECT " + columns + " FROM " + from + whereClause(afterKey) + orderBy() + " LIMIT ?";
+    }
+
+    private String whereClause(Object[] afterKey) {
+        List<String> parts = new ArrayList<>();
+        if (where != null) parts.add("(" + where + ")");
+        if (afterKey != null) {
+            // k1 >= ? on its own, which the database can seek to in the index; the OR
+            // below is not an index range by itself
+            if (keyColumns.length > 1) parts.add(keyColumns[0] + (descending ? " <= ?" : " >= ?"));
+            // (k1 > ?) OR (k1 = ? AND k2 > ?) OR ..., with < when descending
+            List<String> alternatives = new ArrayList<>();
+            for (int i = 0; i < keyColumns.length; i++) {
+                StringBuilder alt = new StringBuilder("(");
+                for (int j = 0; j < i; j++) {
+                    alt.append(keyColumns[j]).append(" = ? AND ");
+                }
+                alt.append(keyColumns[i]).append(descending ? " < ?)" : " > ?)");
+                alternatives.add(alt.toString());
+            }
+            parts.add("(" + String.join(" OR ", alternatives) + ")");
+        }
+        return parts.isEmpty() ? "" : " WHERE " + String.join(" AND ", parts);
+    }
+
+    private String orderBy() {
+        if (!descending) return " ORDER BY " + String.join(", ", keyColumns);
+        return " ORDER BY " + String.join(" DESC, ", keyColumns) + " DESC";
+    }
+
+    // Binds the filter parameters and then the keyset parameters; returns the next free index.
+    int bind(PreparedStatement stmt, Object[] afterKey) throws SQLException {
+        int index = 1;
+        for (Object param : params) {
+            stmt.setObject(index++, param);
+        }
+        if (afterKey != null) {
+            if (keyColumns.length > 1) stmt.setObject(index++, afterKey[0]);
+            for (int i = 0; i < keyColumns.length; i++) {
+                for (int j = 0; j <= i; j++) {
+                    stmt.setObject(index++, afterKey[j]);
+                }
+            }
+        }
+        return index;
+    }
+
+    public String toString() {
+        return "SqlPageSource[" + from + " " + where + " " + Arrays.toString(params)
+            + (descending ? " desc" : "") + "]";
+    }
+}
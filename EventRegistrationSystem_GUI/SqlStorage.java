@@ -0,0 +1,584 @@
+import java.sql.*;
+import java.util.*;
+import java.util.function.IntSupplier;
+
+// Storage on the shared database, through the DB connection pool.
+public class SqlStorage implements Storage {
+    public void open() throws SQLException {
+        SchemaMigrations.migrate();
+        if (Boolean.getBoolean("schema.verifyPlans")) SchemaMigrations.logPlanProblems();
+    }
+
+    public void close() {
+        // the pool is closed by DB's shutdown hook
+    }
+
+    public List<Event> events() throws SQLException {
+        List<Event> events = new ArrayList<>();
+        try (Connection conn = DB.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM events");
+            while (rs.next()) {
+                events.add(readEvent(rs));
+            }
+        }
+        return events;
+    }
+
+    public Event event(int eventId) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement("SELECT * FROM events WHERE event_id = ?");
+            stmt.setInt(1, eventId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? readEvent(rs) : null;
+        }
+    }
+
+    public Event addEvent(String title, java.sql.Date date, java.sql.Time time, String venue, int capacity)
+            throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement insertStmt = conn.prepareStatement(
+                    "INSERT INTO events (title, event_date, event_time, venue, capacity) VALUES (?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+                insertStmt.setString(1, title);
+                insertStmt.setDate(2, date);
+                insertStmt.setTime(3, time);
+                insertStmt.setString(4, venue);
+                insertStmt.setInt(5, capacity);
+                insertStmt.executeUpdate();
+                Event event = new Event(generatedId(insertStmt), title, date, time, venue, capacity);
+                ChangeFeed.record(conn, EntityBus.Type.EVENT, EntityBus.Kind.ADDED, event.getEventId(), 0);
+                conn.commit();
+                return event;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public List<Student> students() throws SQLException {
+        List<Student> students = new ArrayList<>();
+        try (Connection conn = DB.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT student_id, name, email FROM students");
+            while (rs.next()) {
+                students.add(readStudent(rs));
+            }
+        }
+        return students;
+    }
+
+    // Batched IN lists of 500 ids
+    public Map<Integer, Student> students(Collection<Integer> ids) throws SQLException {
+        Map<Integer, Student> result = new HashMap<>();
+        List<Integer> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += 500) {
+            List<Integer> chunk = all.subList(from, Math.min(all.size(), from + 500));
+            try (Connection conn = DB.getConnection()) {
+                PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT student_id, name, email FROM students WHERE student_id IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")");
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    Student student = readStudent(rs);
+                    result.put(student.getStudentId(), student);
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<Student> studentsAfter(int afterId) throws SQLException {
+        List<Student> students = new ArrayList<>();
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                "SELECT student_id, name, email FROM students WHERE student_id > ? ORDER BY student_id");
+            stmt.setInt(1, afterId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                students.add(readStudent(rs));
+            }
+        }
+        return students;
+    }
+
+    public Set<String> studentEmails() throws SQLException {
+        Set<String> emails = new HashSet<>();
+        try (Connection conn = DB.getConnection()) {
+            ResultSet rs = conn.createStatement().executeQuery("SELECT email FROM students");
+            while (rs.next()) {
+                emails.add(rs.getString(1).toLowerCase());
+            }
+        }
+        return emails;
+    }
+
+    // The unique index on the lower-cased email does the duplicate check, so this is a single INSERT.
+    public Student addStudent(String name, String email) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO students (name, email, name_norm) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+                stmt.setString(1, name);
+                stmt.setString(2, email);
+                stmt.setString(3, SchemaMigrations.normalize(name));
+                try {
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    if (!isDuplicateKey(e)) throw e;
+                    conn.rollback();
+                    return null;
+                }
+                Student student = new Student(generatedId(stmt), name, email);
+                StudentSearch.indexNames(conn, Collections.singletonMap(student.getStudentId(), name));
+                ChangeFeed.record(conn, EntityBus.Type.STUDENT, EntityBus.Kind.ADDED, student.getStudentId(), 0);
+                conn.commit();
+                return student;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // One JDBC batch in one transaction; if the batch fails it is rolled back and
+    // retried row by row so one bad row does not sink the rest.
+    public List<Student> addStudents(List<String[]> rows, Rejections rejected) throws SQLException {
+        List<Student> added = new ArrayList<>();
+        if (rows.isEmpty()) return added;
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO students (name, email, name_norm) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+            try {
+                for (String[] row : rows) {
+                    insert.setString(1, row[0]);
+                    insert.setString(2, row[1]);
+                    insert.setString(3, SchemaMigrations.normalize(row[0]));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                List<Student> inserted = inserted(insert, rows);
+                StudentSearch.indexNames(conn, names(inserted));
+                ChangeFeed.record(conn, EntityBus.Type.STUDENT, EntityBus.Kind.ADDED, ids(inserted));
+                conn.commit();
+                added.addAll(inserted);
+            } catch (SQLException e) {
+                conn.rollback();
+                insert.clearBatch();
+                for (String[] row : rows) {
+                    try {
+                        insert.setString(1, row[0]);
+                        insert.setString(2, row[1]);
+                        insert.setString(3, SchemaMigrations.normalize(row[0]));
+                        insert.executeUpdate();
+                        List<Student> inserted = inserted(insert, Collections.singletonList(row));
+                        StudentSearch.indexNames(conn, names(inserted));
+                        ChangeFeed.record(conn, EntityBus.Type.STUDENT, EntityBus.Kind.ADDED, ids(inserted));
+                        conn.commit();
+                        added.addAll(inserted);
+                    } catch (SQLException rowError) {
+                        conn.rollback();
+                        rejected.reject(row, isDuplicateKey(rowError) ? "duplicate email" : rowError.getMessage());
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    // Pairs the generated student ids with the rows just inserted, in insert order.
+    private static List<Student> inserted(PreparedStatement insert, List<String[]> rows) throws SQLException {
+        List<Student> students = new ArrayList<>();
+        ResultSet keys = insert.getGeneratedKeys();
+        for (int i = 0; i < rows.size() && keys.next(); i++) {
+            students.add(new Student(keys.getInt(1), rows.get(i)[0], rows.get(i)[1]));
+        }
+        return students;
+    }
+
+    private static Map<Integer, String> names(List<Student> students) {
+        Map<Integer, String> names = new LinkedHashMap<>();
+        for (Student student : students) names.put(student.getStudentId(), student.getName());
+        return names;
+    }
+
+    // {student id, 0} for ChangeFeed.record
+    private static List<int[]> ids(List<Student> students) {
+        List<int[]> ids = new ArrayList<>(students.size());
+        for (Student student : students) ids.add(new int[]{student.getStudentId(), 0});
+        return ids;
+    }
+
+    // Each call is one transaction that locks the event row (SELECT ... FOR UPDATE), so
+    // capacity and duplicate checks cannot race between desks.
+    public RegistrationService.Result register(int studentId, int eventId) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                RegistrationService.Result result = reserve(conn, studentId, eventId);
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Must run inside a transaction; the FOR UPDATE lock is held until it ends.
+    private static RegistrationService.Result reserve(Connection conn, int studentId, int eventId) throws SQLException {
+        PreparedStatement lockEvent = conn.prepareStatement(
+            "SELECT capacity FROM events WHERE event_id = ? FOR UPDATE");
+        lockEvent.setInt(1, eventId);
+        ResultSet rs = lockEvent.executeQuery();
+        if (!rs.next()) return RegistrationService.Result.NO_SUCH_EVENT;
+        int capacity = rs.getInt(1);
+
+        PreparedStatement existing = conn.prepareStatement(
+            "SELECT COUNT(*), SUM(CASE WHEN student_id = ? THEN 1 ELSE 0 END) FROM registrations WHERE event_id = ?");
+        existing.setInt(1, studentId);
+        existing.setInt(2, eventId);
+        rs = existing.executeQuery();
+        rs.next();
+        int registered = rs.getInt(1);
+        if (rs.getInt(2) > 0) return RegistrationService.Result.DUPLICATE;
+        if (registered >= capacity) return RegistrationService.Result.FULL;
+
+        PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO registrations (student_id, event_id) VALUES (?, ?)");
+        insert.setInt(1, studentId);
+        insert.setInt(2, eventId);
+        insert.executeUpdate();
+        ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.ADDED, eventId, studentId);
+        return RegistrationService.Result.REGISTERED;
+    }
+
+    public int unregister(int studentId, int eventId, IntSupplier waiting) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement lockEvent = conn.prepareStatement(
+                    "SELECT capacity FROM events WHERE event_id = ? FOR UPDATE");
+                lockEvent.setInt(1, eventId);
+                lockEvent.executeQuery();
+
+                PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM registrations WHERE student_id = ? AND event_id = ?");
+                stmt.setInt(1, studentId);
+                stmt.setInt(2, eventId);
+                if (stmt.executeUpdate() == 0) {
+                    conn.commit();
+                    return -1;
+                }
+                ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.REMOVED, eventId, studentId);
+
+                int promoted = 0;
+                int next;
+                while ((next = waiting.getAsInt()) != 0) {
+                    RegistrationService.Result result = reserve(conn, next, eventId);
+                    if (result == RegistrationService.Result.REGISTERED) {
+                        promoted = next;
+                        break;
+                    }
+                    // only students who are already registered are skipped; if the seat is gone, nobody fits
+                    if (result != RegistrationService.Result.DUPLICATE) break;
+                }
+                conn.commit();
+                return promoted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // One transaction for the whole batch: the event row is locked once, the count and the
+    // batch's existing registrations are read once, and the new rows go in as one JDBC batch.
+    public Map<Integer, RegistrationService.Result> registerAll(int eventId, List<Integer> studentIds)
+            throws SQLException {
+        Map<Integer, RegistrationService.Result> results = new LinkedHashMap<>();
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement lockEvent = conn.prepareStatement(
+                    "SELECT capacity FROM events WHERE event_id = ? FOR UPDATE");
+                lockEvent.setInt(1, eventId);
+                ResultSet rs = lockEvent.executeQuery();
+                if (!rs.next()) {
+                    conn.commit();
+                    for (Integer id : studentIds) results.put(id, RegistrationService.Result.NO_SUCH_EVENT);
+                    return results;
+                }
+                int capacity = rs.getInt(1);
+
+                PreparedStatement count = conn.prepareStatement("SELECT COUNT(*) FROM registrations WHERE event_id = ?");
+                count.setInt(1, eventId);
+                rs = count.executeQuery();
+                rs.next();
+                int registered = rs.getInt(1);
+
+                Set<Integer> existing = registered(conn, eventId, studentIds);
+                List<int[]> changes = new ArrayList<>();
+                PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO registrations (student_id, event_id) VALUES (?, ?)");
+                for (Integer studentId : studentIds) {
+                    if (results.containsKey(studentId)) continue;
+                    if (existing.contains(studentId)) {
+                        results.put(studentId, RegistrationService.Result.DUPLICATE);
+                    } else if (registered >= capacity) {
+                        results.put(studentId, RegistrationService.Result.FULL);
+                    } else {
+                        insert.setInt(1, studentId);
+                        insert.setInt(2, eventId);
+                        insert.addBatch();
+                        changes.add(new int[]{eventId, studentId});
+                        registered++;
+                        results.put(studentId, RegistrationService.Result.REGISTERED);
+                    }
+                }
+                insert.executeBatch();
+                ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.ADDED, changes);
+                conn.commit();
+                return results;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public List<Integer> unregisterAll(int eventId, List<Integer> studentIds, IntSupplier waiting, List<Integer> promoted)
+            throws SQLException {
+        List<Integer> removed = new ArrayList<>();
+        try (Connection conn = DB.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement lockEvent = conn.prepareStatement(
+                    "SELECT capacity FROM events WHERE event_id = ? FOR UPDATE");
+                lockEvent.setInt(1, eventId);
+                lockEvent.executeQuery();
+
+                Set<Integer> existing = registered(conn, eventId, studentIds);
+                PreparedStatement delete = conn.prepareStatement(
+                    "DELETE FROM registrations WHERE student_id = ? AND event_id = ?");
+                for (Integer studentId : studentIds) {
+                    if (!existing.remove(studentId)) continue;
+                    delete.setInt(1, studentId);
+                    delete.setInt(2, eventId);
+                    delete.addBatch();
+                    removed.add(studentId);
+                }
+                delete.executeBatch();
+                List<int[]> changes = new ArrayList<>(removed.size());
+                for (Integer studentId : removed) changes.add(new int[]{eventId, studentId});
+                ChangeFeed.record(conn, EntityBus.Type.REGISTRATION, EntityBus.Kind.REMOVED, changes);
+
+                int next;
+                List<Integer> filled = new ArrayList<>();
+                while (filled.size() < removed.size() && (next = waiting.getAsInt()) != 0) {
+                    RegistrationService.Result result = reserve(conn, next, eventId);
+                    if (result == RegistrationService.Result.REGISTERED) filled.add(next);
+                    else if (result != RegistrationService.Result.DUPLICATE) break;
+                }
+                conn.commit();
+                promoted.addAll(filled);
+                return removed;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Which of the given students are registered for the event, in IN lists of 500
+    private static Set<Integer> registered(Connection conn, int eventId, List<Integer> studentIds) throws SQLException {
+        Set<Integer> found = new HashSet<>();
+        for (int from = 0; from < studentIds.size(); from += 500) {
+            List<Integer> chunk = studentIds.subList(from, Math.min(studentIds.size(), from + 500));
+            PreparedStatement stmt = conn.prepareStatement(
+                "SELECT student_id FROM registrations WHERE event_id = ? AND student_id IN ("
+                + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")");
+            stmt.setInt(1, eventId);
+            for (int i = 0; i < chunk.size(); i++) {
+                stmt.setInt(i + 2, chunk.get(i));
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                found.add(rs.getInt(1));
+            }
+        }
+        return found;
+    }
+
+    public void forEachRegistration(RegistrationVisitor visitor) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            Statement stmt = conn.createStatement();
+            stmt.setFetchSize(BulkTransfer.CHUNK_SIZE);
+            ResultSet rs = stmt.executeQuery("SELECT event_id, student_id FROM registrations");
+            while (rs.next()) {
+                visitor.visit(rs.getInt(1), rs.getInt(2));
+            }
+        }
+    }
+
+    public Map<Integer, Long> checkIns(int eventId) throws SQLException {
+        Map<Integer, Long> checkIns = new HashMap<>();
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement stmt = conn.prepareStatement(
+                "SELECT student_id, checked_in_at FROM check_ins WHERE event_id = ?");
+            stmt.setInt(1, eventId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                checkIns.put(rs.getInt(1), rs.getTimestamp(2).getTime());
+            }
+        }
+        return checkIns;
+    }
+
+    // One batch of INSERT ... SELECTs that only insert where the registration exists and
+    // the check-in does not, so neither the foreign key nor the primary key can fail the
+    // batch. Only another desk checking in the same student at the same moment can, and
+    // then the batch is simply tried again.
+    public List<Integer> checkIn(int eventId, Map<Integer, Long> checkIns) throws SQLException {
+        if (checkIns.isEmpty()) return Collections.emptyList();
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = DB.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement insert = conn.prepareStatement(
+                        "INSERT INTO check_ins (event_id, student_id, checked_in_at) "
+                        + "SELECT event_id, student_id, ? FROM registrations WHERE event_id = ? AND student_id = ? "
+                        + "AND NOT EXISTS (SELECT 1 FROM check_ins c WHERE c.event_id = ? AND c.student_id = ?)");
+                    List<Integer> ids = new ArrayList<>(checkIns.keySet());
+                    for (Integer studentId : ids) {
+                        insert.setTimestamp(1, new Timestamp(checkIns.get(studentId)));
+                        insert.setInt(2, eventId);
+                        insert.setInt(3, studentId);
+                        insert.setInt(4, eventId);
+                        insert.setInt(5, studentId);
+                        insert.addBatch();
+                    }
+                    int[] counts = insert.executeBatch();
+                    List<int[]> changes = new ArrayList<>();
+                    List<Integer> inserted = new ArrayList<>();
+                    for (int i = 0; i < counts.length; i++) {
+                        // SUCCESS_NO_INFO (-2) does not say a row went in
+                        if (counts[i] > 0) {
+                            changes.add(new int[]{eventId, ids.get(i)});
+                            inserted.add(ids.get(i));
+                        }
+                    }
+                    ChangeFeed.record(conn, EntityBus.Type.CHECK_IN, EntityBus.Kind.ADDED, changes);
+                    conn.commit();
+                    return inserted;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    if (!isDuplicateKey(e) || attempt >= 3) throw e;
+                }
+            }
+        }
+    }
+
+    public PagedTableModel.PageSource eventPages() {
+        return new SqlPageSource(
+            "event_id, title, event_date, event_time, venue, capacity", "events", null, null,
+            new String[]{"event_id"}, new int[]{0});
+    }
+
+    public PagedTableModel.PageSource studentPages() {
+        return studentPages(StudentQuery.ALL);
+    }
+
+    // Each sort order has an index to walk (primary key, idx_students_name_id,
+    // uq_students_email), forwards or backwards; on H2, which cannot walk one backwards,
+    // descending orders use the *_desc indexes. Prefix filters use
+    // idx_students_name_norm or uq_students_email_norm; contains filters have to scan.
+    public PagedTableModel.PageSource studentPages(StudentQuery query) {
+        String[] keyColumns;
+        int[] keyIndexes;
+        switch (query.sortBy) {
+            case ID:
+                keyColumns = new String[]{"student_id"};
+                keyIndexes = new int[]{0};
+                break;
+            case EMAIL:
+                keyColumns = new String[]{"email"};
+                keyIndexes = new int[]{2};
+                break;
+            default:
+                keyColumns = new String[]{"name", "student_id"};
+                keyIndexes = new int[]{1, 0};
+        }
+
+        String where = null;
+        Object[] params = null;
+        if (query.filterOn == StudentQuery.Column.ID && !query.text.isEmpty()) {
+            where = "student_id = ?";
+            params = new Object[]{query.id()};
+        } else if (!query.text.isEmpty()) {
+            String escaped = StudentSearch.escapeLike(query.text);
+            String pattern = query.match == StudentQuery.Match.PREFIX ? escaped + "%" : "%" + escaped + "%";
+            switch (query.filterOn) {
+                case EMAIL:
+                    // the text is lower case, as is email_norm on every backend; a prefix uses its index
+                    where = "email_norm LIKE ? ESCAPE '!'";
+                    break;
+                default:
+                    where = "name_norm LIKE ? ESCAPE '!'";
+            }
+            params = new Object[]{pattern};
+        }
+        return new SqlPageSource("student_id, name, email", "students", where, params,
+            keyColumns, keyIndexes, query.descending);
+    }
+
+    public PagedTableModel.PageSource search(String query) {
+        return new StudentSearch(query);
+    }
+
+    public PagedTableModel.PageSource findStudents(String filter) {
+        String q = filter == null ? "" : SchemaMigrations.normalize(filter);
+        if (q.isEmpty()) return studentPages();
+        String like = "%" + StudentSearch.escapeLike(q) + "%";
+        return new SqlPageSource(
+            "student_id, name, email", "students",
+            "(name_norm LIKE ? ESCAPE '!' OR LOWER(email) LIKE ? ESCAPE '!')", new Object[]{like, like},
+            new String[]{"name", "student_id"}, new int[]{1, 0});
+    }
+
+    static Event readEvent(ResultSet rs) throws SQLException {
+        return new Event(
+            rs.getInt("event_id"),
+            rs.getString("title"),
+            rs.getDate("event_date"),
+            rs.getTime("event_time"),
+            rs.getString("venue"),
+            rs.getInt("capacity"));
+    }
+
+    static Student readStudent(ResultSet rs) throws SQLException {
+        return new Student(rs.getInt("student_id"), rs.getString("name"), rs.getString("email"));
+    }
+
+    // Unique or primary key violation: SQLState 23505 on H2, error 1062 on MySQL
+    static boolean isDuplicateKey(SQLException e) {
+        return "23505".equals(e.getSQLState()) || e.getErrorCode() == 1062;
+    }
+
+    // Insert pointing at a missing event or student: 23506 on H2, 1452 on MySQL
+    static boolean isMissingParent(SQLException e) {
+        return "23506".equals(e.getSQLState()) || e.getErrorCode() == 1452;
+    }
+
+    private static int generatedId(Statement stmt) throws SQLException {
+        ResultSet keys = stmt.getGeneratedKeys();
+        if (!keys.next()) throw new SQLException("No generated key returned");
+        return keys.getInt(1);
+    }
+}
@@ -0,0 +1,224 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Startup work that must not hold up the first window: opening storage (migrations, log
+// replay) runs on a background thread, and loads wait for it in awaitStorage(). Also keeps
+// the last-known first page of each table on disk so it can be shown before the database
+// answers, and the time of each startup phase since JVM start for the startup report.
+public class Startup {
+    static final Path CACHE_DIR = Paths.get(System.getProperty("startup.cacheDir",
+        Paths.get(LocalStorage.DIR, "ui-cache").toString()));
+    static final boolean WARM = Boolean.parseBoolean(System.getProperty("startup.warm", "true"));
+    // a snapshot is a first page, never more than this
+    static final int MAX_SNAPSHOT_ROWS = 10000;
+    static final int MAX_SNAPSHOT_COLUMNS = 64;
+
+    private static final int MAGIC = 0x45525331;
+    private static final int FORMAT = 1;
+    // cell types
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DATE = 4;
+    private static final byte TIME = 5;
+
+    private static final Logger LOG = Logger.getLogger("eventsystem.startup");
+    private static final long JVM_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private static final Map<String, Long> PHASES = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final CompletableFuture<Void> STORAGE = new CompletableFuture<>();
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "snapshot-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private static volatile boolean reported;
+
+    private Startup() {
+    }
+
+    // Milliseconds since JVM start at which phase was first reached; later marks are ignored.
+    public static void mark(String phase) {
+        PHASES.putIfAbsent(phase, System.currentTimeMillis() - JVM_START);
+    }
+
+    public static Map<String, Long> phases() {
+        synchronized (PHASES) {
+            return new LinkedHashMap<>(PHASES);
+        }
+    }
+
+    // Logs the phases once, when the first fresh rows are on screen
+    public static void firstData(String table) {
+        mark("data:" + table);
+        if (reported) return;
+        reported = true;
+        StringBuilder report = new StringBuilder("startup (ms since JVM start):");
+        for (Map.Entry<String, Long> phase : phases().entrySet()) {
+            report.append(' ').append(phase.getKey()).append('=').append(phase.getValue());
+        }
+        LOG.info(report.toString());
+    }
+
+    public static void openStorage() {
+        Thread t = new Thread(() -> {
+            try {
+                Storage.get().open();
+                AuditLog.open();
+                // other desks' changes, for the backends that share the database; the feed's
+                // starting point is taken before any panel can read
+                boolean shared = !(Storage.get() instanceof LocalStorage);
+                if (shared) ChangeFeed.markStart();
+                mark("storage");
+                STORAGE.complete(null);
+                if (shared) ChangeFeed.start();
+            } catch (Throwable e) {
+                LOG.log(Level.SEVERE, "Storage could not be opened", e);
+                STORAGE.completeExceptionally(e);
+            }
+        }, "storage-open");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Blocks until openStorage() is done; returns at once if it was never called (tools, benchmarks).
+    public static void awaitStorage() throws SQLException, InterruptedException {
+        if (!PHASES.containsKey("main")) return;
+        try {
+            STORAGE.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException("Storage could not be opened: " + cause, cause);
+        }
+    }
+
+    // Snapshots: the row count and first rows of a table as last seen, or null if none.
+    // The cache directory is the user's to write, so a snapshot is plain data read field by
+    // field, like LocalStorage's: magic, format, count, rows, each cell a type byte and value.
+
+    public static Snapshot readSnapshot(String name) {
+        if (!WARM) return null;
+        Path file = CACHE_DIR.resolve(name + ".dat");
+        if (!Files.exists(file)) return null;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT) return null;
+            int count = in.getInt();
+            int size = in.getInt();
+            if (size < 0 || size > MAX_SNAPSHOT_ROWS) return null;
+            ArrayList<Object[]> rows = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int columns = in.get();
+                if (columns < 0 || columns > MAX_SNAPSHOT_COLUMNS) return null;
+                Object[] row = new Object[columns];
+                for (int c = 0; c < columns; c++) row[c] = readCell(in);
+                rows.add(row);
+            }
+            return new Snapshot(count, rows);
+        } catch (IOException | RuntimeException e) {
+            // an old or damaged snapshot is only a missed head start
+            return null;
+        }
+    }
+
+    // Written in the background; the file is replaced atomically so a reader never sees half of it.
+    // Rows holding a value of another type are not cached.
+    public static void writeSnapshot(String name, int count, List<Object[]> rows) {
+        if (!WARM || rows.size() > MAX_SNAPSHOT_ROWS) return;
+        List<Object[]> copy = new ArrayList<>(rows);
+        WRITER.execute(() -> {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(count);
+                out.writeInt(copy.size());
+                for (Object[] row : copy) {
+                    if (row.length > MAX_SNAPSHOT_COLUMNS) return;
+                    out.writeByte(row.length);
+                    for (Object value : row) {
+                        if (!writeCell(out, value)) return;
+                    }
+                }
+                Files.createDirectories(CACHE_DIR);
+                Path tmp = CACHE_DIR.resolve(name + ".tmp");
+                Files.write(tmp, bytes.toByteArray());
+                Files.move(tmp, CACHE_DIR.resolve(name + ".dat"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                // from before snapshots were plain data
+                Files.deleteIfExists(CACHE_DIR.resolve(name + ".ser"));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Writing the " + name + " snapshot failed", e);
+            }
+        });
+    }
+
+    private static boolean writeCell(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            AppendLog.putString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof java.sql.Time) {
+            out.writeByte(TIME);
+            out.writeLong(((java.sql.Time) value).getTime());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readCell(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING: {
+                int length = in.getInt();
+                if (length < 0 || length > in.remaining()) throw new IOException("Bad string length " + length);
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case DATE:
+                return new java.sql.Date(in.getLong());
+            case TIME:
+                return new java.sql.Time(in.getLong());
+            default:
+                throw new IOException("Unknown cell type " + type);
+        }
+    }
+
+    public static class Snapshot {
+        public final int count;
+        public final ArrayList<Object[]> rows;
+
+        Snapshot(int count, ArrayList<Object[]> rows) {
+            this.count = count;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+// Where events, students and registrations are kept. SqlStorage is the shared MySQL
+// database (through DB); LocalStorage is an embedded store on local disk for desks that
+// cannot rely on the server; QueuedStorage reads from the server but queues writes on
+// local disk and sends them in the background, for desks on a slow or flaky link. The
+// backend is chosen with -Dstorage=sql|local|queued.
+//
+// Callers normally go through Repository, RegistrationService and RosterIndex, which add
+// caching, locking and change notification on top. Every backend reports failures as
+// SQLException so callers handle both the same way.
+public interface Storage extends AutoCloseable {
+    String BACKEND = System.getProperty("storage", "sql");
+
+    // Called once before first use: schema migrations, or recovery of the local files.
+    void open() throws SQLException;
+
+    void close() throws SQLException;
+
+    // Events
+
+    List<Event> events() throws SQLException;
+
+    // null if there is no such event
+    Event event(int eventId) throws SQLException;
+
+    Event addEvent(String title, java.sql.Date date, java.sql.Time time, String venue, int capacity) throws SQLException;
+
+    // Students
+
+    List<Student> students() throws SQLException;
+
+    // Only the ids that exist are in the result
+    Map<Integer, Student> students(Collection<Integer> ids) throws SQLException;
+
+    // Students with an id above afterId, in id order
+    List<Student> studentsAfter(int afterId) throws SQLException;
+
+    // Lower-cased emails of every student, for duplicate checks on import
+    Set<String> studentEmails() throws SQLException;
+
+    // Returns null if a student with this email already exists
+    Student addStudent(String name, String email) throws SQLException;
+
+    // Inserts many students; rows that cannot be stored are reported to rejected and skipped.
+    List<Student> addStudents(List<String[]> namesAndEmails, Rejections rejected) throws SQLException;
+
+    interface Rejections {
+        void reject(String[] row, String reason);
+    }
+
+    // Registrations
+
+    // Checks capacity and duplicates and inserts the registration as one atomic step.
+    RegistrationService.Result register(int studentId, int eventId) throws SQLException;
+
+    // Removes a registration and, in the same atomic step, registers the first student
+    // from waiting (0 = nobody left), skipping only students already registered and
+    // stopping once the event is full. Returns the promoted student id, 0 if nobody was
+    // promoted, or -1 if there was no such registration.
+    int unregister(int studentId, int eventId, IntSupplier waiting) throws SQLException;
+
+    // Registers many students for one event as one atomic step, checking capacity once for
+    // the batch; the first ones in list order get the free seats. Returns each distinct
+    // student's result in list order (REGISTERED, DUPLICATE, FULL or NO_SUCH_EVENT).
+    Map<Integer, RegistrationService.Result> registerAll(int eventId, List<Integer> studentIds) throws SQLException;
+
+    // Removes many registrations of one event as one atomic step, then fills the freed
+    // seats from waiting like unregister. Returns the students actually removed and adds
+    // the promoted ones to promoted.
+    List<Integer> unregisterAll(int eventId, List<Integer> studentIds, IntSupplier waiting, List<Integer> promoted)
+        throws SQLException;
+
+    void forEachRegistration(RegistrationVisitor visitor) throws SQLException;
+
+    interface RegistrationVisitor {
+        void visit(int eventId, int studentId);
+    }
+
+    // Check-ins
+
+    // Student id -> check-in time (epoch millis) of everyone checked in to the event
+    Map<Integer, Long> checkIns(int eventId) throws SQLException;
+
+    // Records check-ins (student id -> epoch millis) as one atomic step. Students already
+    // checked in, or no longer registered, are skipped; returns the ids that were recorded.
+    List<Integer> checkIn(int eventId, Map<Integer, Long> checkIns) throws SQLException;
+
+    // Table sources
+
+    // All events by id: event_id, title, event_date, event_time, venue, capacity
+    PagedTableModel.PageSource eventPages();
+
+    // All students by name: student_id, name, email
+    PagedTableModel.PageSource studentPages();
+
+    // Students matching the query's filter, in its order: student_id, name, email
+    PagedTableModel.PageSource studentPages(StudentQuery query);
+
+    // Registrations of students whose name matches: student_id, name, email, title, event_id
+    PagedTableModel.PageSource search(String query);
+
+    // Students whose name or email contains filter (all if empty), by name: student_id, name, email
+    PagedTableModel.PageSource findStudents(String filter);
+
+    static Storage get() {
+        return Holder.INSTANCE;
+    }
+
+    class Holder {
+        static final Storage INSTANCE = BACKEND.equals("local") ? new LocalStorage()
+            : BACKEND.equals("queued") ? new QueuedStorage() : new SqlStorage();
+
+        private Holder() {
+        }
+    }
+}
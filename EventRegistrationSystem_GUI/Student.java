@@ -0,0 +1,31 @@
+import java.util.regex.Pattern;
+
+public class Student {
+    static final Pattern EMAIL = Pattern.compile("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$");
+
+    private int studentId;
+    private String name;
+    private String email;
+
+    public Student(int studentId, String name, String email) {
+        this.studentId = studentId;
+        this.name = name;
+        this.email = email;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public static boolean isValidEmail(String email) {
+        return EMAIL.matcher(email).matches();
+    }
+}
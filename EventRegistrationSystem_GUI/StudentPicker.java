@@ -0,0 +1,101 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+// Searchable multi-select list of students for bulk registration. Rows are paged in from
+// Storage.findStudents as they scroll into view, so it stays quick with any number of
+// students; typing filters by name or email. Students already on the roster are marked.
+public class StudentPicker extends JPanel {
+    static final int FILTER_DELAY_MS = 300;
+
+    private final JTextField filterField = new JTextField(20);
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JLabel countLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
+    private final PagedTableModel tableModel;
+    private final JTable table;
+    // set by Select All Matching until the selection is changed by hand
+    private boolean allMatching;
+
+    public StudentPicker(IntSet registered) {
+        super(new BorderLayout());
+
+        tableModel = new PagedTableModel(new String[]{"Student ID", "Name", "Email", "Registered"}, loader) {
+            public Object getValueAt(int rowIndex, int columnIndex) {
+                if (columnIndex < 3) return super.getValueAt(rowIndex, columnIndex);
+                Object[] row = getRow(rowIndex);
+                return row != null && registered != null && registered.contains(((Number) row[0]).intValue()) ? "yes" : "";
+            }
+        };
+        table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (allMatching && table.getSelectedRowCount() != tableModel.getRowCount()) allMatching = false;
+            updateCount();
+        });
+        tableModel.addTableModelListener(e -> updateCount());
+
+        JButton selectAll = new JButton("Select All Matching");
+        selectAll.addActionListener(e -> {
+            table.selectAll();
+            allMatching = true;
+        });
+        JButton clear = new JButton("Clear");
+        clear.addActionListener(e -> table.clearSelection());
+
+        Timer filterTimer = new Timer(FILTER_DELAY_MS, e -> applyFilter());
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+        });
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        top.add(new JLabel("Filter name or email:"));
+        top.add(filterField);
+        top.add(selectAll);
+        top.add(clear);
+        top.add(statusLabel);
+
+        add(top, BorderLayout.NORTH);
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setPreferredSize(new Dimension(640, 360));
+        add(scroll, BorderLayout.CENTER);
+        add(countLabel, BorderLayout.SOUTH);
+
+        applyFilter();
+    }
+
+    private void applyFilter() {
+        table.clearSelection();
+        allMatching = false;
+        tableModel.setSource(Storage.get().findStudents(filterField.getText()));
+    }
+
+    private void updateCount() {
+        countLabel.setText(" " + tableModel.getRowCount() + " matching, " + table.getSelectedRowCount() + " selected");
+    }
+
+    public int selectedCount() {
+        return table.getSelectedRowCount();
+    }
+
+    // Ids of the selected students, in list order; call on the EDT, run the result off it.
+    // A hand-made selection is the rows as shown now; Select All Matching means everyone the
+    // filter matches when the work runs.
+    public Callable<List<Integer>> selection() {
+        PagedTableModel.PageSource source = tableModel.getSource();
+        Callable<List<Object[]>> rows = allMatching
+            ? () -> PagedTableModel.allRows(source) : tableModel.rowsAt(table.getSelectedRows());
+        return () -> {
+            List<Integer> ids = new ArrayList<>();
+            for (Object[] row : rows.call()) ids.add(((Number) row[0]).intValue());
+            return ids;
+        };
+    }
+}
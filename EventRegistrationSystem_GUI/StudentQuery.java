@@ -0,0 +1,46 @@
+// Sort order and column filter for a students list. The storage backend applies both, so
+// on the database they become an indexed ORDER BY and a WHERE clause on the page query.
+public class StudentQuery {
+    public enum Column { ID, NAME, EMAIL }
+
+    public enum Match { PREFIX, CONTAINS }
+
+    public static final StudentQuery ALL = new StudentQuery(Column.NAME, false, Column.NAME, Match.PREFIX, "");
+
+    public final Column sortBy;
+    public final boolean descending;
+    public final Column filterOn;
+    public final Match match;
+    // lower-cased and trimmed; empty matches everyone
+    public final String text;
+
+    public StudentQuery(Column sortBy, boolean descending, Column filterOn, Match match, String text) {
+        this.sortBy = sortBy;
+        this.descending = descending;
+        this.filterOn = filterOn;
+        this.match = match;
+        this.text = text == null ? "" : text.trim().toLowerCase();
+    }
+
+    // The id filtered on; 0, which no student has, if the text is not a number
+    public int id() {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public boolean isDefault() {
+        return sortBy == ALL.sortBy && descending == ALL.descending && text.isEmpty();
+    }
+
+    // For the in-memory backends; the database applies the same rules in SQL
+    public boolean matches(Student student) {
+        if (text.isEmpty()) return true;
+        if (filterOn == Column.ID) return student.getStudentId() == id();
+        String value = filterOn == Column.EMAIL
+            ? student.getEmail().toLowerCase() : SchemaMigrations.normalize(student.getName());
+        return match == Match.PREFIX ? value.startsWith(text) : value.contains(text);
+    }
+}
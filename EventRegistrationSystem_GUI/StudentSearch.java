@@ -0,0 +1,134 @@
+import java.sql.*;
+import java.util.*;
+
+// Name search over the indexed search columns from SchemaMigrations. Matches are
+// looked up best-first and each stage only runs if the earlier ones did not fill the
+// result cap:
+//   1. the whole name starts with the query (index on students.name_norm)
+//   2. a later word starts with the query (index on student_name_tokens)
+//   3. plain substring, which has to scan, and only when 1 and 2 found nothing
+public class StudentSearch extends ListPageSource {
+    static final int LIMIT = Integer.getInteger("search.limit", 500);
+
+    static final String COLUMNS = "SELECT s.student_id, s.name, s.email, e.title, e.event_id ";
+    static final String REGISTRATIONS =
+        "JOIN registrations r ON s.student_id = r.student_id " +
+        "JOIN events e ON r.event_id = e.event_id ";
+
+    // Parameters: name prefix pattern, limit
+    static final String PREFIX_SQL = COLUMNS + "FROM students s " + REGISTRATIONS +
+        "WHERE s.name_norm LIKE ? ESCAPE '!' ORDER BY s.name_norm LIMIT ?";
+    // Parameters: first word prefix pattern, name contains pattern, the first pattern again, limit.
+    // Only a student's first matching word counts, or each of their registrations would be
+    // listed once per word that starts with the query.
+    static final String WORD_SQL = COLUMNS +
+        "FROM student_name_tokens t JOIN students s ON s.student_id = t.student_id " + REGISTRATIONS +
+        "WHERE t.token LIKE ? ESCAPE '!' AND s.name_norm LIKE ? ESCAPE '!' AND NOT EXISTS ("
+        + "SELECT 1 FROM student_name_tokens t2 WHERE t2.student_id = t.student_id "
+        + "AND t2.token LIKE ? ESCAPE '!' AND t2.token < t.token) ORDER BY t.token LIMIT ?";
+    // Parameters: name contains pattern, limit
+    static final String CONTAINS_SQL = COLUMNS + "FROM students s " + REGISTRATIONS +
+        "WHERE s.name_norm LIKE ? ESCAPE '!' ORDER BY s.name_norm LIMIT ?";
+
+    private final String query;
+    private final int limit;
+
+    public StudentSearch(String query) {
+        this(query, LIMIT);
+    }
+
+    public StudentSearch(String query, int limit) {
+        this.query = SchemaMigrations.normalize(query);
+        this.limit = limit;
+    }
+
+    // Registrations of students whose name matches, at most limit rows.
+    public List<Object[]> results() throws SQLException {
+        return rows();
+    }
+
+    protected List<Object[]> load() throws SQLException {
+        if (query.isEmpty()) return Collections.emptyList();
+
+        String escaped = escapeLike(query);
+        List<Object[]> found = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement prefix = conn.prepareStatement(PREFIX_SQL);
+            prefix.setString(1, escaped + "%");
+            prefix.setInt(2, limit);
+            read(prefix.executeQuery(), found, seen, limit);
+
+            List<String> words = tokens(query);
+            if (found.size() < limit && !words.isEmpty()) {
+                PreparedStatement word = conn.prepareStatement(WORD_SQL);
+                word.setString(1, escapeLike(words.get(0)) + "%");
+                word.setString(2, "%" + escaped + "%");
+                word.setString(3, escapeLike(words.get(0)) + "%");
+                word.setInt(4, limit);
+                read(word.executeQuery(), found, seen, limit);
+            }
+
+            if (found.isEmpty()) {
+                PreparedStatement contains = conn.prepareStatement(CONTAINS_SQL);
+                contains.setString(1, "%" + escaped + "%");
+                contains.setInt(2, limit);
+                read(contains.executeQuery(), found, seen, limit);
+            }
+        }
+        return found;
+    }
+
+    // Adds rows for students that an earlier stage has not already returned.
+    private static void read(ResultSet rs, List<Object[]> into, Set<Integer> seen, int limit) throws SQLException {
+        Set<Integer> before = new HashSet<>(seen);
+        while (rs.next() && into.size() < limit) {
+            int studentId = rs.getInt("student_id");
+            if (before.contains(studentId)) continue;
+            seen.add(studentId);
+            into.add(new Object[]{
+                studentId,
+                rs.getString("name"),
+                rs.getString("email"),
+                rs.getString("title"),
+                rs.getInt("event_id")
+            });
+        }
+    }
+
+    static String escapeLike(String s) {
+        return s.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    // Words of a normalized name, as stored in student_name_tokens.
+    static List<String> tokens(String normalized) {
+        List<String> words = new ArrayList<>();
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && !words.contains(word)) words.add(word);
+        }
+        return words;
+    }
+
+    // Adds the token rows for one student to a batch on
+    // INSERT INTO student_name_tokens (token, student_id) VALUES (?, ?); returns how many.
+    static int addTokens(PreparedStatement insert, int studentId, String name) throws SQLException {
+        List<String> words = tokens(SchemaMigrations.normalize(name));
+        for (String word : words) {
+            insert.setString(1, word.length() > 100 ? word.substring(0, 100) : word);
+            insert.setInt(2, studentId);
+            insert.addBatch();
+        }
+        return words.size();
+    }
+
+    // Indexes students inserted outside the migration (new students, CSV imports).
+    static void indexNames(Connection conn, Map<Integer, String> namesById) throws SQLException {
+        if (namesById.isEmpty()) return;
+        PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO student_name_tokens (token, student_id) VALUES (?, ?)");
+        for (Map.Entry<Integer, String> entry : namesById.entrySet()) {
+            addTokens(insert, entry.getKey(), entry.getValue());
+        }
+        insert.executeBatch();
+    }
+}
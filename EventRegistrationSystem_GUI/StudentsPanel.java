@@ -1,65 +1,105 @@
 import java.awt.*;
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 public class StudentsPanel extends JPanel {
+    static final String[] COLUMNS = {"Student ID", "Name", "Email"};
+    static final String[] FILTERS = {"Name starts with", "Name contains", "Email starts with", "Email contains", "Student ID is"};
+
     private JTable studentsTable;
-    private DefaultTableModel tableModel;
+    private PagedTableModel tableModel;
+    private final JLabel statusLabel = new JLabel(" ");
+    private final AsyncLoader loader = new AsyncLoader(statusLabel);
+    private final JTextField filterField = new JTextField(15);
+    private final JComboBox<String> filterCombo = new JComboBox<>(FILTERS);
+    private StudentQuery.Column sortBy = StudentQuery.ALL.sortBy;
+    private boolean descending;
 
     public StudentsPanel() {
         setLayout(new BorderLayout());
 
-        tableModel = new DefaultTableModel(new Object[]{"Student ID", "Name", "Email"}, 0);
+        // Sorting and filtering are done by the query, so only the visible pages are read
+        tableModel = new PagedTableModel(COLUMNS, loader);
         studentsTable = new JTable(tableModel);
+        studentsTable.getTableHeader().setReorderingAllowed(false);
+        studentsTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                int column = studentsTable.convertColumnIndexToModel(studentsTable.columnAtPoint(e.getPoint()));
+                if (column < 0) return;
+                StudentQuery.Column clicked = StudentQuery.Column.values()[column];
+                descending = clicked == sortBy && !descending;
+                sortBy = clicked;
+                applyQuery();
+            }
+        });
+
+        Timer filterTimer = new Timer(StudentPicker.FILTER_DELAY_MS, e -> applyQuery());
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+        });
+        filterCombo.addActionListener(e -> applyQuery());
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(filterCombo);
+        filterPanel.add(filterField);
+        add(filterPanel, BorderLayout.NORTH);
 
         JPanel buttonPanel = new JPanel(new FlowLayout());
         JButton addButton = new JButton("Add Student");
         JButton refreshButton = new JButton("Refresh");
+        JButton importButton = new JButton("Import CSV");
 
         addButton.addActionListener(e -> showAddStudentDialog());
         refreshButton.addActionListener(e -> refreshStudents());
+        importButton.addActionListener(e -> importStudents());
 
         buttonPanel.add(addButton);
         buttonPanel.add(refreshButton);
+        buttonPanel.add(importButton);
+        buttonPanel.add(statusLabel);
         add(buttonPanel, BorderLayout.SOUTH);
 
         add(new JScrollPane(studentsTable), BorderLayout.CENTER);
 
-        refreshStudents();
-    }
+        applyQuery();
 
-    private void refreshStudents() {
-        tableModel.setRowCount(0);
-        try (Connection conn = DB.getConnection()) {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM students");
-
-            List<Student> students = new ArrayList<>();
-            while (rs.next()) {
-                students.add(new Student(
-                        rs.getInt("student_id"),
-                        rs.getString("name"),
-                        rs.getString("email")
-                ));
-            }
+        EntityBus.subscribe(change -> {
+            if (change.type == EntityBus.Type.STUDENT) refreshStudents();
+        });
+    }
 
-            Collections.sort(students, (s1, s2) -> s1.getName().compareTo(s2.getName()));
+    private void applyQuery() {
+        int filter = filterCombo.getSelectedIndex();
+        StudentQuery query = new StudentQuery(sortBy, descending,
+            filter == 4 ? StudentQuery.Column.ID : filter >= 2 ? StudentQuery.Column.EMAIL : StudentQuery.Column.NAME,
+            filter == 0 || filter == 2 ? StudentQuery.Match.PREFIX : StudentQuery.Match.CONTAINS,
+            filterField.getText());
+        PagedTableModel.PageSource source = Storage.get().studentPages(query);
+        // only the default order is saved for the next startup
+        if (query.isDefault()) {
+            tableModel.setSource(source, "students");
+        } else {
+            tableModel.setSource(source);
+        }
 
-            int newId = 1;
-            for (Student student : students) {
-                tableModel.addRow(new Object[]{
-                        newId++,
-                        student.getName(),
-                        student.getEmail()
-                });
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            boolean sorted = StudentQuery.Column.values()[i] == sortBy;
+            studentsTable.getColumnModel().getColumn(i).setHeaderValue(
+                COLUMNS[i] + (sorted ? (descending ? " \u25BC" : " \u25B2") : ""));
         }
+        studentsTable.getTableHeader().repaint();
+    }
+
+    private void refreshStudents() {
+        tableModel.reload();
     }
 
     private void showAddStudentDialog() {
@@ -82,63 +122,32 @@ public class StudentsPanel extends JPanel {
 
         int result = JOptionPane.showConfirmDialog(this, panel, "Add New Student", JOptionPane.OK_CANCEL_OPTION);
 
-        if (result == JOptionPane.OK_OPTION) {
-            String name = nameField.getText().trim();
-            String email = emailField.getText().trim();
-
-            if (name.isEmpty() || email.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "All fields are required", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
-            // Regex validation
-            if (!email.matches("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$")) {
-                JOptionPane.showMessageDialog(this, "Invalid email format. Please enter a valid email.", "Input Error", JOptionPane.ERROR_MESSAGE);
-                return;
-            }
-
-            try (Connection conn = DB.getConnection()) {
-                PreparedStatement check = conn.prepareStatement("SELECT COUNT(*) FROM students WHERE email = ?");
-                check.setString(1, email);
-                ResultSet rs = check.executeQuery();
-                rs.next();
-                if (rs.getInt(1) > 0) {
-                    JOptionPane.showMessageDialog(this, "Student with this email already exists.", "Duplicate Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                PreparedStatement stmt = conn.prepareStatement("INSERT INTO students (name, email) VALUES (?, ?)");
-                stmt.setString(1, name);
-                stmt.setString(2, email);
-                stmt.executeUpdate();
-                refreshStudents();
-            } catch (SQLException e) {
-                e.printStackTrace();
+        if (result != JOptionPane.OK_OPTION) return;
+        String name = nameField.getText();
+        String email = emailField.getText();
+        AsyncLoader.write(this, "student", () -> CatalogService.addStudent(name, email), student -> {
+            if (student == null) {
+                JOptionPane.showMessageDialog(this, "Student with this email already exists.", "Duplicate Error", JOptionPane.ERROR_MESSAGE);
             }
-        }
+        });
     }
 
-    class Student {
-        private int studentId;
-        private String name;
-        private String email;
+    private void importStudents() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
 
-        public Student(int studentId, String name, String email) {
-            this.studentId = studentId;
-            this.name = name;
-            this.email = email;
-        }
-
-        public int getStudentId() {
-            return studentId;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getEmail() {
-            return email;
-        }
+        loader.load("import", () -> {
+            try (Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                return BulkTransfer.importStudents(in);
+            }
+        }, report -> {
+            StringBuilder message = new StringBuilder(report.toString());
+            for (int i = 0; i < Math.min(10, report.rejections.size()); i++) {
+                message.append("\n").append(report.rejections.get(i));
+            }
+            if (report.rejections.size() > 10) message.append("\n...");
+            JOptionPane.showMessageDialog(this, message.toString(), "Import Finished", JOptionPane.INFORMATION_MESSAGE);
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,304 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.*;
+
+// In-memory typeahead over student names. Lookups are answered from a word-prefix map
+// and a trigram index; the index is filled from the students table incrementally
+// (only rows with a higher student_id than the last refresh are read).
+public class SuggestionEngine {
+    private static final Logger LOG = Logger.getLogger("eventsystem.suggest");
+    static final int DEFAULT_LIMIT = Integer.getInteger("suggest.limit", 20);
+    static final int DEFAULT_DEBOUNCE_MS = Integer.getInteger("suggest.debounceMs", 150);
+    static final long REFRESH_INTERVAL_MS = Long.getLong("suggest.refreshMs", 30 * 1000);
+    // matches ranked per lookup, as a multiple of the limit; more than that and the list is
+    // the best of the first ones found
+    static final int SCAN_FACTOR = Integer.getInteger("suggest.scanFactor", 50);
+
+    private final int limit;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Integer, Entry> byId = new HashMap<>();
+    private final NavigableMap<String, Entry> prefixIndex = new TreeMap<>();
+    private final Map<Long, IntList> trigrams = new HashMap<>();
+    private int lastLoadedId;
+    private volatile long lastRefresh;
+
+    // Debounce and cancellation state, touched on the EDT only
+    private final javax.swing.Timer debounceTimer;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "suggestions");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> inFlight;
+    private String pendingQuery;
+    private Consumer<List<Suggestion>> pendingCallback;
+
+    public SuggestionEngine() {
+        this(DEFAULT_LIMIT, DEFAULT_DEBOUNCE_MS);
+    }
+
+    public SuggestionEngine(int limit, int debounceMs) {
+        this.limit = limit;
+        debounceTimer = new javax.swing.Timer(debounceMs, e -> fire());
+        debounceTimer.setRepeats(false);
+    }
+
+    // Called on the EDT for every keystroke. Only the last query typed within the
+    // debounce window runs; results for superseded queries are dropped.
+    public void suggestAsync(String query, Consumer<List<Suggestion>> onResult) {
+        pendingQuery = query;
+        pendingCallback = onResult;
+        generation.incrementAndGet();
+        if (inFlight != null) inFlight.cancel(true);
+        debounceTimer.restart();
+    }
+
+    private void fire() {
+        final String query = pendingQuery;
+        final Consumer<List<Suggestion>> callback = pendingCallback;
+        final long gen = generation.get();
+        inFlight = worker.submit(() -> {
+            try {
+                Startup.awaitStorage();
+                if (System.currentTimeMillis() - lastRefresh > REFRESH_INTERVAL_MS) refresh();
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Refreshing suggestions failed", e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (gen != generation.get()) return;
+            List<Suggestion> result = suggest(query);
+            SwingUtilities.invokeLater(() -> {
+                if (gen == generation.get()) callback.accept(result);
+            });
+        });
+    }
+
+    // Reads students added since the last refresh into the index.
+    public void refresh() throws SQLException {
+        int after;
+        lock.readLock().lock();
+        try {
+            after = lastLoadedId;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Entry> loaded = new ArrayList<>();
+        for (Student student : Storage.get().studentsAfter(after)) {
+            loaded.add(new Entry(student.getStudentId(), student.getName()));
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Entry entry : loaded) addLocked(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        lastRefresh = System.currentTimeMillis();
+    }
+
+    // Makes the next lookup pick up new rows first, e.g. after a bulk import.
+    public void markStale() {
+        lastRefresh = 0;
+    }
+
+    public void add(int studentId, String name) {
+        lock.writeLock().lock();
+        try {
+            addLocked(new Entry(studentId, name));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(Entry entry) {
+        if (byId.containsKey(entry.id)) return;
+        int pos = entries.size();
+        entries.add(entry);
+        byId.put(entry.id, entry);
+        lastLoadedId = Math.max(lastLoadedId, entry.id);
+
+        String lower = entry.lower;
+        for (int i = 0; i < lower.length(); i++) {
+            if (i == 0 || !Character.isLetterOrDigit(lower.charAt(i - 1))) {
+                prefixIndex.put(lower.substring(i) + '\u0000' + entry.id, entry);
+            }
+        }
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            long gram = gram(lower, i);
+            if (seen.add(gram)) trigrams.computeIfAbsent(gram, k -> new IntList()).add(pos);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Case-insensitive "name contains query" lookup, best matches first, at most limit results.
+    public List<Suggestion> suggest(String query) {
+        String q = query.trim().toLowerCase();
+        if (q.isEmpty()) return Collections.emptyList();
+
+        TopK top = new TopK(limit);
+        lock.readLock().lock();
+        try {
+            // Word-prefix matches come from the sorted map, keyed by the name from the
+            // matching word on. A student can be reached through a later word first ("bob" in
+            // "Bobz Bob" sorts before "bobz bob"), so the score is taken from the whole name.
+            // Whole-name keys come in alphabetical order: once limit of them are seen nothing
+            // later can beat them. Substring matches are only looked for when the prefix ones
+            // do not fill the list.
+            int maxScan = limit * SCAN_FACTOR;
+            Set<Integer> taken = new HashSet<>();
+            int nameStarts = 0;
+            for (Map.Entry<String, Entry> hit : prefixIndex.subMap(q, true, q + Character.MAX_VALUE, true).entrySet()) {
+                Entry entry = hit.getValue();
+                int at = entry.lower.length() - hit.getKey().indexOf('\u0000');
+                if (at == 0) nameStarts++;
+                if (taken.add(entry.id)) top.offer(entry, entry.lower.startsWith(q) ? 0 : score(entry.lower, at));
+                if (nameStarts >= limit || taken.size() >= maxScan) return top.sorted();
+            }
+            if (taken.size() >= limit) return top.sorted();
+
+            if (q.length() >= 3) {
+                IntList candidates = null;
+                for (int i = 0; i + 3 <= q.length(); i++) {
+                    IntList postings = trigrams.get(gram(q, i));
+                    if (postings == null) return top.sorted();
+                    if (candidates == null || postings.size < candidates.size) candidates = postings;
+                }
+                for (int i = 0; i < candidates.size && taken.size() < maxScan; i++) {
+                    Entry entry = entries.get(candidates.data[i]);
+                    if (!taken.contains(entry.id)) {
+                        int at = entry.lower.indexOf(q);
+                        if (at >= 0 && taken.add(entry.id)) top.offer(entry, score(entry.lower, at));
+                    }
+                }
+            } else {
+                for (int i = 0; i < entries.size() && taken.size() < maxScan; i++) {
+                    Entry entry = entries.get(i);
+                    if (!taken.contains(entry.id)) {
+                        int at = entry.lower.indexOf(q);
+                        if (at >= 0 && taken.add(entry.id)) top.offer(entry, score(entry.lower, at));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.sorted();
+    }
+
+    // 0 = name starts with the query, 1 = a later word does, 2 = plain substring
+    private static int score(String lower, int at) {
+        if (at == 0) return 0;
+        if (at > 0 && !Character.isLetterOrDigit(lower.charAt(at - 1))) return 1;
+        return 2;
+    }
+
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    public void shutdown() {
+        debounceTimer.stop();
+        worker.shutdownNow();
+    }
+
+    public static class Suggestion {
+        public final int studentId;
+        public final String name;
+        final int score;
+        final String lower;
+
+        Suggestion(Entry entry, int score) {
+            this.studentId = entry.id;
+            this.name = entry.name;
+            this.lower = entry.lower;
+            this.score = score;
+        }
+
+        public String toString() {
+            return name + " (ID: " + studentId + ")";
+        }
+    }
+
+    private static class Entry {
+        final int id;
+        final String name;
+        final String lower;
+
+        Entry(int id, String name) {
+            this.id = id;
+            this.name = name;
+            this.lower = name.toLowerCase();
+        }
+    }
+
+    private static class IntList {
+        int[] data = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+
+    // Bounded max-heap keeping the best k suggestions seen so far, one per student.
+    private static class TopK {
+        private static final Comparator<Suggestion> ORDER = Comparator
+            .comparingInt((Suggestion s) -> s.score)
+            .thenComparing(s -> s.lower)
+            .thenComparingInt(s -> s.studentId);
+
+        private final int k;
+        private final PriorityQueue<Suggestion> heap;
+        private final Map<Integer, Suggestion> byId = new HashMap<>();
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(k + 1, ORDER.reversed());
+        }
+
+        // A student already kept is replaced only by a better score for them
+        void offer(Entry entry, int score) {
+            Suggestion s = new Suggestion(entry, score);
+            Suggestion kept = byId.get(entry.id);
+            if (kept != null) {
+                if (score >= kept.score) return;
+                heap.remove(kept);
+            } else if (heap.size() >= k) {
+                if (ORDER.compare(s, heap.peek()) >= 0) return;
+                byId.remove(heap.poll().studentId);
+            }
+            heap.add(s);
+            byId.put(entry.id, s);
+        }
+
+        int size() {
+            return heap.size();
+        }
+
+        List<Suggestion> sorted() {
+            List<Suggestion> list = new ArrayList<>(heap);
+            list.sort(ORDER);
+            return list;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectionPoolTest {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private ConnectionPool pool;
+
+    private ConnectionPool pool(int maxSize, long acquireTimeoutMillis, long maxLifetimeMillis,
+                                long idleValidationMillis) {
+        pool = new ConnectionPool("jdbc:h2:mem:pool" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "",
+            maxSize, acquireTimeoutMillis, maxLifetimeMillis, idleValidationMillis, 60 * 1000, 8);
+        return pool;
+    }
+
+    @AfterEach
+    void close() {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    void acquireTimesOutWhenPoolIsExhausted() throws Exception {
+        ConnectionPool pool = pool(1, 100, 60 * 1000, 30 * 1000);
+        try (Connection held = pool.getConnection()) {
+            long start = System.nanoTime();
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+            assertEquals(1, pool.getStats().timeouts);
+        }
+        try (Connection again = pool.getConnection()) {
+            assertFalse(again.isClosed());
+        }
+    }
+
+    @Test
+    void waiterGetsConnectionWhenOneIsReturned() throws Exception {
+        ConnectionPool pool = pool(1, 5000, 60 * 1000, 30 * 1000);
+        Connection held = pool.getConnection();
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> waiting = other.submit(() -> {
+                try (Connection conn = pool.getConnection()) {
+                    return conn.isValid(1);
+                }
+            });
+            while (pool.getStats().waiters == 0) Thread.sleep(5);
+            held.close();
+            assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        } finally {
+            other.shutdownNow();
+        }
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(1, stats.created);
+        assertEquals(0, stats.timeouts);
+    }
+
+    @Test
+    void connectionPastMaxLifetimeIsReplaced() throws Exception {
+        ConnectionPool pool = pool(2, 1000, 200, 30 * 1000);
+        try (Connection conn = pool.getConnection()) {
+            conn.createStatement().execute("SELECT 1");
+        }
+        assertEquals(1, pool.getStats().idle);
+        Thread.sleep(300);
+        try (Connection conn = pool.getConnection()) {
+            conn.createStatement().execute("SELECT 1");
+        }
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.created);
+        assertEquals(1, stats.evicted);
+    }
+
+    @Test
+    void connectionExpiringWhileLeasedIsNotReturnedToIdle() throws Exception {
+        ConnectionPool pool = pool(2, 1000, 100, 30 * 1000);
+        try (Connection conn = pool.getConnection()) {
+            Thread.sleep(200);
+        }
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(0, stats.idle);
+        assertEquals(1, stats.evicted);
+    }
+
+    @Test
+    void deadIdleConnectionIsValidatedAndDiscarded() throws Exception {
+        // validation interval 0: every idle connection is checked before it is handed out
+        ConnectionPool pool = pool(2, 1000, 60 * 1000, 0);
+        Connection physical;
+        try (Connection conn = pool.getConnection()) {
+            physical = conn.unwrap(org.h2.jdbc.JdbcConnection.class);
+        }
+        physical.close();
+
+        try (Connection conn = pool.getConnection()) {
+            assertNotSame(physical, conn.unwrap(org.h2.jdbc.JdbcConnection.class));
+            assertTrue(conn.isValid(1));
+        }
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.created);
+        assertEquals(1, stats.evicted);
+    }
+
+    @Test
+    void statsTrackActiveAndIdleConnections() throws Exception {
+        ConnectionPool pool = pool(3, 1000, 60 * 1000, 30 * 1000);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        ConnectionPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.active);
+        assertEquals(0, stats.idle);
+        assertEquals(3, stats.maxSize);
+
+        first.close();
+        second.close();
+        stats = pool.getStats();
+        assertEquals(0, stats.active);
+        assertEquals(2, stats.idle);
+        assertEquals(2, stats.created);
+        assertEquals(0, stats.evicted);
+
+        // idle connections are reused, not reopened
+        pool.getConnection().close();
+        assertEquals(2, pool.getStats().created);
+        assertTrue(first.isClosed());
+    }
+
+    @Test
+    void cachedStatementIsNotSharedWithinOneLease() throws Exception {
+        ConnectionPool pool = pool(1, 1000, 60 * 1000, 30 * 1000);
+        try (Connection conn = pool.getConnection()) {
+            conn.createStatement().execute("CREATE TABLE t (x INT)");
+            conn.createStatement().execute("INSERT INTO t VALUES (1), (2), (3)");
+            PreparedStatement outer = conn.prepareStatement("SELECT x FROM t ORDER BY x");
+            ResultSet rs = outer.executeQuery();
+            assertTrue(rs.next());
+            PreparedStatement inner = conn.prepareStatement("SELECT x FROM t ORDER BY x");
+            ResultSet nested = inner.executeQuery();
+            while (nested.next()) {
+                // drain
+            }
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// EXPLAINs the SQL the app actually sends (page sources, name search, change feed) against
+// the migrated schema and checks that each statement is driven by its index, and that
+// filters moved onto an index still match what they did.
+class QueryPlanTest {
+    interface Binder {
+        void bind(PreparedStatement stmt) throws SQLException;
+    }
+
+    @BeforeAll
+    static void open() throws SQLException {
+        Storage.get().open();
+        List<String[]> rows = new ArrayList<>();
+        long run = System.nanoTime();
+        for (int i = 0; i < 20; i++) rows.add(new String[]{"Plan Student " + i, "plan" + run + "." + i + "@example.org"});
+        Storage.get().addStudents(rows, (row, reason) -> fail(row[1] + ": " + reason));
+    }
+
+    @Test
+    void migrationPlanListUsesItsIndexes() throws SQLException {
+        assertEquals(Collections.emptyList(), SchemaMigrations.verifyPlans());
+    }
+
+    // The first page walks the index from one end; later pages seek into it from the last key
+    @Test
+    void studentPagesWalkAnIndexInEverySortOrder() throws SQLException {
+        Map<StudentQuery.Column, String[]> indexes = new EnumMap<>(StudentQuery.Column.class);
+        indexes.put(StudentQuery.Column.ID, new String[]{"primary_key", "idx_students_id_desc"});
+        indexes.put(StudentQuery.Column.NAME, new String[]{"idx_students_name_id", "idx_students_name_id_desc"});
+        indexes.put(StudentQuery.Column.EMAIL, new String[]{"uq_students_email", "idx_students_email_desc"});
+        for (Map.Entry<StudentQuery.Column, String[]> entry : indexes.entrySet()) {
+            for (boolean descending : new boolean[]{false, true}) {
+                StudentQuery query = new StudentQuery(entry.getKey(), descending, StudentQuery.Column.NAME,
+                    StudentQuery.Match.PREFIX, "");
+                SqlPageSource source = (SqlPageSource) Storage.get().studentPages(query);
+                Object[] key = source.keyOf(new Object[]{10, "m", "m@example.org"});
+                String index = entry.getValue()[descending ? 1 : 0];
+                assertUses(source.fetchSql(null), page(source, null), index, "index sorted");
+                assertUses(source.fetchSql(key), page(source, key), index,
+                    index + "(_index)?(_[0-9a-f]+)?: \\w+ [<>]", "index sorted");
+            }
+        }
+    }
+
+    @Test
+    void studentPrefixFiltersUseAnIndex() throws SQLException {
+        StudentQuery byName = new StudentQuery(StudentQuery.Column.NAME, false, StudentQuery.Column.NAME,
+            StudentQuery.Match.PREFIX, "plan");
+        assertPageUses((SqlPageSource) Storage.get().studentPages(byName), null,
+            "idx_students_name_norm|idx_students_name_id");
+        StudentQuery byId = new StudentQuery(StudentQuery.Column.NAME, false, StudentQuery.Column.ID,
+            StudentQuery.Match.PREFIX, "5");
+        assertPageUses((SqlPageSource) Storage.get().studentPages(byId), null, "primary_key|idx_students_name_id");
+        StudentQuery byEmail = new StudentQuery(StudentQuery.Column.NAME, false, StudentQuery.Column.EMAIL,
+            StudentQuery.Match.PREFIX, "Plan");
+        assertPageUses((SqlPageSource) Storage.get().studentPages(byEmail), null,
+            "uq_students_email_norm|idx_students_name_id");
+    }
+
+    // On H2, LIKE on the stored email is case-sensitive; the filter must not be
+    @Test
+    void emailFilterIgnoresCase() throws Exception {
+        String email = "Case" + System.nanoTime() + "@Example.org";
+        Storage.get().addStudents(Collections.singletonList(new String[]{"Case Student", email}),
+            (row, reason) -> fail(row[1] + ": " + reason));
+        for (StudentQuery.Match match : StudentQuery.Match.values()) {
+            String text = match == StudentQuery.Match.PREFIX ? email.substring(0, 12).toUpperCase()
+                : email.substring(4, 12);
+            StudentQuery query = new StudentQuery(StudentQuery.Column.NAME, false, StudentQuery.Column.EMAIL,
+                match, text);
+            List<Object[]> rows = Storage.get().studentPages(query).fetch(null, 10);
+            assertEquals(1, rows.size(), match + " " + text);
+            assertEquals(email, rows.get(0)[2]);
+        }
+    }
+
+    @Test
+    void eventPagesWalkThePrimaryKey() throws SQLException {
+        SqlPageSource source = (SqlPageSource) Storage.get().eventPages();
+        assertPageUses(source, null, "primary_key");
+        assertPageUses(source, new Object[]{5}, "primary_key");
+    }
+
+    @Test
+    void nameSearchStagesUseTheirIndexes() throws SQLException {
+        assertUses(StudentSearch.PREFIX_SQL, stmt -> {
+            stmt.setString(1, "plan%");
+            stmt.setInt(2, 500);
+        }, "idx_students_name_norm");
+        assertUses(StudentSearch.WORD_SQL, stmt -> {
+            stmt.setString(1, "stud%");
+            stmt.setString(2, "%stud%");
+            stmt.setString(3, "stud%");
+            stmt.setInt(4, 500);
+        }, "primary_key");
+        // the substring stage scans by design; its join into registrations must still be a lookup
+        assertUses(StudentSearch.CONTAINS_SQL, stmt -> {
+            stmt.setString(1, "%stud%");
+            stmt.setInt(2, 500);
+        }, "idx_registrations_student|uq_registrations");
+    }
+
+    @Test
+    void changeFeedPollReadsFromThePrimaryKey() throws SQLException {
+        assertUses(ChangeFeed.POLL_SQL, stmt -> {
+            stmt.setLong(1, 100);
+            stmt.setInt(2, ChangeFeed.MAX_ROWS + 1);
+        }, "primary_key");
+    }
+
+    private static void assertPageUses(SqlPageSource source, Object[] afterKey, String indexes) throws SQLException {
+        assertUses(source.fetchSql(afterKey), page(source, afterKey), indexes);
+    }
+
+    private static Binder page(SqlPageSource source, Object[] afterKey) {
+        return stmt -> {
+            int next = source.bind(stmt, afterKey);
+            stmt.setInt(next, 100);
+        };
+    }
+
+    // indexes: alternatives separated by |, matched as whole index names (H2 adds _INDEX_<hex> or _<hex>);
+    // expected: further patterns the plan must contain, e.g. "index sorted" when no sort step is allowed
+    private static void assertUses(String sql, Binder binder, String indexes, String... expected)
+            throws SQLException {
+        String plan;
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement explain = conn.prepareStatement("EXPLAIN " + sql);
+            binder.bind(explain);
+            ResultSet rs = explain.executeQuery();
+            StringBuilder text = new StringBuilder();
+            while (rs.next()) text.append(rs.getString(1)).append('\n');
+            plan = text.toString().toLowerCase();
+        }
+        Pattern used = Pattern.compile("\\b(" + indexes + ")(_index)?(_[0-9a-f]+)?\\b");
+        assertTrue(used.matcher(plan).find(), "expected " + indexes + " in plan:\n" + plan);
+        for (String pattern : expected) {
+            assertTrue(Pattern.compile(pattern).matcher(plan).find(), "expected " + pattern + " in plan:\n" + plan);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Many desks registering for the same event at once against the embedded database.
+class RegistrationServiceTest {
+    static final int REGISTRANTS = 400;
+    static final int THREADS = 64;
+    static final int CAPACITY = 50;
+
+    @BeforeAll
+    static void open() throws SQLException {
+        Storage.get().open();
+    }
+
+    @Test
+    void concurrentRegistrationsNeverOverbook() throws Exception {
+        Event event = Repository.addEvent("Stress " + System.nanoTime(), java.sql.Date.valueOf("2030-01-01"), null,
+            "Hall", CAPACITY);
+        List<Student> students = students("svc");
+
+        // every student tries twice, so duplicates race each other as well
+        List<Callable<RegistrationService.Result>> tasks = new ArrayList<>();
+        for (Student student : students) {
+            for (int i = 0; i < 2; i++) {
+                tasks.add(() -> RegistrationService.register(student.getStudentId(), event.getEventId(), true));
+            }
+        }
+        Map<RegistrationService.Result, Integer> results = runAll(tasks);
+
+        assertEquals(CAPACITY, results.getOrDefault(RegistrationService.Result.REGISTERED, 0));
+        assertDatabaseMatches(event, CAPACITY);
+        assertEquals(CAPACITY, RosterIndex.count(event.getEventId()));
+        assertEquals(REGISTRANTS - CAPACITY, RegistrationService.getWaitlist(event.getEventId()).size());
+
+        // freeing seats while others keep trying must hand each seat to exactly one waiting student
+        int[] registered = RosterIndex.studentIds(event.getEventId());
+        tasks.clear();
+        for (int i = 0; i < 20; i++) {
+            int studentId = registered[i];
+            tasks.add(() -> RegistrationService.unregister(studentId, event.getEventId())
+                ? RegistrationService.Result.REGISTERED : RegistrationService.Result.NO_SUCH_EVENT);
+        }
+        for (Student student : students) {
+            tasks.add(() -> RegistrationService.register(student.getStudentId(), event.getEventId()));
+        }
+        runAll(tasks);
+
+        assertDatabaseMatches(event, CAPACITY);
+        assertEquals(CAPACITY, RosterIndex.count(event.getEventId()));
+        for (int studentId : RosterIndex.studentIds(event.getEventId())) {
+            assertFalse(RegistrationService.getWaitlist(event.getEventId()).contains(studentId),
+                "student " + studentId + " is registered and still waiting");
+        }
+    }
+
+    // Storage called directly, as another process would, so only the database locks keep order
+    @Test
+    void concurrentStorageRegistrationsNeverOverbook() throws Exception {
+        Event event = Repository.addEvent("Stress " + System.nanoTime(), java.sql.Date.valueOf("2030-01-02"), null,
+            "Hall", CAPACITY);
+        List<Student> students = students("raw");
+
+        List<Callable<RegistrationService.Result>> tasks = new ArrayList<>();
+        for (Student student : students) {
+            tasks.add(() -> Storage.get().register(student.getStudentId(), event.getEventId()));
+            tasks.add(() -> Storage.get().registerAll(event.getEventId(),
+                Collections.singletonList(student.getStudentId())).get(student.getStudentId()));
+        }
+        Map<RegistrationService.Result, Integer> results = runAll(tasks);
+
+        assertEquals(CAPACITY, results.getOrDefault(RegistrationService.Result.REGISTERED, 0));
+        assertDatabaseMatches(event, CAPACITY);
+    }
+
+    private static List<Student> students(String tag) throws SQLException {
+        List<String[]> rows = new ArrayList<>();
+        long run = System.nanoTime();
+        for (int i = 0; i < REGISTRANTS; i++) {
+            rows.add(new String[]{"Student " + i, tag + run + "." + i + "@example.org"});
+        }
+        List<Student> added = Storage.get().addStudents(rows, (row, reason) -> fail(row[1] + ": " + reason));
+        assertEquals(REGISTRANTS, added.size());
+        return added;
+    }
+
+    private static Map<RegistrationService.Result, Integer> runAll(List<Callable<RegistrationService.Result>> tasks)
+            throws Exception {
+        Collections.shuffle(tasks, new Random(42));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<RegistrationService.Result>> futures = new ArrayList<>();
+            for (Callable<RegistrationService.Result> task : tasks) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            Map<RegistrationService.Result, Integer> counts = new EnumMap<>(RegistrationService.Result.class);
+            for (Future<RegistrationService.Result> future : futures) {
+                counts.merge(future.get(60, TimeUnit.SECONDS), 1, Integer::sum);
+            }
+            return counts;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertDatabaseMatches(Event event, int expected) throws SQLException {
+        try (Connection conn = DB.getConnection()) {
+            PreparedStatement count = conn.prepareStatement(
+                "SELECT COUNT(*), COUNT(DISTINCT student_id) FROM registrations WHERE event_id = ?");
+            count.setInt(1, event.getEventId());
+            ResultSet rs = count.executeQuery();
+            rs.next();
+            assertEquals(expected, rs.getInt(1), "registrations");
+            assertEquals(rs.getInt(1), rs.getInt(2), "duplicate registrations");
+        }
+    }
+}
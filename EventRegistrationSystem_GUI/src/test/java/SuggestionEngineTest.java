@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class SuggestionEngineTest {
+    // "bob" reaches "Bobz Bob" through its second word first: the key "bob\0..." sorts
+    // before "bobz bob\0...", but the name still starts with the query
+    @Test
+    void nameStartBeatsWordStartWhenLaterWordSortsFirst() {
+        SuggestionEngine engine = new SuggestionEngine(10, 0);
+        engine.add(1, "Alice Bob");
+        engine.add(2, "Bobz Bob");
+        List<SuggestionEngine.Suggestion> found = engine.suggest("bob");
+        assertEquals(Arrays.asList(2, 1), ids(found));
+        assertEquals(0, found.get(0).score);
+        assertEquals(1, found.get(1).score);
+    }
+
+    @Test
+    void earlyExitWaitsForNameStartsInNameOrder() {
+        SuggestionEngine engine = new SuggestionEngine(1, 0);
+        engine.add(1, "Bobz Bob");
+        engine.add(2, "Bob Alice");
+        assertEquals(Collections.singletonList(2), ids(engine.suggest("bob")));
+    }
+
+    @Test
+    void eachStudentIsListedOnce() {
+        SuggestionEngine engine = new SuggestionEngine(10, 0);
+        engine.add(1, "Ann Ann Ann");
+        engine.add(2, "Joanna Annis");
+        assertEquals(Arrays.asList(1, 2), ids(engine.suggest("ann")));
+    }
+
+    private static List<Integer> ids(List<SuggestionEngine.Suggestion> suggestions) {
+        List<Integer> ids = new ArrayList<>();
+        for (SuggestionEngine.Suggestion s : suggestions) ids.add(s.studentId);
+        return ids;
+    }
+}
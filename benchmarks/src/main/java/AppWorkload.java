@@ -0,0 +1,87 @@
+import java.sql.*;
+import java.util.List;
+
+// Drives the application's data-access code for the JMH benchmarks in package bench.
+public class AppWorkload implements bench.Workload {
+    private int students;
+    private int events;
+
+    public void seed(int students, int events, int registrationsPerStudent) throws Exception {
+        this.students = students;
+        this.events = events;
+        try (Connection conn = DB.getConnection()) {
+            Statement stmt = conn.createStatement();
+            stmt.execute("CREATE TABLE IF NOT EXISTS events (event_id INT AUTO_INCREMENT PRIMARY KEY, "
+                + "title VARCHAR(100) NOT NULL, event_date DATE, event_time TIME, venue VARCHAR(100), capacity INT NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS students (student_id INT AUTO_INCREMENT PRIMARY KEY, "
+                + "name VARCHAR(100) NOT NULL, email VARCHAR(100) NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS registrations (student_id INT NOT NULL, event_id INT NOT NULL)");
+
+            stmt.execute("INSERT INTO events (title, event_date, event_time, venue, capacity) "
+                + "SELECT 'Event ' || X, DATE '2026-01-01' + MOD(X, 60), TIME '09:00:00', 'Hall ' || MOD(X, 12), "
+                + (students + 10) + " FROM SYSTEM_RANGE(1, " + events + ")");
+            stmt.execute("INSERT INTO students (name, email) "
+                + "SELECT 'Student ' || MOD(X * 7919, " + students + ") || ' ' || X, 'student' || X || '@example.com' "
+                + "FROM SYSTEM_RANGE(1, " + students + ")");
+            for (int i = 0; i < registrationsPerStudent; i++) {
+                stmt.execute("INSERT INTO registrations (student_id, event_id) "
+                    + "SELECT X, 1 + MOD(X * 31 + " + (i * 17) + ", " + events + ") FROM SYSTEM_RANGE(1, " + students + ")");
+            }
+        }
+        SchemaMigrations.migrate();
+    }
+
+    public int studentCount() {
+        return students;
+    }
+
+    public int eventCount() {
+        return events;
+    }
+
+    public void acquireConnection() throws Exception {
+        try (Connection conn = DB.getConnection()) {
+            conn.getAutoCommit();
+        }
+    }
+
+    public List<Object[]> eventsPage() throws Exception {
+        return new SqlPageSource("event_id, title, event_date, event_time, venue, capacity", "events", null, null,
+            new String[]{"event_id"}, new int[]{0}).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+    }
+
+    public List<Object[]> studentsPage() throws Exception {
+        return new SqlPageSource("student_id, name, email", "students", null, null,
+            new String[]{"name", "student_id"}, new int[]{1, 0}).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+    }
+
+    public int loadAllEvents() throws Exception {
+        Repository.invalidate();
+        return Repository.listEvents().size();
+    }
+
+    public List<Object[]> registrationsPage(int eventId) throws Exception {
+        return new SqlPageSource(
+            "s.student_id, s.name, s.email, e.title",
+            "students s JOIN registrations r ON s.student_id = r.student_id " +
+            "JOIN events e ON r.event_id = e.event_id",
+            "r.event_id = ?", new Object[]{eventId},
+            new String[]{"s.name", "s.student_id"}, new int[]{1, 0}).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+    }
+
+    public List<Object[]> rosterPage(int eventId) throws Exception {
+        return new RosterIndex.Source(eventId).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+    }
+
+    public List<Object[]> searchByName(String query) throws Exception {
+        return new StudentSearch(query).results();
+    }
+
+    public Object registerAndUnregister(int studentId, int eventId) throws Exception {
+        RegistrationService.Result result = RegistrationService.register(studentId, eventId);
+        if (result == RegistrationService.Result.REGISTERED) {
+            RegistrationService.unregister(studentId, eventId);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Event-day load generator: many simulated desks/kiosks hammering the same registration,
+// search and roster operations RegistrationsPanel uses, against an embedded database.
+// Most traffic can be aimed at a few hot events to reproduce the registration-window
+// rush. At the end it checks that no event holds more students than its capacity and no
+// student is registered twice, and writes a JSON report.
+//
+//   java -cp benchmarks/target/benchmarks.jar LoadTest threads=200 durationSec=120 hotEvents=3 hotShare=0.9
+//
+// Settings (key=value arguments, defaults in DEFAULTS below). The database is in-memory
+// H2 unless -Ddb.url says otherwise; -Dstorage=local runs against the embedded store.
+public class LoadTest {
+    static final String[][] DEFAULTS = {
+        {"students", "20000"},       // seeded students
+        {"events", "50"},            // seeded events
+        {"capacity", "200"},         // seats per event
+        {"threads", "100"},          // concurrent simulated users
+        {"durationSec", "60"},       // measured run time
+        {"warmupSec", "5"},          // run time before measuring starts
+        {"thinkMs", "20"},           // mean pause between a user's operations (exponential)
+        {"hotEvents", "3"},          // events that get hotShare of the traffic
+        {"hotShare", "0.8"},
+        {"register", "0.55"},        // operation mix, normalized
+        {"unregister", "0.05"},
+        {"search", "0.2"},
+        {"roster", "0.2"},
+        {"waitlist", "true"},        // register with joinWaitlist
+        {"progressSec", "10"},       // progress line interval on stderr, 0 = none
+        {"report", ""},              // report file; empty = stdout
+    };
+
+    private static final String[] OPS = {"register", "unregister", "search", "roster"};
+
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private final Map<String, Samples> latency = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> outcomes = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final List<String> errorSamples = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+
+    // Per-thread latency samples, merged when the run ends; exact percentiles, no buckets
+    private static class Samples {
+        private final List<long[]> chunks = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<long[]> current = new ThreadLocal<>();
+        private final ThreadLocal<int[]> used = ThreadLocal.withInitial(() -> new int[1]);
+
+        void record(long nanos) {
+            long[] chunk = current.get();
+            int[] n = used.get();
+            if (chunk == null || n[0] == chunk.length) {
+                chunk = new long[4096];
+                chunks.add(chunk);
+                current.set(chunk);
+                n[0] = 0;
+            }
+            chunk[n[0]++] = nanos;
+        }
+
+        // Only after every thread that recorded has stopped; unused slots are 0 and trimmed
+        long[] sorted() {
+            int size = 0;
+            for (long[] chunk : chunks) size += chunk.length;
+            long[] all = new long[size];
+            int at = 0;
+            for (long[] chunk : chunks) {
+                for (long v : chunk) {
+                    if (v > 0) all[at++] = v;
+                }
+            }
+            all = Arrays.copyOf(all, at);
+            Arrays.sort(all);
+            return all;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("db.url") == null) System.setProperty("db.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1");
+        if (System.getProperty("db.user") == null) System.setProperty("db.user", "sa");
+        System.setProperty("java.awt.headless", "true");
+
+        LoadTest test = new LoadTest();
+        for (String[] d : DEFAULTS) test.settings.put(d[0], d[1]);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !test.settings.containsKey(arg.substring(0, eq))) {
+                System.err.println("Unknown setting " + arg + "; known: " + test.settings.keySet());
+                System.exit(2);
+            }
+            test.settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        Map<String, Object> report = test.run();
+
+        String json = Json.write(report);
+        String file = test.settings.get("report");
+        if (file.isEmpty()) {
+            System.out.println(json);
+        } else {
+            Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8));
+            System.err.println("Report written to " + file);
+        }
+        Storage.get().close();
+        // Overbooking or duplicates fail the run, so it can gate a build
+        System.exit(((Number) report.get("violations")).longValue() == 0 ? 0 : 1);
+    }
+
+    private int intSetting(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+
+    private double doubleSetting(String key) {
+        return Double.parseDouble(settings.get(key));
+    }
+
+    private Map<String, Object> run() throws Exception {
+        int students = intSetting("students");
+        int events = intSetting("events");
+        int threads = intSetting("threads");
+
+        long seedStart = System.nanoTime();
+        if (Storage.BACKEND.equals("sql")) {
+            new AppWorkload().seed(students, events, 0);
+            try (java.sql.Connection conn = DB.getConnection()) {
+                conn.createStatement().executeUpdate("UPDATE events SET capacity = " + intSetting("capacity"));
+            }
+            Storage.get().open();
+        } else {
+            Storage.get().open();
+            List<String[]> rows = new ArrayList<>();
+            for (int i = 1; i <= students; i++) rows.add(new String[]{"Student " + i, "student" + i + "@example.com"});
+            Storage.get().addStudents(rows, (row, reason) -> { });
+            for (int i = 1; i <= events; i++) {
+                Storage.get().addEvent("Event " + i, java.sql.Date.valueOf("2026-01-01"), java.sql.Time.valueOf("09:00:00"),
+                    "Hall " + (i % 12), intSetting("capacity"));
+            }
+        }
+        List<Integer> eventIds = new ArrayList<>();
+        for (Event event : Storage.get().events()) eventIds.add(event.getEventId());
+        Collections.sort(eventIds);
+        List<Integer> studentIds = new ArrayList<>();
+        for (Student student : Storage.get().students()) studentIds.add(student.getStudentId());
+        long seedMillis = (System.nanoTime() - seedStart) / 1_000_000;
+
+        double[] mix = new double[OPS.length];
+        double total = 0;
+        for (int i = 0; i < OPS.length; i++) total += doubleSetting(OPS[i]);
+        for (int i = 0; i < OPS.length; i++) mix[i] = (i == 0 ? 0 : mix[i - 1]) + doubleSetting(OPS[i]) / total;
+        for (String op : OPS) latency.put(op, new Samples());
+
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread user = new Thread(() -> {
+                try {
+                    user(eventIds, studentIds, mix);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-user-" + t);
+            user.setDaemon(true);
+            user.start();
+        }
+
+        Thread.sleep(intSetting("warmupSec") * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        long end = start + intSetting("durationSec") * 1_000_000_000L;
+        long progressNanos = intSetting("progressSec") * 1_000_000_000L;
+        long nextProgress = progressNanos > 0 ? start + progressNanos : Long.MAX_VALUE;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.max(1, Math.min(200, (end - System.nanoTime()) / 1_000_000)));
+            if (System.nanoTime() >= nextProgress) {
+                nextProgress += progressNanos;
+                long ops = 0;
+                for (AtomicLong n : outcomes.values()) ops += n.get();
+                double secs = (System.nanoTime() - start) / 1e9;
+                System.err.printf("%6.0fs  %d ops (%.0f/s), %d errors%n", secs, ops, ops / secs, errorCount());
+            }
+        }
+        measuring = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stopping = true;
+        done.await(30, TimeUnit.SECONDS);
+
+        return report(elapsed, seedMillis, eventIds);
+    }
+
+    private long errorCount() {
+        long n = 0;
+        for (AtomicLong e : errors.values()) n += e.get();
+        return n;
+    }
+
+    // One simulated user: pick an operation, time it, think, repeat
+    private void user(List<Integer> eventIds, List<Integer> studentIds, double[] mix) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int hot = Math.min(intSetting("hotEvents"), eventIds.size());
+        double hotShare = doubleSetting("hotShare");
+        double thinkMs = doubleSetting("thinkMs");
+        boolean waitlist = Boolean.parseBoolean(settings.get("waitlist"));
+
+        while (!stopping) {
+            double pick = random.nextDouble();
+            int op = 0;
+            while (op < OPS.length - 1 && pick > mix[op]) op++;
+            int eventId = hot > 0 && random.nextDouble() < hotShare
+                ? eventIds.get(random.nextInt(hot))
+                : eventIds.get(random.nextInt(eventIds.size()));
+            int studentId = studentIds.get(random.nextInt(studentIds.size()));
+
+            long t0 = System.nanoTime();
+            String outcome;
+            try {
+                switch (OPS[op]) {
+                    case "register":
+                        outcome = RegistrationService.register(studentId, eventId, waitlist).name();
+                        break;
+                    case "unregister": {
+                        int[] roster = RosterIndex.studentIds(eventId);
+                        outcome = roster.length == 0 ? "EMPTY"
+                            : RegistrationService.unregister(roster[random.nextInt(roster.length)], eventId) ? "UNREGISTERED" : "GONE";
+                        break;
+                    }
+                    case "search":
+                        Storage.get().search("Student " + random.nextInt(1000)).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+                        outcome = "OK";
+                        break;
+                    default:
+                        new RosterIndex.Source(eventId).fetch(null, PagedTableModel.DEFAULT_PAGE_SIZE);
+                        RosterIndex.remaining(eventId);
+                        outcome = "OK";
+                }
+            } catch (Exception e) {
+                outcome = null;
+                if (measuring) {
+                    errors.computeIfAbsent(OPS[op], k -> new AtomicLong()).incrementAndGet();
+                    if (errorSamples.size() < 20) errorSamples.add(OPS[op] + ": " + e);
+                }
+            }
+            long nanos = System.nanoTime() - t0;
+            if (measuring) {
+                latency.get(OPS[op]).record(Math.max(1, nanos));
+                if (outcome != null) outcomes.computeIfAbsent(OPS[op] + "." + outcome, k -> new AtomicLong()).incrementAndGet();
+            }
+
+            if (thinkMs > 0) {
+                try {
+                    Thread.sleep((long) (-Math.log(1 - random.nextDouble()) * thinkMs));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> report(double elapsed, long seedMillis, List<Integer> eventIds) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("backend", Storage.BACKEND);
+        report.put("seedMs", seedMillis);
+        report.put("elapsedSec", round(elapsed));
+
+        long allOps = 0;
+        long allErrors = errorCount();
+        Map<String, Object> ops = new LinkedHashMap<>();
+        for (String op : OPS) {
+            long[] sorted = latency.get(op).sorted();
+            long failed = errors.getOrDefault(op, new AtomicLong()).get();
+            allOps += sorted.length;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", sorted.length);
+            stats.put("perSec", round(sorted.length / elapsed));
+            stats.put("errors", failed);
+            stats.put("errorRate", sorted.length == 0 ? 0 : round((double) failed / sorted.length));
+            stats.put("p50Ms", percentileMs(sorted, 50));
+            stats.put("p99Ms", percentileMs(sorted, 99));
+            stats.put("p999Ms", percentileMs(sorted, 99.9));
+            stats.put("maxMs", sorted.length == 0 ? 0 : round(sorted[sorted.length - 1] / 1e6));
+            ops.put(op, stats);
+        }
+        report.put("operations", allOps);
+        report.put("throughputPerSec", round(allOps / elapsed));
+        report.put("errors", allErrors);
+        report.put("errorRate", allOps == 0 ? 0 : round((double) allErrors / allOps));
+        report.put("latency", ops);
+        Map<String, Object> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> e : outcomes.entrySet()) counts.put(e.getKey(), e.getValue().get());
+        report.put("outcomes", counts);
+        report.put("errorSamples", new ArrayList<>(errorSamples));
+
+        // Checked on what storage holds, not on the roster index the operations used
+        Map<Integer, Integer> capacity = new HashMap<>();
+        for (Event event : Storage.get().events()) capacity.put(event.getEventId(), event.getCapacity());
+        Map<Integer, Integer> registered = new HashMap<>();
+        Set<Long> pairs = new HashSet<>();
+        long[] duplicates = {0};
+        Storage.get().forEachRegistration((eventId, studentId) -> {
+            registered.merge(eventId, 1, Integer::sum);
+            if (!pairs.add(((long) eventId << 32) | (studentId & 0xffffffffL))) duplicates[0]++;
+        });
+        List<Object> overbooked = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : registered.entrySet()) {
+            int cap = capacity.getOrDefault(e.getKey(), 0);
+            if (e.getValue() > cap) {
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("eventId", e.getKey());
+                event.put("capacity", cap);
+                event.put("registered", e.getValue());
+                overbooked.add(event);
+            }
+        }
+        int indexMismatches = 0;
+        for (Integer eventId : eventIds) {
+            if (RosterIndex.count(eventId) != registered.getOrDefault(eventId, 0)) indexMismatches++;
+        }
+        report.put("overbookedEvents", overbooked);
+        report.put("duplicateRegistrations", duplicates[0]);
+        report.put("rosterIndexMismatches", indexMismatches);
+        report.put("violations", overbooked.size() + duplicates[0]);
+        return report;
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return round(sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+}
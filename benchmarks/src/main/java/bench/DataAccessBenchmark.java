@@ -0,0 +1,92 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of the data-access paths behind the three panels, against an in-memory H2
+ * database seeded with {@code students} rows. Each parameter combination runs in its
+ * own fork, so every fork gets a fresh database and connection pool.
+ *
+ * <pre>
+ * mvn -B package
+ * java -jar benchmarks/target/benchmarks.jar DataAccessBenchmark -p students=1000,100000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataAccessBenchmark {
+    @Param({"1000", "100000"})
+    public int students;
+
+    @Param({"200"})
+    public int events;
+
+    @Param({"3"})
+    public int registrationsPerStudent;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // DB reads these when the class is first touched, which happens in seed()
+        System.setProperty("db.url", "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+        System.setProperty("db.user", "sa");
+        System.setProperty("java.awt.headless", "true");
+        workload = Workload.load();
+        workload.seed(students, events, registrationsPerStudent);
+    }
+
+    private int randomEvent() {
+        return 1 + ThreadLocalRandom.current().nextInt(workload.eventCount());
+    }
+
+    private int randomStudent() {
+        return 1 + ThreadLocalRandom.current().nextInt(workload.studentCount());
+    }
+
+    @Benchmark
+    public void acquireConnection() throws Exception {
+        workload.acquireConnection();
+    }
+
+    @Benchmark
+    public Object eventsFirstPage() throws Exception {
+        return workload.eventsPage();
+    }
+
+    @Benchmark
+    public Object studentsFirstPage() throws Exception {
+        return workload.studentsPage();
+    }
+
+    @Benchmark
+    public int allEventsUncached() throws Exception {
+        return workload.loadAllEvents();
+    }
+
+    @Benchmark
+    public Object registrationsForEvent() throws Exception {
+        return workload.registrationsPage(randomEvent());
+    }
+
+    @Benchmark
+    public Object rosterForEvent() throws Exception {
+        return workload.rosterPage(randomEvent());
+    }
+
+    @Benchmark
+    public Object nameSearch() throws Exception {
+        return workload.searchByName("student " + ThreadLocalRandom.current().nextInt(100));
+    }
+
+    @Benchmark
+    public Object registerAndUnregister() throws Exception {
+        return workload.registerAndUnregister(randomStudent(), randomEvent());
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.util.List;
+
+/**
+ * The application classes live in the default package, which JMH benchmarks cannot
+ * import. {@code AppWorkload} (default package) implements this interface on top of
+ * them and the benchmarks load it by name.
+ */
+public interface Workload {
+    /** Creates the schema in an embedded database and fills it with generated rows. */
+    void seed(int students, int events, int registrationsPerStudent) throws Exception;
+
+    int studentCount();
+
+    int eventCount();
+
+    void acquireConnection() throws Exception;
+
+    List<Object[]> eventsPage() throws Exception;
+
+    List<Object[]> studentsPage() throws Exception;
+
+    int loadAllEvents() throws Exception;
+
+    List<Object[]> registrationsPage(int eventId) throws Exception;
+
+    /** The same roster rendered from the in-memory roster index. */
+    List<Object[]> rosterPage(int eventId) throws Exception;
+
+    List<Object[]> searchByName(String query) throws Exception;
+
+    Object registerAndUnregister(int studentId, int eventId) throws Exception;
+
+    static Workload load() {
+        try {
+            return (Workload) Class.forName("AppWorkload").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("AppWorkload not on the classpath", e);
+        }
+    }
+}